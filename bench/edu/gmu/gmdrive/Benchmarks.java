@@ -0,0 +1,27 @@
+package edu.gmu.gmdrive;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+ * Runs the benchmark suite with the GC profiler attached so every result
+ * carries an allocation rate (gc.alloc.rate.norm = bytes per operation).
+ * Accepts the usual JMH command line, e.g. "Vehicle" to run a subset.
+ * Run from the project root so route files resolve.
+ */
+public class Benchmarks {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		ChainedOptionsBuilder options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class);
+		if(args.length == 0)
+			options.include("edu\\.gmu\\.gmdrive\\..*Benchmark");
+		new Runner(options.build()).run();
+	}
+}
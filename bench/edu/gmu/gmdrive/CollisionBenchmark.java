@@ -0,0 +1,65 @@
+package edu.gmu.gmdrive;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Collision detection and response for traffic fleets, after each world
+ * step.  Spread out fleets rarely touch, so this is mostly the broadphase;
+ * dense ones pack every car against its neighbours.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CollisionBenchmark {
+	@Param({"1000", "10000"})
+	int vehicles;
+	
+	@Param({"spread", "dense"})
+	String layout;
+	
+	PhysicsWorld mWorld;
+	Vehicle[] mFleet;
+	Collisions mCollisions;
+	
+	@Setup
+	public void setup() {
+		Random random = new Random(7);
+		float size = layout.equals("dense") ? 8 * (float)Math.sqrt(vehicles) : 70 * (float)Math.sqrt(vehicles);
+		mWorld = new PhysicsWorld(vehicles);
+		mFleet = new Vehicle[vehicles];
+		for(int i = 0; i < vehicles; i++) {
+			mFleet[i] = new Vehicle(mWorld);
+			mFleet[i].setLocation(new Vec2(random.nextFloat() * size, random.nextFloat() * size),
+					random.nextFloat() * 6.28f);
+		}
+		mCollisions = new Collisions(mWorld);
+		mCollisions.step(); // first full sort
+	}
+	
+	@Benchmark
+	public Collisions step() {
+		for(int i = 0; i < mFleet.length; i++) {
+			mFleet[i].setSteering(0.2f);
+			mFleet[i].setThrottle(0.6f);
+		}
+		mWorld.step(10);
+		mCollisions.step();
+		return mCollisions;
+	}
+}
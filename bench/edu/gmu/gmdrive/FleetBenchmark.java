@@ -0,0 +1,69 @@
+package edu.gmu.gmdrive;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Whole-world steps for large traffic fleets.  Compare the parallelism rows
+ * to see how the step scales with cores.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FleetBenchmark {
+	@Param({"1000", "10000"})
+	int vehicles;
+	
+	@Param({"1", "2", "4", "8"})
+	int parallelism;
+	
+	PhysicsWorld mWorld;
+	Vehicle[] mFleet;
+	ForkJoinPool mPool;
+	
+	@Setup
+	public void setup() {
+		Random random = new Random(7);
+		mPool = new ForkJoinPool(parallelism);
+		mWorld = new PhysicsWorld(vehicles);
+		mWorld.setPool(mPool);
+		mFleet = new Vehicle[vehicles];
+		for(int i = 0; i < vehicles; i++) {
+			mFleet[i] = new Vehicle(mWorld);
+			mFleet[i].setLocation(new Vec2(random.nextFloat() * 5000, random.nextFloat() * 5000),
+					random.nextFloat() * 6.28f);
+		}
+	}
+	
+	@TearDown
+	public void tearDown() {
+		mPool.shutdown();
+	}
+	
+	@Benchmark
+	public PhysicsWorld step() {
+		for(int i = 0; i < mFleet.length; i++) {
+			mFleet[i].setSteering(0.2f);
+			mFleet[i].setThrottle(0.6f);
+		}
+		mWorld.step(10);
+		return mWorld;
+	}
+}
@@ -0,0 +1,95 @@
+package edu.gmu.gmdrive;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * The per-step recording path as seen by the simulation thread, and the row
+ * formatting done by the writer thread
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RecorderBenchmark {
+	@Param({"BLOCK", "DROP"})
+	TelemetryRecorder.OverflowPolicy policy;
+	
+	Simulation mSim;
+	TelemetryRecorder mRecorder;
+	StringBuilder mRow;
+	TelemetryColumn[] mColumns;
+	
+	@Setup
+	public void setup() throws IOException {
+		Route route = new Route("route1.xml");
+		mSim = new Simulation(route, 1);
+		mSim.setInputs(0.1f, 0.7f, 0.0f);
+		mRecorder = new TelemetryRecorder(new NullWriter(), TelemetryColumn.defaults(),
+				TelemetryRecorder.DEFAULT_CAPACITY, TelemetryRecorder.DEFAULT_BATCH, policy);
+		mRow = new StringBuilder();
+		mColumns = TelemetryColumn.defaults();
+	}
+	
+	@TearDown
+	public void tearDown() {
+		mRecorder.close();
+	}
+	
+	@Benchmark
+	public void record() {
+		mRecorder.record(mSim);
+	}
+	
+	@Benchmark
+	public StringBuilder formatRow() {
+		mRow.setLength(0);
+		for(int i = 0; i < mColumns.length; i++) {
+			if(i > 0) mRow.append(',');
+			TelemetryRecorder.appendValue(mRow, mColumns[i].sample(mSim), mColumns[i].isIntegral());
+		}
+		return mRow;
+	}
+	
+	/*
+	 * The old per-frame path: String.format of the whole row
+	 */
+	@Benchmark
+	public String formatRowLegacy() {
+		Vehicle driver = mSim.getDriverVehicle();
+		Vec2 target = mSim.getTarget();
+		return String.format("%d,%f,%f,%f,%f,%f,%f,%f,%f\n",
+				mSim.getSimTime(),
+				driver.getLocation().x,
+				driver.getLocation().y,
+				mSim.getThrottle(),
+				mSim.getBrakes(),
+				mSim.getSteering(),
+				driver.getSpeedometer() * 2.2369,
+				target != null ? target.x : Float.NaN,
+				target != null ? target.y : Float.NaN);
+	}
+	
+	static class NullWriter extends Writer {
+		public void write(char[] cbuf, int off, int len) {}
+		public Writer append(CharSequence csq) { return this; }
+		public void flush() {}
+		public void close() {}
+	}
+}
@@ -0,0 +1,80 @@
+package edu.gmu.gmdrive;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Loading generated route files of increasing size, parsing the XML or from
+ * the binary cache (see RouteCache)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RouteBenchmark {
+	@Param({"100", "10000", "100000"})
+	int waypoints;
+	
+	@Param({"false", "true"})
+	boolean cached;
+	
+	File mRouteFile;
+	
+	@Setup
+	public void setup() throws IOException {
+		mRouteFile = File.createTempFile("gmdrive-route", ".xml");
+		writeRoute(mRouteFile, waypoints, 42);
+		if(cached)
+			new Route(mRouteFile.getPath()); // writes the cache
+	}
+	
+	@TearDown
+	public void tearDown() {
+		RouteCache.cacheFile(mRouteFile).delete();
+		mRouteFile.delete();
+	}
+	
+	@Benchmark
+	public Route load() {
+		return new Route(mRouteFile.getPath(), cached);
+	}
+	
+	/*
+	 * Random walk in the same format as route1.xml..route5.xml, coordinates in miles
+	 */
+	static void writeRoute(File file, int waypoints, long seed) throws IOException {
+		Random random = new Random(seed);
+		Writer out = new FileWriter(file);
+		try {
+			out.write("<?xml version=\"1.0\" ?>\n<route name=\"Generated " + waypoints + "\">\n");
+			float x = 1.0f, y = 1.0f;
+			for(int i = 0; i < waypoints; i++) {
+				x += (random.nextFloat() - 0.5f) * 0.2f;
+				y += (random.nextFloat() - 0.5f) * 0.2f;
+				out.write("\t<waypoint x=\"" + x + "\" y=\"" + y + "\" />\n");
+			}
+			out.write("</route>\n");
+		} finally {
+			out.close();
+		}
+	}
+}
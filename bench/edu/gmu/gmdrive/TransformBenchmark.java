@@ -0,0 +1,59 @@
+package edu.gmu.gmdrive;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * RigidBody space conversions: the allocating Vec2 helpers against the
+ * per-component versions used by the step loop
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TransformBenchmark {
+	RigidBody mBody;
+	Vec2 mPoint;
+	
+	@Setup
+	public void setup() {
+		mBody = new RigidBody(new Vec2(0.935f, 2.385f), 542.6f);
+		mBody.setLocation(new Vec2(10.0f, 20.0f), 0.7f);
+		mPoint = new Vec2(-0.791f, 1.36f);
+	}
+	
+	@Benchmark
+	public Vec2 relToWorld() {
+		return mBody.relToWorld(mPoint);
+	}
+	
+	@Benchmark
+	public Vec2 worldToRel() {
+		return mBody.worldToRel(mPoint);
+	}
+	
+	@Benchmark
+	public void relToWorldComponents(Blackhole bh) {
+		bh.consume(mBody.relToWorldX(mPoint.x, mPoint.y));
+		bh.consume(mBody.relToWorldY(mPoint.x, mPoint.y));
+	}
+	
+	@Benchmark
+	public void worldToRelComponents(Blackhole bh) {
+		bh.consume(mBody.worldToRelX(mPoint.x, mPoint.y));
+		bh.consume(mBody.worldToRelY(mPoint.x, mPoint.y));
+	}
+}
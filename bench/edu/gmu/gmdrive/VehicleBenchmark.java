@@ -0,0 +1,63 @@
+package edu.gmu.gmdrive;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * One physics step of the driver vehicle, including the wheel loop and the
+ * rigid body integration, per integrator.  See IntegratorAccuracy for what
+ * each buys in accuracy.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VehicleBenchmark {
+	@Param({"1", "10"})
+	int step;
+	
+	@Param({"EULER", "SEMI_IMPLICIT", "RK4"})
+	String integrator;
+	
+	Vehicle mVehicle;
+	
+	@Setup
+	public void setup() {
+		mVehicle = new Vehicle();
+		mVehicle.getWorld().setIntegrator(PhysicsWorld.Integrator.valueOf(integrator), 1);
+		mVehicle.setLocation(new Vec2(1000.0f, 1000.0f), (float)Math.PI);
+		
+		/* Get it rolling so the tire model is not sitting at zero slip */
+		for(int i = 0; i < 500; i++) {
+			mVehicle.setThrottle(1.0f);
+			mVehicle.update(10);
+		}
+	}
+	
+	@Benchmark
+	public Vehicle update() {
+		mVehicle.setSteering(0.25f);
+		mVehicle.setThrottle(0.5f);
+		mVehicle.setBrakes(0.0f);
+		mVehicle.update(step);
+		return mVehicle;
+	}
+	
+	@Benchmark
+	public float speedometer() {
+		return mVehicle.getSpeedometer();
+	}
+}
@@ -0,0 +1,82 @@
+package edu.gmu.gmdrive;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WheelBenchmark {
+	/* Linear tire, and the same step on lookup-table Pacejka curves */
+	@Param({"default", "vehicles/mustang-pacejka.properties"})
+	String profile;
+
+	PhysicsWorld mWorld;
+	int mWheel;
+	float mGroundX, mGroundY;
+	boolean mToggle;
+	TireCurve mCurve;
+	float mSlip;
+	
+	@Setup
+	public void setup() throws IOException {
+		mWorld = new PhysicsWorld(1);
+		mWheel = mWorld.mWheelStart[new Vehicle(mWorld, VehicleProfile.load(profile)).getIndex()];
+		mWorld.setSteeringAngle(mWheel, 0.1f);
+		mGroundX = 0.3f;
+		mGroundY = -20.0f;
+		mCurve = new TireCurve(1.0f, 1.9f, 1.0f, 0.97f);
+	}
+	
+	@Benchmark
+	public void calculateForce(Blackhole bh) {
+		mWorld.mWheelTorque[mWheel] += 60.0f;
+		mWorld.wheelForce(mWheel, mGroundX, mGroundY, 0.01f);
+		bh.consume(mWorld.mResponseX[mWheel]);
+		bh.consume(mWorld.mResponseY[mWheel]);
+	}
+	
+	/*
+	 * Steering changes every step, so the axes have to be recomputed
+	 */
+	@Benchmark
+	public void steerAndCalculateForce(Blackhole bh) {
+		mToggle = !mToggle;
+		mWorld.setSteeringAngle(mWheel, mToggle ? 0.11f : 0.1f);
+		mWorld.wheelForce(mWheel, mGroundX, mGroundY, 0.01f);
+		bh.consume(mWorld.mResponseX[mWheel]);
+		bh.consume(mWorld.mResponseY[mWheel]);
+	}
+	
+	/*
+	 * One curve evaluation through the table, against the magic formula it
+	 * was sampled from
+	 */
+	@Benchmark
+	public float curveTable() {
+		mSlip = mSlip > 20.0f ? -20.0f : mSlip + 0.37f;
+		return mCurve.force(mSlip);
+	}
+	
+	@Benchmark
+	public double curveFormula() {
+		mSlip = mSlip > 20.0f ? -20.0f : mSlip + 0.37f;
+		return mCurve.magicFormula(mSlip);
+	}
+}
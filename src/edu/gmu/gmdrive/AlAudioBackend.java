@@ -0,0 +1,102 @@
+package edu.gmu.gmdrive;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.openal.AL10;
+import org.lwjgl.util.WaveData;
+
+/*
+ * OpenAL implementation of AudioBackend.  AL must already be created.
+ */
+public class AlAudioBackend implements AudioBackend {
+	private FloatBuffer mOrientation;
+
+	public AlAudioBackend() {
+		mOrientation = BufferUtils.createFloatBuffer(6);
+	}
+
+	@Override
+	public int loadBuffer(String filename) throws IOException {
+		WaveData waveData = WaveData.create(new BufferedInputStream(new FileInputStream(filename)));
+		if(waveData == null)
+			throw new IOException("AL10 Failure: Could not decode " + filename);
+
+		int buffer = AL10.alGenBuffers();
+		if(AL10.alGetError() != AL10.AL_NO_ERROR) {
+			waveData.dispose();
+			throw new IOException("AL10 Failure: Could not generate buffer handle");
+		}
+
+		AL10.alBufferData(buffer, waveData.format, waveData.data, waveData.samplerate);
+		waveData.dispose();
+		return buffer;
+	}
+
+	@Override
+	public void deleteBuffer(int buffer) {
+		AL10.alDeleteBuffers(buffer);
+	}
+
+	@Override
+	public int createSource() {
+		int source = AL10.alGenSources();
+		return AL10.alGetError() == AL10.AL_NO_ERROR ? source : 0;
+	}
+
+	@Override
+	public void deleteSource(int source) {
+		AL10.alDeleteSources(source);
+	}
+
+	@Override
+	public void configureSource(int source, int buffer, float referenceDistance, float maxDistance, float gain) {
+		AL10.alSourcei(source, AL10.AL_BUFFER, buffer);
+
+		AL10.alSourcef(source, AL10.AL_REFERENCE_DISTANCE, referenceDistance);
+		AL10.alSourcef(source, AL10.AL_MAX_DISTANCE, maxDistance);
+
+		AL10.alSourcei(source, AL10.AL_SOURCE_RELATIVE, AL10.AL_FALSE);
+
+		AL10.alSourcef(source, AL10.AL_PITCH, 1.0f);
+		AL10.alSourcef(source, AL10.AL_GAIN, gain);
+
+		AL10.alSourcei(source, AL10.AL_LOOPING, AL10.AL_FALSE);
+	}
+
+	@Override
+	public void setSourceState(int source, float x, float y, float velX, float velY) {
+		AL10.alSource3f(source, AL10.AL_POSITION, x, y, 0.0f);
+		AL10.alSource3f(source, AL10.AL_VELOCITY, velX, velY, 0.0f);
+	}
+
+	@Override
+	public void play(int source) {
+		AL10.alSourcePlay(source);
+	}
+
+	@Override
+	public void stop(int source) {
+		AL10.alSourceStop(source);
+	}
+
+	@Override
+	public boolean isPlaying(int source) {
+		return AL10.alGetSourcei(source, AL10.AL_SOURCE_STATE) == AL10.AL_PLAYING;
+	}
+
+	@Override
+	public void setListener(float x, float y, float velX, float velY, float atX, float atY) {
+		AL10.alListener3f(AL10.AL_POSITION, x, y, 0f);
+		AL10.alListener3f(AL10.AL_VELOCITY, velX, velY, 0f);
+
+		/* "at" is the heading turned a quarter, "up" points out of the screen */
+		mOrientation.clear();
+		mOrientation.put(-atY).put(atX).put(0.0f).put(0.0f).put(0.0f).put(-1.0f);
+		mOrientation.flip();
+		AL10.alListener(AL10.AL_ORIENTATION, mOrientation);
+	}
+}
@@ -0,0 +1,42 @@
+package edu.gmu.gmdrive;
+
+import java.io.IOException;
+
+/*
+ * The audio calls the engine needs, so the audio thread can run against
+ * OpenAL (AlAudioBackend) or without a sound device (NullAudioBackend).
+ * Only ever called from the audio thread.
+ */
+public interface AudioBackend {
+	/*
+	 * Decodes a sound file into a new buffer and returns its handle
+	 */
+	int loadBuffer(String filename) throws IOException;
+
+	void deleteBuffer(int buffer);
+
+	/*
+	 * New source handle, or 0 if the device has run out
+	 */
+	int createSource();
+
+	void deleteSource(int source);
+
+	/*
+	 * Binds buffer (0 to unbind) and sets the distance model parameters
+	 */
+	void configureSource(int source, int buffer, float referenceDistance, float maxDistance, float gain);
+
+	void setSourceState(int source, float x, float y, float velX, float velY);
+
+	void play(int source);
+
+	void stop(int source);
+
+	boolean isPlaying(int source);
+
+	/*
+	 * Listener position, velocity and facing (a unit vector in the world plane)
+	 */
+	void setListener(float x, float y, float velX, float velY, float atX, float atY);
+}
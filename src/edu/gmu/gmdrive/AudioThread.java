@@ -0,0 +1,313 @@
+package edu.gmu.gmdrive;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Runs all audio backend calls on a dedicated thread so driver latency never
+ * reaches the simulation.
+ *
+ * The game thread publishes emitter commands (create, move, play, stop,
+ * destroy) into a preallocated single producer, single consumer ring and
+ * returns immediately.  Listener state goes through a lock-free triple buffer
+ * instead: only the latest listener matters, so the audio thread picks up the
+ * most recent one once per pass.  The audio thread drains the ring every UPDATE_INTERVAL and
+ * owns the SoundCache, the SourcePool and the per-emitter state.
+ *
+ * If the ring is full, commands that update an emitter are dropped and
+ * counted.  Creating and destroying one waits for room instead (at most a
+ * pass, UPDATE_INTERVAL), so an emitter id is never handed out again while
+ * the audio thread still holds its source.
+ *
+ * Without start() nothing runs in the background and update() can be called
+ * directly, e.g. against a NullAudioBackend.
+ */
+public class AudioThread {
+	public static final int DEFAULT_CAPACITY = 4096; // commands, rounded up to a power of two
+	public static final long UPDATE_INTERVAL = 10000000; // ns between passes
+	private static final long PUBLISH_WAIT = 100000; // ns the game thread sleeps while the ring is full
+
+	private static final int CREATE = 0, STATE = 1, PLAY = 2, STOP = 3, PRIORITY = 4, DESTROY = 5;
+	private static final int ARGS = 4;
+
+	private AudioBackend mBackend;
+	private SoundCache mCache;
+	private SourcePool mPool;
+
+	/* Command ring */
+	private int[] mOps, mIds;
+	private float[] mArgs;
+	private String[] mNames;
+	private int mMask;
+	private AtomicLong mHead; // commands published by the game thread
+	private AtomicLong mTail; // commands applied by the audio thread
+	private AtomicLong mDropped;
+
+	/*
+	 * Listener triple buffer: the game thread fills mListener[mBack] and swaps
+	 * it into the middle slot, the audio thread swaps the middle slot out into
+	 * mFront when it is marked fresh
+	 */
+	private static final int FRESH = 4;
+	private float[][] mListener;
+	private AtomicInteger mMiddle;
+	private int mBack, mFront;
+
+	/* Emitter ids, handed out on the game thread */
+	private int mNextId;
+	private int[] mFreeIds;
+	private int mFreeCount;
+
+	/* Audio thread state */
+	private Emitter[] mEmitters;
+
+	private Thread mThread;
+	private volatile boolean mRunning;
+	private PhaseStats mPhase;
+
+	public AudioThread(AudioBackend backend) {
+		this(backend, DEFAULT_CAPACITY);
+	}
+
+	public AudioThread(AudioBackend backend, int capacity) {
+		mBackend = backend;
+		mCache = new SoundCache(backend);
+		mPool = new SourcePool(backend);
+
+		int slots = Integer.highestOneBit(capacity);
+		if(slots < capacity) slots <<= 1;
+		mOps = new int[slots];
+		mIds = new int[slots];
+		mArgs = new float[slots * ARGS];
+		mNames = new String[slots];
+		mMask = slots - 1;
+		mHead = new AtomicLong();
+		mTail = new AtomicLong();
+		mDropped = new AtomicLong();
+		mListener = new float[3][6];
+		mFront = 0;
+		mMiddle = new AtomicInteger(1);
+		mBack = 2;
+
+		mFreeIds = new int[16];
+		mEmitters = new Emitter[16];
+		mPhase = FrameProfiler.DISABLED.phase("audio");
+	}
+
+	/*
+	 * Times every background pass as the phase "audio"; call before start()
+	 */
+	public void setProfiler(FrameProfiler profiler) {
+		mPhase = profiler.phase("audio");
+	}
+
+	public void start() {
+		mRunning = true;
+		mThread = new Thread(new Runnable() {
+			public void run() {
+				long next = System.nanoTime();
+				while(mRunning) {
+					mPhase.begin();
+					update();
+					mPhase.end();
+					next += UPDATE_INTERVAL;
+					long wait = next - System.nanoTime();
+					if(wait > 0) LockSupport.parkNanos(wait);
+					else next = System.nanoTime();
+				}
+			}
+		}, "Audio");
+		mThread.setDaemon(true);
+		mThread.start();
+	}
+
+	/*
+	 * Stops the thread, applies what is still queued and frees every source
+	 * and buffer
+	 */
+	public void shutdown() {
+		if(mThread != null) {
+			mRunning = false;
+			LockSupport.unpark(mThread);
+			try {
+				mThread.join();
+			} catch(InterruptedException e) {
+				e.printStackTrace();
+			}
+			mThread = null;
+		}
+		update();
+		mPool.destroy();
+		mCache.destroy();
+		if(mDropped.get() > 0)
+			System.err.println("Audio: " + mDropped.get() + " commands dropped (queue full)");
+	}
+
+	/*
+	 * GAME THREAD
+	 */
+
+	/*
+	 * New emitter for a sound file; the file is loaded on the audio thread
+	 */
+	int createEmitter(String filename) {
+		int id = mFreeCount > 0 ? mFreeIds[--mFreeCount] : mNextId++;
+		publishWaiting(CREATE, id, filename);
+		return id;
+	}
+
+	void setEmitterState(int id, float x, float y, float velX, float velY) {
+		publish(STATE, id, x, y, velX, velY, null);
+	}
+
+	void play(int id) { publish(PLAY, id, 0, 0, 0, 0, null); }
+	void stop(int id) { publish(STOP, id, 0, 0, 0, 0, null); }
+	void setPriority(int id, float priority) { publish(PRIORITY, id, priority, 0, 0, 0, null); }
+
+	void destroyEmitter(int id) {
+		/* Once queued the id is safe to reuse at once: commands are applied in order */
+		if(!publishWaiting(DESTROY, id, null)) return; // the audio thread is gone, never reuse it
+		if(mFreeCount == mFreeIds.length) mFreeIds = Arrays.copyOf(mFreeIds, mFreeCount * 2);
+		mFreeIds[mFreeCount++] = id;
+	}
+
+	/*
+	 * Listener position, velocity and facing; only the latest value is applied
+	 */
+	public void setListener(float x, float y, float velX, float velY, float atX, float atY) {
+		float[] listener = mListener[mBack];
+		listener[0] = x;
+		listener[1] = y;
+		listener[2] = velX;
+		listener[3] = velY;
+		listener[4] = atX;
+		listener[5] = atY;
+		mBack = mMiddle.getAndSet(mBack | FRESH) & ~FRESH;
+	}
+
+	private void publish(int op, int id, float a, float b, float c, float d, String name) {
+		if(!tryPublish(op, id, a, b, c, d, name))
+			mDropped.incrementAndGet();
+	}
+
+	/*
+	 * Publishes a command that must not be lost, waiting for the audio thread
+	 * to make room; without start() the queue is applied here instead.  False
+	 * only if the audio thread has died.
+	 */
+	private boolean publishWaiting(int op, int id, String name) {
+		while(!tryPublish(op, id, 0, 0, 0, 0, name)) {
+			Thread thread = mThread;
+			if(thread == null) {
+				update();
+			} else if(!thread.isAlive()) {
+				mDropped.incrementAndGet();
+				return false;
+			} else {
+				LockSupport.parkNanos(PUBLISH_WAIT);
+			}
+		}
+		return true;
+	}
+
+	private boolean tryPublish(int op, int id, float a, float b, float c, float d, String name) {
+		long head = mHead.get();
+		if(head - mTail.get() > mMask)
+			return false;
+		int slot = (int)(head & mMask);
+		mOps[slot] = op;
+		mIds[slot] = id;
+		mArgs[slot * ARGS] = a;
+		mArgs[slot * ARGS + 1] = b;
+		mArgs[slot * ARGS + 2] = c;
+		mArgs[slot * ARGS + 3] = d;
+		mNames[slot] = name;
+		mHead.lazySet(head + 1);
+		return true;
+	}
+
+	/*
+	 * AUDIO THREAD
+	 */
+
+	/*
+	 * One pass: latest listener state, then every queued command
+	 */
+	public void update() {
+		applyListener();
+
+		long tail = mTail.get();
+		long head = mHead.get();
+		for(; tail < head; tail++) {
+			int slot = (int)(tail & mMask);
+			apply(mOps[slot], mIds[slot], slot * ARGS, mNames[slot]);
+			mNames[slot] = null;
+		}
+		mTail.lazySet(tail);
+	}
+
+	private void applyListener() {
+		if((mMiddle.get() & FRESH) == 0) return;
+		mFront = mMiddle.getAndSet(mFront) & ~FRESH;
+
+		float[] listener = mListener[mFront];
+		mBackend.setListener(listener[0], listener[1], listener[2], listener[3], listener[4], listener[5]);
+		mPool.setListener(listener[0], listener[1]);
+	}
+
+	private void apply(int op, int id, int args, String name) {
+		if(op == CREATE) {
+			if(id >= mEmitters.length) mEmitters = Arrays.copyOf(mEmitters, Math.max(mEmitters.length * 2, id + 1));
+			Emitter emitter = new Emitter();
+			try {
+				emitter.mBuffer = mCache.acquire(name);
+				emitter.mFilename = name;
+			} catch(IOException e) {
+				e.printStackTrace();
+				System.err.println("Audio: could not load " + name + ", emitter is silent");
+			}
+			mEmitters[id] = emitter;
+			return;
+		}
+
+		Emitter emitter = id < mEmitters.length ? mEmitters[id] : null;
+		if(emitter == null) return; // its CREATE was dropped
+
+		switch(op) {
+		case STATE:
+			emitter.mX = mArgs[args];
+			emitter.mY = mArgs[args + 1];
+			emitter.mVelX = mArgs[args + 2];
+			emitter.mVelY = mArgs[args + 3];
+			if(emitter.mVoice != 0)
+				mBackend.setSourceState(emitter.mVoice, emitter.mX, emitter.mY, emitter.mVelX, emitter.mVelY);
+			break;
+		case PLAY:
+			if(emitter.mBuffer == 0) break;
+			int source = mPool.acquire(emitter);
+			if(source != 0) mBackend.play(source);
+			break;
+		case STOP:
+			if(emitter.mVoice != 0) mBackend.stop(emitter.mVoice);
+			break;
+		case PRIORITY:
+			emitter.mPriority = mArgs[args];
+			break;
+		case DESTROY:
+			mPool.release(emitter);
+			if(emitter.mFilename != null) mCache.release(emitter.mFilename);
+			mEmitters[id] = null;
+			break;
+		}
+	}
+
+	public long getDropped() {
+		return mDropped.get();
+	}
+
+	public SoundCache getCache() { return mCache; }
+	public SourcePool getPool() { return mPool; }
+}
@@ -0,0 +1,105 @@
+package edu.gmu.gmdrive;
+
+/*
+ * Drives the simulation's route without a human: pure pursuit for steering,
+ * PID on speed for throttle and brakes.
+ *
+ * The pursuit point lies LOOKAHEAD_TIME seconds of travel (at least
+ * MIN_LOOKAHEAD m) ahead along the route's RoutePath, measured from the
+ * vehicle's projection onto the leg it is driving.  The steering angle is the
+ * one that puts the rear axle on a circular arc through that point.  The
+ * target speed is the cruise speed, reduced so the lateral acceleration on
+ * that arc stays below MAX_LATERAL_ACCEL.
+ */
+public class Autopilot implements InputProvider {
+	public static final float DEFAULT_CRUISE_MPH = 30.0f;
+	public static final float MIN_LOOKAHEAD = 12.0f; // m
+	public static final float LOOKAHEAD_TIME = 1.2f; // s
+	public static final float MAX_LATERAL_ACCEL = 3.0f; // m/s^2
+
+	private static final float KP = 0.4f, KI = 0.08f, KD = 0.02f;
+	private static final float MAX_INTEGRAL = 5.0f; // m/s s
+
+	private float mCruise; // m/s
+	private float mIntegral, mLastError;
+	private boolean mHaveError;
+
+	/* Last pursuit point, for display */
+	private float mPursuitX, mPursuitY;
+	private float[] mPoint = new float[2];
+
+	public Autopilot() {
+		this(DEFAULT_CRUISE_MPH);
+	}
+
+	public Autopilot(float cruiseMph) {
+		mCruise = cruiseMph * Simulation.MPH_TO_MPS;
+	}
+
+	@Override
+	public void update(Simulation sim) {
+		Vehicle vehicle = sim.getDriverVehicle();
+		Route route = sim.getRoute();
+		if(sim.isComplete()) {
+			sim.setInputs(0.0f, 0.0f, 1.0f);
+			return;
+		}
+
+		float x = vehicle.getX(), y = vehicle.getY();
+		float speed = vehicle.getSpeedometer();
+		float lookahead = Math.max(MIN_LOOKAHEAD, speed * LOOKAHEAD_TIME);
+		pursuitPoint(route, route.getCurrentIndex(), x, y, lookahead);
+
+		/* Pursuit point in body space; forward is +y */
+		float dx = mPursuitX - x, dy = mPursuitY - y;
+		float relX = vehicle.worldToRelX(dx, dy);
+		float relY = vehicle.worldToRelY(dx, dy);
+		float distSq = relX * relX + relY * relY;
+		float curvature = distSq > 0 ? 2 * relX / distSq : 0; // 2 sin(alpha) / distance
+
+		/* A positive steering angle turns the wheels towards -x */
+		float angle = (float)Math.atan(curvature * vehicle.getWheelbase());
+		float steering = clamp(-angle / vehicle.getSteeringLock(), -1.0f, 1.0f);
+
+		/* Speed: slow for the arc, then PID */
+		float target = mCruise;
+		if(Math.abs(curvature) > 1e-6f)
+			target = Math.min(target, (float)Math.sqrt(MAX_LATERAL_ACCEL / Math.abs(curvature)));
+
+		float dt = sim.getStep() / 1000f;
+		float error = target - speed;
+		float derivative = mHaveError ? (error - mLastError) / dt : 0;
+		mLastError = error;
+		mHaveError = true;
+
+		float output = KP * error + KI * mIntegral + KD * derivative;
+		if(output > -1.0f && output < 1.0f) // no windup while saturated
+			mIntegral = clamp(mIntegral + error * dt, -MAX_INTEGRAL, MAX_INTEGRAL);
+
+		float throttle = clamp(output, 0.0f, 1.0f);
+		float brakes = clamp(-output, 0.0f, 1.0f);
+		sim.setInputs(steering, throttle, brakes);
+	}
+
+	/*
+	 * Walks lookahead m along the route's path from the vehicle's projection
+	 * onto the leg ending at waypoint target and leaves the point in mPursuitX/Y
+	 */
+	private void pursuitPoint(Route route, int target, float x, float y, float lookahead) {
+		RoutePath path = route.getPath();
+		double along = 0;
+		if(target > 0)
+			along = path.getDistance(target - 1) + path.alongSegment(target - 1, x, y);
+
+		path.pointAt(along + lookahead, mPoint);
+		mPursuitX = mPoint[0];
+		mPursuitY = mPoint[1];
+	}
+
+	private static float clamp(float value, float min, float max) {
+		return value < min ? min : (value > max ? max : value);
+	}
+
+	public float getPursuitX() { return mPursuitX; }
+	public float getPursuitY() { return mPursuitY; }
+}
@@ -0,0 +1,178 @@
+package edu.gmu.gmdrive;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Runs every combination of a parameter sweep (see SweepSpec) as an
+ * independent headless simulation and writes one summary row per run to a
+ * single CSV.
+ *
+ * usage: BatchRunner sweep.properties results.csv [threads]
+ *
+ * Runs are split recursively over a fork/join pool, so idle workers steal
+ * whole runs from busy ones and every core stays loaded even when run times
+ * differ widely.  Rows are written as runs finish, in completion order; the
+ * run column gives the sweep index.
+ */
+public class BatchRunner {
+	private static final long PROGRESS_INTERVAL = 10000; // ms between progress lines
+
+	private SweepSpec mSpec;
+	private Writer mOutput;
+	private AtomicLong mDone, mFailed;
+	private long mLastProgress;
+
+	public BatchRunner(SweepSpec spec, Writer output) throws IOException {
+		mSpec = spec;
+		mOutput = output;
+		mDone = new AtomicLong();
+		mFailed = new AtomicLong();
+
+		StringBuilder header = new StringBuilder("run");
+		for(String parameter : SweepSpec.PARAMETERS)
+			header.append(',').append(parameter);
+		header.append(",Time (ms),Complete,Waypoints,Distance (m),Max speed (mph),Mean speed (mph),Wall (ms)\n");
+		mOutput.write(header.toString());
+	}
+
+	/*
+	 * Runs the whole sweep on pool and returns once every run has finished
+	 */
+	public void run(ForkJoinPool pool) {
+		mLastProgress = System.currentTimeMillis();
+		pool.invoke(new Runs(0, mSpec.getRunCount()));
+	}
+
+	private void runOne(long index) {
+		String[] params = mSpec.getRun(index);
+		try {
+			long start = System.nanoTime();
+
+			Route route = new Route(params[SweepSpec.ROUTE]);
+			Simulation sim = new Simulation(route, mSpec.getStep(), mSpec.getProfile(params[SweepSpec.VEHICLE]));
+			Vehicle vehicle = sim.getDriverVehicle();
+			VehicleProfile profile = vehicle.getProfile();
+			String drag = params[SweepSpec.DRAG], rolling = params[SweepSpec.ROLLING];
+			if(SweepSpec.isSet(drag) || SweepSpec.isSet(rolling))
+				vehicle.setDrag(SweepSpec.isSet(drag) ? Float.parseFloat(drag) : profile.getDrag(),
+						SweepSpec.isSet(rolling) ? Float.parseFloat(rolling) : profile.getRollingResistance());
+			if(SweepSpec.isSet(params[SweepSpec.STEERING_LOCK]))
+				vehicle.setSteeringLock(Float.parseFloat(params[SweepSpec.STEERING_LOCK]));
+			if(SweepSpec.isSet(params[SweepSpec.TORQUE]))
+				vehicle.setMaxTorque(Float.parseFloat(params[SweepSpec.TORQUE]));
+			SweepSpec.setIntegrator(sim.getWorld(), params[SweepSpec.INTEGRATOR]);
+			sim.setInputProvider(Drivers.create(params[SweepSpec.DRIVER]));
+
+			RunSummary summary = new RunSummary();
+			sim.addRecorder(summary);
+			sim.runFor((long)(mSpec.getDuration() * 1000));
+			sim.close();
+
+			double wallMs = (System.nanoTime() - start) / 1e6;
+			int waypoints = Math.max(0, Math.min(route.getCurrentIndex(), route.size()) - 1);
+
+			StringBuilder row = new StringBuilder();
+			row.append(index);
+			for(String value : params)
+				row.append(',').append(value);
+			row.append(',').append(sim.getSimTime());
+			row.append(',').append(sim.isComplete() ? 1 : 0);
+			row.append(',').append(waypoints);
+			row.append(',').append(String.format("%.1f", summary.getDistance()));
+			row.append(',').append(String.format("%.2f", summary.getMaxSpeed()));
+			row.append(',').append(String.format("%.2f", summary.getMeanSpeed()));
+			row.append(',').append(String.format("%.1f", wallMs));
+			row.append('\n');
+			emit(row.toString());
+		} catch(RuntimeException e) {
+			e.printStackTrace();
+			System.err.println("Run " + index + " failed: " + join(params));
+			mFailed.incrementAndGet();
+		}
+		mDone.incrementAndGet();
+	}
+
+	private synchronized void emit(String row) {
+		try {
+			mOutput.write(row);
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+
+		long now = System.currentTimeMillis();
+		if(now - mLastProgress >= PROGRESS_INTERVAL) {
+			mLastProgress = now;
+			System.out.println(mDone.get() + 1 + " of " + mSpec.getRunCount() + " runs done");
+		}
+	}
+
+	private static String join(String[] values) {
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < values.length; i++) {
+			if(i > 0) sb.append(", ");
+			sb.append(SweepSpec.PARAMETERS[i]).append('=').append(values[i]);
+		}
+		return sb.toString();
+	}
+
+	public long getDone() { return mDone.get(); }
+	public long getFailed() { return mFailed.get(); }
+
+	/*
+	 * Half-open range of run indices, split until a single run is left
+	 */
+	private class Runs extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private long mFrom, mTo;
+
+		Runs(long from, long to) {
+			mFrom = from;
+			mTo = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(mTo - mFrom == 1) {
+				runOne(mFrom);
+				return;
+			}
+			long mid = (mFrom + mTo) >>> 1;
+			invokeAll(new Runs(mFrom, mid), new Runs(mid, mTo));
+		}
+	}
+
+	public static void main(String[] args) {
+		if(args.length < 2) {
+			System.err.println("usage: BatchRunner sweep.properties results.csv [threads]");
+			System.exit(-1);
+		}
+
+		try {
+			SweepSpec spec = new SweepSpec(args[0]);
+			int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+			Writer output = new BufferedWriter(new FileWriter(args[1]), 1 << 16);
+			BatchRunner runner = new BatchRunner(spec, output);
+			System.out.println(spec.getRunCount() + " runs of " + spec.getDuration() + " s on " + threads + " threads");
+
+			long start = System.nanoTime();
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			runner.run(pool);
+			pool.shutdown();
+			output.close();
+
+			System.out.println(String.format("%d runs in %.1f s%s", runner.getDone(),
+					(System.nanoTime() - start) / 1e9,
+					runner.getFailed() > 0 ? ", " + runner.getFailed() + " failed" : ""));
+		} catch(IOException e) {
+			e.printStackTrace();
+			System.exit(-1);
+		}
+	}
+}
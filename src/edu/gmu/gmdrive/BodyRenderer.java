@@ -0,0 +1,41 @@
+package edu.gmu.gmdrive;
+
+import org.newdawn.slick.Color;
+import org.newdawn.slick.GameContainer;
+import org.newdawn.slick.Graphics;
+
+/*
+ * Slick rendering for the simulation's bodies, drawn from a SimSnapshot.
+ * Kept out of RigidBody/Vehicle so the physics can run without Slick on the
+ * classpath.
+ */
+public class BodyRenderer {
+	
+	public void render(GameContainer gc, Graphics g, SimSnapshot snapshot, int body) {
+		float halfX = snapshot.getHalfX(body);
+		float halfY = snapshot.getHalfY(body);
+		
+		g.pushTransform();
+			g.translate(snapshot.getX(body), snapshot.getY(body));
+			g.rotate(0.0f, 0.0f, snapshot.getAngle(body) * 180 / (float)Math.PI);
+			g.setColor(Color.white);
+			g.drawRect(-halfX, -halfY, 
+						halfX * 2, halfY * 2);
+			
+			renderWheels(g, snapshot, body);
+		g.popTransform();
+	}
+	
+	private void renderWheels(Graphics g, SimSnapshot snapshot, int body) {
+		for(int i = 0; i < snapshot.getWheelCount(body); i++) {
+			g.setColor(Color.gray);
+			float radius = snapshot.getWheelRadius(body, i);
+			g.pushTransform();
+				g.translate(snapshot.getWheelX(body, i), snapshot.getWheelY(body, i));
+				g.rotate(0.0f, 0.0f, snapshot.getWheelSteering(body, i) * 180 / (float)Math.PI);
+				g.fillRect(radius / 4f, -radius, radius / 2f, radius * 2f);
+			g.popTransform();
+		}
+		g.setColor(Color.white);
+	}
+}
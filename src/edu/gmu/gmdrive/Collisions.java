@@ -0,0 +1,294 @@
+package edu.gmu.gmdrive;
+
+import java.util.Arrays;
+
+/*
+ * Contacts between the bodies of a PhysicsWorld, found and resolved once per
+ * step after the world has integrated.
+ *
+ * SweepAndPrune gives the pairs whose bounding boxes overlap.  Each pair is
+ * tested with the separating axis theorem on the two oriented boxes: the four
+ * box axes are the only candidates, and the one with the least overlap gives
+ * the contact normal and depth.  The contact point is where the edge of the
+ * other box facing that axis's box, clipped to its face, lies inside it.
+ *
+ * Contacts are resolved with sequential impulses: ITERATIONS passes over
+ * every contact, each applying the change in normal impulse (never pulling)
+ * and friction impulse (at most FRICTION times the normal one) that stops
+ * the bodies approaching and sliding, with RESTITUTION of the closing speed
+ * given back as a bounce.  What overlap remains beyond SLOP is then pushed
+ * apart directly, so resting contacts do not sink.
+ *
+ * Bodies with infinite mass (see Simulation.addObstacle) never move.
+ * Everything is kept in flat arrays reused from step to step.
+ *
+ * Contacts are only looked for at the end of each step, so a body that moves
+ * more than about half its size in one step can pass through a thin obstacle
+ * or be pushed out the far side: at 10 ms steps a car meeting a thin wall
+ * sideways is only caught below about 90 m/s.  Give obstacles some thickness.
+ */
+public class Collisions {
+	public static final int ITERATIONS = 4;
+	public static final float RESTITUTION = 0.2f;
+	public static final float FRICTION = 0.5f;
+	private static final float BOUNCE_SPEED = 1.0f; // m/s of closing speed below which contacts do not bounce
+	private static final float SLOP = 0.01f; // m
+	private static final float CORRECTION = 0.8f; // share of the overlap beyond SLOP removed per step
+
+	private PhysicsWorld mWorld;
+	private SweepAndPrune mBroadphase;
+
+	/* Contacts of the last step; the normal points from body A to body B */
+	private int mContactCount;
+	private int[] mBodyA = new int[16], mBodyB = new int[16];
+	private float[] mNormalX = new float[16], mNormalY = new float[16];
+	private float[] mPointX = new float[16], mPointY = new float[16];
+	private float[] mDepth = new float[16], mBounce = new float[16];
+	private float[] mNormalMass = new float[16], mTangentMass = new float[16];
+	private float[] mNormalImpulse = new float[16], mTangentImpulse = new float[16];
+
+	/* Separating axis test state for the pair being tested */
+	private float mBestDepth, mBestX, mBestY;
+	private boolean mBestOnA;
+
+	public Collisions(PhysicsWorld world) {
+		mWorld = world;
+		mBroadphase = new SweepAndPrune(world);
+	}
+
+	/*
+	 * Finds and resolves the contacts of the world as it stands.  Returns the
+	 * number of contacts.
+	 */
+	public int step() {
+		mContactCount = 0;
+		if(mWorld.getBodyCount() < 2) return 0;
+
+		mBroadphase.update();
+		int pairs = mBroadphase.findPairs();
+		int[] pair = mBroadphase.getPairs();
+		for(int i = 0; i < pairs; i++)
+			collide(pair[i * 2], pair[i * 2 + 1]);
+		if(mContactCount == 0) return 0;
+
+		for(int c = 0; c < mContactCount; c++)
+			prepare(c);
+		for(int iteration = 0; iteration < ITERATIONS; iteration++)
+			for(int c = 0; c < mContactCount; c++)
+				solve(c);
+		for(int c = 0; c < mContactCount; c++)
+			separate(c);
+		return mContactCount;
+	}
+
+	/*
+	 * NARROWPHASE
+	 */
+
+	private void collide(int a, int b) {
+		PhysicsWorld w = mWorld;
+		if(w.mMass[a] == Float.POSITIVE_INFINITY && w.mMass[b] == Float.POSITIVE_INFINITY) return;
+
+		float dx = w.mPosX[b] - w.mPosX[a], dy = w.mPosY[b] - w.mPosY[a];
+		mBestDepth = Float.POSITIVE_INFINITY;
+		/* Local x axis is (cos, sin), local y (-sin, cos) */
+		if(!testAxis(a, b, w.mCos[a], w.mSin[a], dx, dy, true)) return;
+		if(!testAxis(a, b, -w.mSin[a], w.mCos[a], dx, dy, true)) return;
+		if(!testAxis(a, b, w.mCos[b], w.mSin[b], dx, dy, false)) return;
+		if(!testAxis(a, b, -w.mSin[b], w.mCos[b], dx, dy, false)) return;
+
+		int c = addContact(a, b);
+		mNormalX[c] = mBestX;
+		mNormalY[c] = mBestY;
+		mDepth[c] = mBestDepth;
+		if(mBestOnA)
+			contactPoint(c, a, b, mBestX, mBestY);
+		else
+			contactPoint(c, b, a, -mBestX, -mBestY);
+	}
+
+	/*
+	 * Overlap of the two boxes projected on axis (x, y); false if they are
+	 * apart along it.  Keeps the axis of least overlap, pointing from a to b.
+	 */
+	private boolean testAxis(int a, int b, float x, float y, float dx, float dy, boolean onA) {
+		float overlap = extent(a, x, y) + extent(b, x, y) - Math.abs(dx * x + dy * y);
+		if(overlap < 0.0f) return false;
+		if(overlap < mBestDepth) {
+			mBestDepth = overlap;
+			float sign = dx * x + dy * y < 0.0f ? -1.0f : 1.0f;
+			mBestX = x * sign;
+			mBestY = y * sign;
+			mBestOnA = onA;
+		}
+		return true;
+	}
+
+	/*
+	 * Half the length of body b's box projected on axis (x, y)
+	 */
+	private float extent(int b, float x, float y) {
+		float cos = mWorld.mCos[b], sin = mWorld.mSin[b];
+		return mWorld.mHalfX[b] * Math.abs(x * cos + y * sin) + mWorld.mHalfY[b] * Math.abs(-x * sin + y * cos);
+	}
+
+	/*
+	 * Contact point when the separating axis (nx, ny), pointing from ref to
+	 * inc, is a face normal of ref: the edge of inc facing that face, clipped
+	 * to the face's width, averaged over the part that is inside ref
+	 */
+	private void contactPoint(int c, int ref, int inc, float nx, float ny) {
+		PhysicsWorld w = mWorld;
+		float refX = w.mPosX[ref], refY = w.mPosY[ref];
+		float faceOffset = refX * nx + refY * ny + extent(ref, nx, ny);
+		float tx = -ny, ty = nx;
+		float centre = refX * tx + refY * ty, width = extent(ref, tx, ty);
+
+		/* Incident edge: the side of inc whose outward normal is most against n */
+		float cos = w.mCos[inc], sin = w.mSin[inc];
+		float alongX = nx * cos + ny * sin; // n on inc's local x axis
+		float alongY = -nx * sin + ny * cos;
+		float edgeX, edgeY, halfX, halfY, half;
+		if(Math.abs(alongX) > Math.abs(alongY)) {
+			float side = alongX > 0.0f ? -w.mHalfX[inc] : w.mHalfX[inc];
+			edgeX = w.mPosX[inc] + cos * side;
+			edgeY = w.mPosY[inc] + sin * side;
+			halfX = -sin; halfY = cos; half = w.mHalfY[inc];
+		} else {
+			float side = alongY > 0.0f ? -w.mHalfY[inc] : w.mHalfY[inc];
+			edgeX = w.mPosX[inc] - sin * side;
+			edgeY = w.mPosY[inc] + cos * side;
+			halfX = cos; halfY = sin; half = w.mHalfX[inc];
+		}
+		float x1 = edgeX + halfX * half, y1 = edgeY + halfY * half;
+		float x2 = edgeX - halfX * half, y2 = edgeY - halfY * half;
+
+		/* Clip the edge to the face's width */
+		float s1 = x1 * tx + y1 * ty - centre, s2 = x2 * tx + y2 * ty - centre;
+		if(s1 != s2) {
+			float lo = Math.max(Math.min(s1, s2), -width), hi = Math.min(Math.max(s1, s2), width);
+			if(lo <= hi) {
+				float dirX = (x2 - x1) / (s2 - s1), dirY = (y2 - y1) / (s2 - s1);
+				float ax = x1 + dirX * (lo - s1), ay = y1 + dirY * (lo - s1);
+				float bx = x1 + dirX * (hi - s1), by = y1 + dirY * (hi - s1);
+				boolean aIn = ax * nx + ay * ny <= faceOffset, bIn = bx * nx + by * ny <= faceOffset;
+				if(aIn || bIn) {
+					mPointX[c] = aIn && bIn ? (ax + bx) / 2 : aIn ? ax : bx;
+					mPointY[c] = aIn && bIn ? (ay + by) / 2 : aIn ? ay : by;
+					return;
+				}
+			}
+		}
+		/* Degenerate: the edge's middle */
+		mPointX[c] = edgeX;
+		mPointY[c] = edgeY;
+	}
+
+	private int addContact(int a, int b) {
+		if(mContactCount == mBodyA.length) {
+			int capacity = mContactCount * 2;
+			mBodyA = Arrays.copyOf(mBodyA, capacity); mBodyB = Arrays.copyOf(mBodyB, capacity);
+			mNormalX = Arrays.copyOf(mNormalX, capacity); mNormalY = Arrays.copyOf(mNormalY, capacity);
+			mPointX = Arrays.copyOf(mPointX, capacity); mPointY = Arrays.copyOf(mPointY, capacity);
+			mDepth = Arrays.copyOf(mDepth, capacity); mBounce = Arrays.copyOf(mBounce, capacity);
+			mNormalMass = Arrays.copyOf(mNormalMass, capacity); mTangentMass = Arrays.copyOf(mTangentMass, capacity);
+			mNormalImpulse = Arrays.copyOf(mNormalImpulse, capacity);
+			mTangentImpulse = Arrays.copyOf(mTangentImpulse, capacity);
+		}
+		int c = mContactCount++;
+		mBodyA[c] = a;
+		mBodyB[c] = b;
+		return c;
+	}
+
+	/*
+	 * RESOLUTION
+	 */
+
+	private void prepare(int c) {
+		PhysicsWorld w = mWorld;
+		int a = mBodyA[c], b = mBodyB[c];
+		float nx = mNormalX[c], ny = mNormalY[c];
+		float rAx = mPointX[c] - w.mPosX[a], rAy = mPointY[c] - w.mPosY[a];
+		float rBx = mPointX[c] - w.mPosX[b], rBy = mPointY[c] - w.mPosY[b];
+		float invMass = 1 / w.mMass[a] + 1 / w.mMass[b];
+		float invInertiaA = 1 / w.mInertia[a], invInertiaB = 1 / w.mInertia[b];
+
+		float rAn = rAx * ny - rAy * nx, rBn = rBx * ny - rBy * nx;
+		mNormalMass[c] = 1 / (invMass + rAn * rAn * invInertiaA + rBn * rBn * invInertiaB);
+		float rAt = rAx * nx + rAy * ny, rBt = rBx * nx + rBy * ny; // cross with the tangent (-ny, nx)
+		mTangentMass[c] = 1 / (invMass + rAt * rAt * invInertiaA + rBt * rBt * invInertiaB);
+
+		float closing = relativeVelocityX(c) * nx + relativeVelocityY(c) * ny;
+		mBounce[c] = closing < -BOUNCE_SPEED ? -RESTITUTION * closing : 0.0f;
+		mNormalImpulse[c] = 0.0f;
+		mTangentImpulse[c] = 0.0f;
+	}
+
+	private void solve(int c) {
+		float nx = mNormalX[c], ny = mNormalY[c];
+
+		float normal = relativeVelocityX(c) * nx + relativeVelocityY(c) * ny;
+		float impulse = Math.max(mNormalImpulse[c] + mNormalMass[c] * (mBounce[c] - normal), 0.0f);
+		float change = impulse - mNormalImpulse[c];
+		mNormalImpulse[c] = impulse;
+		apply(c, nx * change, ny * change);
+
+		float tx = -ny, ty = nx;
+		float tangent = relativeVelocityX(c) * tx + relativeVelocityY(c) * ty;
+		float limit = FRICTION * mNormalImpulse[c];
+		impulse = Math.max(-limit, Math.min(mTangentImpulse[c] - mTangentMass[c] * tangent, limit));
+		change = impulse - mTangentImpulse[c];
+		mTangentImpulse[c] = impulse;
+		apply(c, tx * change, ty * change);
+	}
+
+	/*
+	 * Velocity of body B's contact point relative to body A's
+	 */
+	private float relativeVelocityX(int c) {
+		PhysicsWorld w = mWorld;
+		int a = mBodyA[c], b = mBodyB[c];
+		return (w.mVelX[b] - (mPointY[c] - w.mPosY[b]) * w.mAngularVelocity[b])
+				- (w.mVelX[a] - (mPointY[c] - w.mPosY[a]) * w.mAngularVelocity[a]);
+	}
+
+	private float relativeVelocityY(int c) {
+		PhysicsWorld w = mWorld;
+		int a = mBodyA[c], b = mBodyB[c];
+		return (w.mVelY[b] + (mPointX[c] - w.mPosX[b]) * w.mAngularVelocity[b])
+				- (w.mVelY[a] + (mPointX[c] - w.mPosX[a]) * w.mAngularVelocity[a]);
+	}
+
+	/*
+	 * Impulse (x, y) on B at the contact point and its opposite on A
+	 */
+	private void apply(int c, float x, float y) {
+		PhysicsWorld w = mWorld;
+		int a = mBodyA[c], b = mBodyB[c];
+		w.applyImpulse(a, -x, -y, mPointX[c] - w.mPosX[a], mPointY[c] - w.mPosY[a]);
+		w.applyImpulse(b, x, y, mPointX[c] - w.mPosX[b], mPointY[c] - w.mPosY[b]);
+	}
+
+	private void separate(int c) {
+		PhysicsWorld w = mWorld;
+		int a = mBodyA[c], b = mBodyB[c];
+		float invMassA = 1 / w.mMass[a], invMassB = 1 / w.mMass[b];
+		float push = Math.max(mDepth[c] - SLOP, 0.0f) * CORRECTION / (invMassA + invMassB);
+		w.mPosX[a] -= mNormalX[c] * push * invMassA;
+		w.mPosY[a] -= mNormalY[c] * push * invMassA;
+		w.mPosX[b] += mNormalX[c] * push * invMassB;
+		w.mPosY[b] += mNormalY[c] * push * invMassB;
+	}
+
+	public SweepAndPrune getBroadphase() { return mBroadphase; }
+
+	/*
+	 * Contacts found by the last step
+	 */
+	public int getContactCount() { return mContactCount; }
+	public int getBodyA(int contact) { return mBodyA[contact]; }
+	public int getBodyB(int contact) { return mBodyB[contact]; }
+	public float getDepth(int contact) { return mDepth[contact]; }
+	public float getNormalImpulse(int contact) { return mNormalImpulse[contact]; }
+}
@@ -0,0 +1,152 @@
+package edu.gmu.gmdrive;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+ * Writes telemetry in the binary columnar format described in TelemetryFile.
+ *
+ * Samples go straight into a memory mapped region of the file; the simulation
+ * thread does absolute puts into the mapping and never makes a system call
+ * except when a region of blocks is used up and the next one is mapped.  The
+ * row count in the header is updated whenever a block completes, so a crashed
+ * session is readable up to its last full block.
+ *
+ * The file is left at a whole number of mapped regions; readers go by the row
+ * count, not the file size.
+ */
+public class ColumnarRecorder implements Recorder {
+	public static final int DEFAULT_BLOCK_ROWS = 4096;
+	public static final int BLOCKS_PER_REGION = 8;
+
+	private TelemetryColumn[] mColumns;
+	private byte[] mTypes;
+	private int[] mColumnOffsets;
+	private int mBlockRows, mBlockBytes, mHeaderSize;
+
+	private RandomAccessFile mFile;
+	private FileChannel mChannel;
+	private MappedByteBuffer mHeader;
+	private MappedByteBuffer mRegion;
+	private long mRegionStart; // block index of the first block in mRegion
+	private long mRows;
+	private boolean mClosed;
+
+	public ColumnarRecorder(String filename) throws IOException {
+		this(filename, TelemetryColumn.defaults(), DEFAULT_BLOCK_ROWS);
+	}
+
+	public ColumnarRecorder(String filename, TelemetryColumn[] columns, int blockRows) throws IOException {
+		if(columns.length == 0)
+			throw new IllegalArgumentException("No telemetry columns");
+		if(blockRows <= 0)
+			throw new IllegalArgumentException("Block rows must be positive");
+
+		mColumns = columns.clone();
+		mBlockRows = blockRows;
+		mTypes = new byte[mColumns.length];
+		mColumnOffsets = new int[mColumns.length];
+
+		/* Header */
+		int headerSize = TelemetryFile.HEADER_FIXED;
+		byte[][] names = new byte[mColumns.length][];
+		int offset = 0;
+		for(int i = 0; i < mColumns.length; i++) {
+			mTypes[i] = TelemetryFile.typeOf(mColumns[i]);
+			names[i] = mColumns[i].getName().getBytes(TelemetryFile.UTF8);
+			headerSize += 1 + 2 + names[i].length;
+			mColumnOffsets[i] = offset;
+			offset += TelemetryFile.width(mTypes[i]) * mBlockRows;
+		}
+		mBlockBytes = offset;
+		mHeaderSize = (headerSize + 7) & ~7;
+
+		mFile = new RandomAccessFile(filename, "rw");
+		try {
+			mFile.setLength(0);
+			mChannel = mFile.getChannel();
+			mHeader = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, mHeaderSize);
+			mHeader.order(ByteOrder.LITTLE_ENDIAN);
+			mHeader.putInt(TelemetryFile.MAGIC);
+			mHeader.putInt(TelemetryFile.VERSION);
+			mHeader.putInt(mColumns.length);
+			mHeader.putInt(mBlockRows);
+			mHeader.putLong(0);
+			mHeader.putInt(mHeaderSize);
+			mHeader.putInt(0);
+			for(int i = 0; i < mColumns.length; i++) {
+				mHeader.put(mTypes[i]);
+				mHeader.putShort((short)names[i].length);
+				mHeader.put(names[i]);
+			}
+
+			mapRegion(0);
+		} catch(IOException e) {
+			mFile.close();
+			throw e;
+		}
+	}
+
+	private void mapRegion(long firstBlock) throws IOException {
+		mRegionStart = firstBlock;
+		long position = mHeaderSize + firstBlock * mBlockBytes;
+		mRegion = mChannel.map(FileChannel.MapMode.READ_WRITE, position, (long)mBlockBytes * BLOCKS_PER_REGION);
+		mRegion.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	@Override
+	public void record(Simulation sim) {
+		if(mClosed) return;
+
+		long block = mRows / mBlockRows;
+		if(block - mRegionStart >= BLOCKS_PER_REGION) {
+			try {
+				mapRegion(block);
+			} catch(IOException e) {
+				e.printStackTrace();
+				System.err.println("Could not extend telemetry file, recording stopped!");
+				close();
+				return;
+			}
+		}
+
+		int row = (int)(mRows % mBlockRows);
+		int base = (int)(block - mRegionStart) * mBlockBytes;
+		ByteBuffer region = mRegion;
+		for(int i = 0; i < mColumns.length; i++) {
+			double value = mColumns[i].sample(sim);
+			int index = base + mColumnOffsets[i] + row * TelemetryFile.width(mTypes[i]);
+			switch(mTypes[i]) {
+			case TelemetryFile.TYPE_INT32: region.putInt(index, (int)value); break;
+			case TelemetryFile.TYPE_FLOAT32: region.putFloat(index, (float)value); break;
+			default: region.putDouble(index, value); break;
+			}
+		}
+
+		mRows++;
+		if(row == mBlockRows - 1)
+			mHeader.putLong(TelemetryFile.ROW_COUNT_OFFSET, mRows);
+	}
+
+	@Override
+	public void close() {
+		if(mClosed) return;
+		mClosed = true;
+		mHeader.putLong(TelemetryFile.ROW_COUNT_OFFSET, mRows);
+		mHeader.force();
+		mRegion.force();
+		try {
+			mFile.close();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public long getRows() {
+		return mRows;
+	}
+}
@@ -0,0 +1,430 @@
+package edu.gmu.gmdrive;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/*
+ * Writes telemetry in the compressed block format described in
+ * CompressedTelemetryFile, for long sessions at high step rates.
+ *
+ * record() stores one sample per column into the current block of doubles
+ * and returns; full blocks go to a background writer that quantizes, delta
+ * and varint encodes, optionally deflates and writes them.  The simulation
+ * thread only waits when all BUFFERS blocks are queued behind the writer.
+ * Single producer (the simulation thread), single consumer (the writer).
+ *
+ * Each block is flushed as it is written, so a crashed session is readable
+ * up to its last written block; the block index is added by close().
+ */
+public class CompressedRecorder implements Recorder {
+	public static final int DEFAULT_BLOCK_ROWS = 4096;
+	public static final int DEFAULT_DECIMALS = 6; // fractional columns, as written to CSV
+	public static final int BUFFERS = 4; // blocks in flight between the simulation and the writer
+	public static final int DEFLATE_LEVEL = Deflater.BEST_SPEED;
+	private static final int WRITE_BUFFER = 1 << 16;
+
+	private static final long ESCAPE = Long.MIN_VALUE; // quantize() result for values stored verbatim
+	private static final double MAX_QUANTIZED = 1L << 53; // largest magnitude doubles hold exactly
+
+	/*
+	 * Samples of up to one block's rows, column major
+	 */
+	private static class Block {
+		double[] mValues;
+		int mRows;
+
+		Block(int size) {
+			mValues = size > 0 ? new double[size] : null;
+		}
+	}
+	private static final Block END = new Block(0);
+
+	private TelemetryColumn[] mColumns;
+	private byte[] mTypes;
+	private int[] mDecimals;
+	private double[] mScales;
+	private int mBlockRows;
+	private boolean mDeflate;
+
+	/* Simulation thread */
+	private Block mCurrent;
+	private long mRows;
+	private boolean mClosed;
+	private AtomicLong mDropped;
+
+	private ArrayBlockingQueue<Block> mFree, mFull;
+	private Thread mWriterThread;
+	private volatile IOException mFailure;
+
+	/* Writer thread, then close() once it has finished */
+	private DataOutputStream mOut;
+	private long mOffset;
+	private long[] mOffsets = new long[64];
+	private int[] mBlockSizes = new int[64];
+	private int mBlocks;
+	private long mWrittenRows;
+	private long mRawBytes;
+
+	/* Writer thread encoding state */
+	private long[] mQuantized;
+	private boolean[] mEscaped;
+	private byte[] mRaw = new byte[1 << 16];
+	private int mRawLength;
+	private byte[] mStored = new byte[1 << 16];
+	private Deflater mDeflater;
+	private CRC32 mCrc = new CRC32();
+
+	public CompressedRecorder(String filename) throws IOException {
+		this(filename, TelemetryColumn.defaults(), DEFAULT_BLOCK_ROWS, true);
+	}
+
+	public CompressedRecorder(String filename, TelemetryColumn[] columns, int blockRows, boolean deflate) throws IOException {
+		if(columns.length == 0)
+			throw new IllegalArgumentException("No telemetry columns");
+		if(blockRows <= 0)
+			throw new IllegalArgumentException("Block rows must be positive");
+
+		mColumns = columns.clone();
+		mBlockRows = blockRows;
+		mDeflate = deflate;
+		mTypes = new byte[mColumns.length];
+		mDecimals = new int[mColumns.length];
+		mScales = new double[mColumns.length];
+		for(int i = 0; i < mColumns.length; i++) {
+			mTypes[i] = TelemetryFile.typeOf(mColumns[i]);
+			mDecimals[i] = mColumns[i].isIntegral() ? 0 : DEFAULT_DECIMALS;
+			mScales[i] = CompressedTelemetryFile.scale(mDecimals[i]);
+		}
+
+		mOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), WRITE_BUFFER));
+		try {
+			mOut.writeInt(CompressedTelemetryFile.MAGIC);
+			mOut.writeShort(CompressedTelemetryFile.VERSION);
+			mOut.writeInt(mColumns.length);
+			mOut.writeInt(mBlockRows);
+			for(int i = 0; i < mColumns.length; i++) {
+				mOut.writeByte(mTypes[i]);
+				mOut.writeByte(mDecimals[i]);
+				mOut.writeUTF(mColumns[i].getName());
+			}
+			mOut.flush();
+		} catch(IOException e) {
+			mOut.close();
+			throw e;
+		}
+		mOffset = mOut.size();
+
+		mQuantized = new long[mBlockRows];
+		mEscaped = new boolean[mBlockRows];
+		if(mDeflate) mDeflater = new Deflater(DEFLATE_LEVEL);
+
+		mFree = new ArrayBlockingQueue<Block>(BUFFERS);
+		mFull = new ArrayBlockingQueue<Block>(BUFFERS + 1);
+		for(int b = 1; b < BUFFERS; b++)
+			mFree.add(new Block(mColumns.length * mBlockRows));
+		mCurrent = new Block(mColumns.length * mBlockRows);
+		mDropped = new AtomicLong();
+
+		mWriterThread = new Thread(new Runnable() {
+			public void run() {
+				drain();
+			}
+		}, "CompressedRecorder");
+		mWriterThread.setDaemon(true);
+		mWriterThread.start();
+	}
+
+	@Override
+	public void record(Simulation sim) {
+		if(mClosed) return;
+		if(mFailure != null) {
+			mDropped.incrementAndGet();
+			return;
+		}
+
+		Block block = mCurrent;
+		int row = block.mRows;
+		for(int i = 0; i < mColumns.length; i++)
+			block.mValues[i * mBlockRows + row] = mColumns[i].sample(sim);
+		block.mRows = row + 1;
+		mRows++;
+
+		if(block.mRows == mBlockRows) {
+			mFull.add(block);
+			mCurrent = takeFree();
+		}
+	}
+
+	/*
+	 * Next empty block, waiting for the writer if none is free
+	 */
+	private Block takeFree() {
+		boolean interrupted = false;
+		try {
+			while(true) {
+				try {
+					return mFree.take();
+				} catch(InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if(interrupted) Thread.currentThread().interrupt();
+		}
+	}
+
+	/*
+	 * Writer thread body.  After a failure blocks are still recycled, so the
+	 * simulation never waits on a dead writer.
+	 */
+	private void drain() {
+		while(true) {
+			Block block;
+			try {
+				block = mFull.take();
+			} catch(InterruptedException e) {
+				continue;
+			}
+			if(block == END) break;
+
+			if(mFailure == null) {
+				try {
+					writeBlock(block);
+				} catch(IOException e) {
+					e.printStackTrace();
+					System.err.println("Compressed telemetry writer failed, further samples are dropped!");
+					mFailure = e;
+				}
+			} else {
+				mDropped.addAndGet(block.mRows);
+			}
+			block.mRows = 0;
+			mFree.add(block);
+		}
+	}
+
+	private void writeBlock(Block block) throws IOException {
+		int rows = block.mRows;
+		mRawLength = 0;
+		for(int i = 0; i < mColumns.length; i++)
+			encodeColumn(block.mValues, i * mBlockRows, rows, mScales[i]);
+
+		byte codec = CompressedTelemetryFile.CODEC_STORED;
+		byte[] stored = mRaw;
+		int storedLength = mRawLength;
+		if(mDeflate) {
+			mDeflater.reset();
+			mDeflater.setInput(mRaw, 0, mRawLength);
+			mDeflater.finish();
+			int length = 0;
+			while(!mDeflater.finished() && length < mRawLength) {
+				if(length == mStored.length) mStored = Arrays.copyOf(mStored, mStored.length * 2);
+				length += mDeflater.deflate(mStored, length, mStored.length - length);
+			}
+			if(mDeflater.finished() && length < mRawLength) {
+				codec = CompressedTelemetryFile.CODEC_DEFLATE;
+				stored = mStored;
+				storedLength = length;
+			}
+		}
+		mCrc.reset();
+		mCrc.update(stored, 0, storedLength);
+
+		mOut.writeInt(CompressedTelemetryFile.BLOCK_MAGIC);
+		mOut.writeByte(codec);
+		mOut.writeInt(rows);
+		mOut.writeInt(mRawLength);
+		mOut.writeInt(storedLength);
+		mOut.writeInt((int)mCrc.getValue());
+		mOut.write(stored, 0, storedLength);
+		mOut.flush();
+
+		if(mBlocks == mOffsets.length) {
+			mOffsets = Arrays.copyOf(mOffsets, mBlocks * 2);
+			mBlockSizes = Arrays.copyOf(mBlockSizes, mBlocks * 2);
+		}
+		mOffsets[mBlocks] = mOffset;
+		mBlockSizes[mBlocks] = rows;
+		mBlocks++;
+		mOffset += CompressedTelemetryFile.FRAME_HEADER + storedLength;
+		mWrittenRows += rows;
+		mRawBytes += mRawLength;
+	}
+
+	/*
+	 * Appends one column of a block to mRaw, with the delta order that packs
+	 * smallest
+	 */
+	private void encodeColumn(double[] values, int start, int rows, double scale) {
+		long previous = 0;
+		int escapes = 0;
+		for(int row = 0; row < rows; row++) {
+			long q = quantize(values[start + row], scale);
+			mEscaped[row] = q == ESCAPE;
+			if(q == ESCAPE) {
+				q = previous;
+				escapes++;
+			}
+			mQuantized[row] = q;
+			previous = q;
+		}
+
+		/* Bytes each order would take */
+		long size0 = 0, size1 = 0, size2 = 0;
+		long last = 0, delta = 0;
+		for(int row = 0; row < rows; row++) {
+			long q = mQuantized[row];
+			size0 += varLongSize(CompressedTelemetryFile.zigZag(q));
+			size1 += varLongSize(CompressedTelemetryFile.zigZag(q - last));
+			size2 += varLongSize(CompressedTelemetryFile.zigZag(q - last - delta));
+			delta = q - last;
+			last = q;
+		}
+		int order = size2 < size1 && size2 < size0 ? 2 : size1 < size0 ? 1 : 0;
+
+		/* Worst case: order byte, ten bytes per residual, run count, a run per row */
+		ensureRaw(1 + 10 * rows + 10 + 28 * escapes);
+		mRaw[mRawLength++] = (byte)order;
+		last = 0;
+		delta = 0;
+		for(int row = 0; row < rows; row++) {
+			long q = mQuantized[row];
+			long residual = order == 0 ? q : order == 1 ? q - last : q - last - delta;
+			putVarLong(CompressedTelemetryFile.zigZag(residual));
+			delta = q - last;
+			last = q;
+		}
+
+		/* Runs of identical exceptions */
+		int runs = 0;
+		for(int row = 0; row < rows; row = runEnd(values, start, row, rows))
+			if(mEscaped[row]) runs++;
+		putVarLong(runs);
+		for(int row = 0, end; row < rows; row = end) {
+			end = runEnd(values, start, row, rows);
+			if(!mEscaped[row]) continue;
+			putVarLong(row);
+			putVarLong(end - row);
+			long bits = Double.doubleToRawLongBits(values[start + row]);
+			for(int shift = 56; shift >= 0; shift -= 8)
+				mRaw[mRawLength++] = (byte)(bits >>> shift);
+		}
+	}
+
+	/*
+	 * End of the run starting at row: escaped rows with the same bits, or a
+	 * single unescaped row
+	 */
+	private int runEnd(double[] values, int start, int row, int rows) {
+		if(!mEscaped[row]) return row + 1;
+		long bits = Double.doubleToRawLongBits(values[start + row]);
+		int end = row + 1;
+		while(end < rows && mEscaped[end] && Double.doubleToRawLongBits(values[start + end]) == bits)
+			end++;
+		return end;
+	}
+
+	/*
+	 * value in units of 1 / scale, rounding halves away from zero as the CSV
+	 * writer does; ESCAPE if it has no exact fixed point form
+	 */
+	static long quantize(double value, double scale) {
+		double scaled = Math.abs(value) * scale;
+		if(!(scaled <= MAX_QUANTIZED)) return ESCAPE; // also NaN
+		long q = Math.round(scaled);
+		return value < 0 ? -q : q;
+	}
+
+	private static int varLongSize(long value) {
+		int size = 1;
+		while((value & ~0x7fL) != 0) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	private void putVarLong(long value) {
+		while((value & ~0x7fL) != 0) {
+			mRaw[mRawLength++] = (byte)((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		mRaw[mRawLength++] = (byte)value;
+	}
+
+	private void ensureRaw(int more) {
+		if(mRawLength + more > mRaw.length)
+			mRaw = Arrays.copyOf(mRaw, Math.max(mRaw.length * 2, mRawLength + more));
+	}
+
+	/*
+	 * Writes the partial block, waits for the writer and adds the block index
+	 */
+	@Override
+	public void close() {
+		if(mClosed) return;
+		mClosed = true;
+		if(mCurrent.mRows > 0)
+			mFull.add(mCurrent);
+		mFull.add(END);
+		try {
+			mWriterThread.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		try {
+			if(mFailure == null) {
+				long indexOffset = mOffset;
+				for(int b = 0; b < mBlocks; b++) {
+					mOut.writeLong(mOffsets[b]);
+					mOut.writeInt(mBlockSizes[b]);
+				}
+				mOut.writeLong(indexOffset);
+				mOut.writeInt(mBlocks);
+				mOut.writeLong(mWrittenRows);
+				mOut.writeInt(CompressedTelemetryFile.INDEX_MAGIC);
+			}
+			mOut.close();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+		if(mDeflater != null) mDeflater.end();
+
+		if(mDropped.get() > 0)
+			System.err.println("Telemetry: " + mDropped.get() + " samples dropped");
+	}
+
+	public long getRows() {
+		return mRows;
+	}
+
+	public long getDropped() {
+		return mDropped.get();
+	}
+
+	/*
+	 * Size of the file, and of its blocks before deflating; exact after close()
+	 */
+	public long getBytesWritten() {
+		return mOffset;
+	}
+
+	public long getRawBytes() {
+		return mRawBytes;
+	}
+
+	/*
+	 * Non-null if the writer thread stopped because of an I/O error
+	 */
+	public IOException getFailure() {
+		return mFailure;
+	}
+}
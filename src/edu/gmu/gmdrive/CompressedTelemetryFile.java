@@ -0,0 +1,371 @@
+package edu.gmu.gmdrive;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/*
+ * Reader for the compressed telemetry format written by CompressedRecorder.
+ *
+ * Layout, big endian:
+ *
+ *   int    magic "GMDZ"
+ *   short  version
+ *   int    column count
+ *   int    rows per block
+ *   per column: byte type (TelemetryFile.TYPE_*), byte decimals, UTF name
+ *
+ * followed by blocks, each framed as
+ *
+ *   int    magic "GMDB"
+ *   byte   codec (CODEC_STORED or CODEC_DEFLATE)
+ *   int    rows
+ *   int    payload length before compression
+ *   int    payload length as stored
+ *   int    CRC-32 of the stored payload
+ *   ...    payload
+ *
+ * and, once the recorder is closed, the block index and a fixed size trailer:
+ *
+ *   per block: long frame offset, int rows
+ *   long   index offset
+ *   int    block count
+ *   long   row count
+ *   int    magic "GMZI"
+ *
+ * A payload holds each column in turn.  Values are quantized to fixed point
+ * with the column's number of decimals (six, the CSV precision, for
+ * fractional columns) and stored as zig-zag varint differences of order 0, 1
+ * or 2, whichever is smallest for that column in that block:
+ *
+ *   byte   order
+ *   varint residual per row
+ *   varint exception run count
+ *   per run: varint first row, varint length, long raw double bits
+ *
+ * Values that have no fixed point form (NaN, infinities, huge magnitudes) are
+ * exceptions; they are stored verbatim and the quantized sequence carries the
+ * previous value through them.  Every block starts from zero, so any block
+ * decodes on its own.
+ *
+ * The index gives random access to blocks.  A file without one (the session
+ * crashed) is scanned frame by frame when opened, up to the last intact block.
+ */
+public class CompressedTelemetryFile implements Closeable {
+	public static final int MAGIC = 0x474d445a; // "GMDZ"
+	public static final short VERSION = 1;
+	public static final int BLOCK_MAGIC = 0x474d4442; // "GMDB"
+	public static final int INDEX_MAGIC = 0x474d5a49; // "GMZI", unlike InputLog.MAGIC
+	public static final byte CODEC_STORED = 0;
+	public static final byte CODEC_DEFLATE = 1;
+
+	static final int FRAME_HEADER = 4 + 1 + 4 + 4 + 4 + 4;
+	static final int INDEX_ENTRY = 8 + 4;
+	static final int TRAILER = 8 + 4 + 8 + 4;
+
+	private String mFilename;
+	private RandomAccessFile mFile;
+	private FileChannel mChannel;
+
+	private String[] mNames;
+	private byte[] mTypes;
+	private int[] mDecimals;
+	private double[] mScales;
+	private int mBlockRows;
+
+	private long[] mOffsets;
+	private int[] mRows;
+	private long mRowCount;
+	private boolean mIndexed;
+
+	/* Decoding state, reused between blocks */
+	private ByteBuffer mFrame = ByteBuffer.allocate(FRAME_HEADER);
+	private byte[] mStored = new byte[0], mRaw = new byte[0];
+	private int mPosition;
+	private Inflater mInflater = new Inflater();
+	private CRC32 mCrc = new CRC32();
+
+	/* Block cached for get() */
+	private double[][] mCached;
+	private int mCachedBlock = -1;
+
+	public CompressedTelemetryFile(String filename) throws IOException {
+		this(new File(filename));
+	}
+
+	public CompressedTelemetryFile(File file) throws IOException {
+		mFilename = file.getPath();
+		mFile = new RandomAccessFile(file, "r");
+		try {
+			mChannel = mFile.getChannel();
+			if(mFile.length() < 4 + 2 || mFile.readInt() != MAGIC)
+				throw new IOException("Not a compressed telemetry file: " + file);
+			short version = mFile.readShort();
+			if(version != VERSION)
+				throw new IOException("Unsupported compressed telemetry version " + version + ": " + file);
+
+			int columns = mFile.readInt();
+			mBlockRows = mFile.readInt();
+			if(columns <= 0 || mBlockRows <= 0)
+				throw new IOException("Corrupt compressed telemetry header: " + file);
+			mNames = new String[columns];
+			mTypes = new byte[columns];
+			mDecimals = new int[columns];
+			mScales = new double[columns];
+			for(int i = 0; i < columns; i++) {
+				mTypes[i] = mFile.readByte();
+				mDecimals[i] = mFile.readByte();
+				mNames[i] = mFile.readUTF();
+				TelemetryFile.width(mTypes[i]); // rejects unknown types
+				mScales[i] = scale(mDecimals[i]);
+			}
+
+			long blocks = mFile.getFilePointer();
+			if(!readIndex())
+				scan(blocks);
+		} catch(EOFException e) {
+			mFile.close();
+			throw new IOException("Truncated compressed telemetry header: " + file);
+		} catch(IOException e) {
+			mFile.close();
+			throw e;
+		}
+	}
+
+	/*
+	 * Loads the index written at close; false if there is none
+	 */
+	private boolean readIndex() throws IOException {
+		long size = mFile.length();
+		if(size < TRAILER) return false;
+		mFile.seek(size - TRAILER);
+		long indexOffset = mFile.readLong();
+		int blocks = mFile.readInt();
+		long rows = mFile.readLong();
+		if(mFile.readInt() != INDEX_MAGIC || blocks < 0 || indexOffset + (long)blocks * INDEX_ENTRY + TRAILER != size)
+			return false;
+
+		mOffsets = new long[blocks];
+		mRows = new int[blocks];
+		mFile.seek(indexOffset);
+		for(int b = 0; b < blocks; b++) {
+			mOffsets[b] = mFile.readLong();
+			mRows[b] = mFile.readInt();
+		}
+		mRowCount = rows;
+		mIndexed = true;
+		return true;
+	}
+
+	/*
+	 * Rebuilds the index of an unclosed file from its frames, stopping at the
+	 * first one that is cut off or fails its checksum
+	 */
+	private void scan(long position) throws IOException {
+		long size = mFile.length();
+		int blocks = 0;
+		mOffsets = new long[16];
+		mRows = new int[16];
+		mRowCount = 0;
+		while(position + FRAME_HEADER <= size) {
+			int rows;
+			try {
+				rows = readFrame(position);
+			} catch(IOException e) {
+				break;
+			}
+			if(blocks == mOffsets.length) {
+				mOffsets = Arrays.copyOf(mOffsets, blocks * 2);
+				mRows = Arrays.copyOf(mRows, blocks * 2);
+			}
+			mOffsets[blocks] = position;
+			mRows[blocks] = rows;
+			blocks++;
+			mRowCount += rows;
+			position += FRAME_HEADER + mFrame.getInt(13);
+		}
+		mOffsets = Arrays.copyOf(mOffsets, blocks);
+		mRows = Arrays.copyOf(mRows, blocks);
+		mIndexed = false;
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			int read = mChannel.read(buffer, position);
+			if(read < 0) throw new EOFException("Truncated telemetry block in " + mFilename);
+			position += read;
+		}
+	}
+
+	/*
+	 * Reads and checks the frame at position, leaving its header in mFrame and
+	 * its decompressed payload in mRaw.  Returns the row count.
+	 */
+	private int readFrame(long position) throws IOException {
+		mFrame.clear();
+		readFully(mFrame, position);
+		int magic = mFrame.getInt(0);
+		byte codec = mFrame.get(4);
+		int rows = mFrame.getInt(5);
+		int rawLength = mFrame.getInt(9);
+		int storedLength = mFrame.getInt(13);
+		int crc = mFrame.getInt(17);
+		if(magic != BLOCK_MAGIC || rows < 0 || rows > mBlockRows || rawLength < 0 || storedLength < 0)
+			throw new IOException("Corrupt telemetry block at " + position + " in " + mFilename);
+
+		if(mStored.length < storedLength) mStored = new byte[storedLength];
+		readFully(ByteBuffer.wrap(mStored, 0, storedLength), position + FRAME_HEADER);
+		mCrc.reset();
+		mCrc.update(mStored, 0, storedLength);
+		if((int)mCrc.getValue() != crc)
+			throw new IOException("Checksum mismatch in telemetry block at " + position + " in " + mFilename);
+
+		if(mRaw.length < rawLength) mRaw = new byte[rawLength];
+		if(codec == CODEC_STORED) {
+			System.arraycopy(mStored, 0, mRaw, 0, storedLength);
+		} else if(codec == CODEC_DEFLATE) {
+			mInflater.reset();
+			mInflater.setInput(mStored, 0, storedLength);
+			try {
+				if(mInflater.inflate(mRaw, 0, rawLength) != rawLength || !mInflater.finished())
+					throw new IOException("Bad deflate stream in telemetry block at " + position + " in " + mFilename);
+			} catch(DataFormatException e) {
+				throw new IOException("Bad deflate stream in telemetry block at " + position + " in " + mFilename, e);
+			}
+		} else {
+			throw new IOException("Unknown codec " + codec + " in telemetry block at " + position + " in " + mFilename);
+		}
+		return rows;
+	}
+
+	static double scale(int decimals) {
+		if(decimals < 0 || decimals > 15)
+			throw new IllegalArgumentException("Decimals out of range: " + decimals);
+		return Math.pow(10, decimals);
+	}
+
+	static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private long readVarLong() throws IOException {
+		long value = 0;
+		for(int shift = 0; shift < 64; shift += 7) {
+			int b = mRaw[mPosition++];
+			value |= (long)(b & 0x7f) << shift;
+			if((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Malformed varint in " + mFilename);
+	}
+
+	private long readLong() {
+		long value = 0;
+		for(int i = 0; i < 8; i++)
+			value = (value << 8) | (mRaw[mPosition++] & 0xff);
+		return value;
+	}
+
+	public int getColumnCount() { return mNames.length; }
+	public String getColumnName(int column) { return mNames[column]; }
+	public byte getColumnType(int column) { return mTypes[column]; }
+	public int getDecimals(int column) { return mDecimals[column]; }
+	public long getRowCount() { return mRowCount; }
+	public int getBlockRows() { return mBlockRows; }
+	public int getBlockCount() { return mOffsets.length; }
+	public int getRowsInBlock(int block) { return mRows[block]; }
+
+	/*
+	 * False if the recorder was not closed and the blocks were found by scanning
+	 */
+	public boolean isIndexed() { return mIndexed; }
+
+	/*
+	 * Index of the column with this name, -1 if absent
+	 */
+	public int findColumn(String name) {
+		for(int i = 0; i < mNames.length; i++)
+			if(mNames[i].equals(name)) return i;
+		return -1;
+	}
+
+	/*
+	 * Decodes block into out[column][row], which must hold getBlockRows()
+	 * values per column.  Returns the number of rows.
+	 */
+	public int readBlock(int block, double[][] out) throws IOException {
+		if(block < 0 || block >= mOffsets.length)
+			throw new IndexOutOfBoundsException("Block " + block + " of " + mOffsets.length);
+		int rows = readFrame(mOffsets[block]);
+		int rawLength = mFrame.getInt(9);
+
+		mPosition = 0;
+		try {
+			for(int i = 0; i < mNames.length; i++) {
+				double[] values = out[i];
+				double scale = mScales[i];
+				int order = mRaw[mPosition++];
+				long q = 0, delta = 0;
+				for(int row = 0; row < rows; row++) {
+					long residual = unZigZag(readVarLong());
+					switch(order) {
+					case 0: q = residual; break;
+					case 1: q += residual; break;
+					case 2: delta += residual; q += delta; break;
+					default: throw new IOException("Unknown delta order " + order + " in " + mFilename);
+					}
+					values[row] = q / scale;
+				}
+
+				long runs = readVarLong();
+				for(long r = 0; r < runs; r++) {
+					int first = (int)readVarLong();
+					int length = (int)readVarLong();
+					double value = Double.longBitsToDouble(readLong());
+					if(first < 0 || length < 0 || first + length > rows)
+						throw new IOException("Corrupt exception run in " + mFilename);
+					Arrays.fill(values, first, first + length, value);
+				}
+			}
+		} catch(ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Truncated telemetry block " + block + " in " + mFilename, e);
+		}
+		if(mPosition != rawLength)
+			throw new IOException("Telemetry block " + block + " has trailing data in " + mFilename);
+		return rows;
+	}
+
+	/*
+	 * Random access to a single value; decodes the row's block unless it was
+	 * the last one read through here
+	 */
+	public double get(int column, long row) throws IOException {
+		if(row < 0 || row >= mRowCount)
+			throw new IndexOutOfBoundsException("Row " + row + " of " + mRowCount);
+		int block = (int)(row / mBlockRows); // only the last block can be short
+		if(block != mCachedBlock) {
+			if(mCached == null) mCached = new double[mNames.length][mBlockRows];
+			mCachedBlock = -1;
+			readBlock(block, mCached);
+			mCachedBlock = block;
+		}
+		return mCached[column][(int)(row % mBlockRows)];
+	}
+
+	@Override
+	public void close() throws IOException {
+		mInflater.end();
+		mFile.close();
+	}
+}
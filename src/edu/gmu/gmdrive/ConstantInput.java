@@ -0,0 +1,20 @@
+package edu.gmu.gmdrive;
+
+/*
+ * Holds the same inputs for the whole run, e.g. for steady state turning or
+ * top speed experiments
+ */
+public class ConstantInput implements InputProvider {
+	private float mSteering, mThrottle, mBrakes;
+
+	public ConstantInput(float steering, float throttle, float brakes) {
+		mSteering = steering;
+		mThrottle = throttle;
+		mBrakes = brakes;
+	}
+
+	@Override
+	public void update(Simulation sim) {
+		sim.setInputs(mSteering, mThrottle, mBrakes);
+	}
+}
@@ -0,0 +1,39 @@
+package edu.gmu.gmdrive;
+
+import java.io.IOException;
+
+/*
+ * Headless driver models by name, for the runners:
+ *
+ *   idle                                  no input
+ *   constant:steering:throttle:brakes     fixed inputs
+ *   autopilot[:mph]                       follows the route (see Autopilot)
+ *   replay:session.gmi                    inputs of a recorded session (see LogInput)
+ *
+ * Keyboard and joystick input need a Slick Input and are set up by GMDrive.
+ */
+public class Drivers {
+
+	/*
+	 * Provider for spec; null for idle
+	 */
+	public static InputProvider create(String spec) {
+		String[] parts = spec.split(":");
+		String name = parts[0];
+		if(name.equals("idle") && parts.length == 1)
+			return null;
+		if(name.equals("constant") && parts.length == 4)
+			return new ConstantInput(Float.parseFloat(parts[1]), Float.parseFloat(parts[2]), Float.parseFloat(parts[3]));
+		if(name.equals("autopilot") && parts.length <= 2)
+			return parts.length == 2 ? new Autopilot(Float.parseFloat(parts[1])) : new Autopilot();
+		if(name.equals("replay") && parts.length >= 2) {
+			String filename = spec.substring("replay:".length());
+			try {
+				return new LogInput(filename);
+			} catch(IOException e) {
+				throw new IllegalArgumentException("Could not read input log " + filename, e);
+			}
+		}
+		throw new IllegalArgumentException("Unknown driver '" + spec + "'");
+	}
+}
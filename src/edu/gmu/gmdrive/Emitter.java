@@ -0,0 +1,12 @@
+package edu.gmu.gmdrive;
+
+/*
+ * Audio thread side state of one PointSound
+ */
+class Emitter {
+	String mFilename;
+	int mBuffer; // 0 if the sound failed to load
+	float mX, mY, mVelX, mVelY;
+	float mPriority = 1.0f;
+	int mVoice; // source while one is held, 0 otherwise
+}
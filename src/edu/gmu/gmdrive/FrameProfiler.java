@@ -0,0 +1,230 @@
+package edu.gmu.gmdrive;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+ * Named phases of a frame (see PhaseStats), each with a latency histogram and
+ * allocation and GC counters.
+ *
+ * register() publishes every phase as an MXBean under JMX_DOMAIN, so JConsole
+ * or any JMX client can watch a live session; startLog() also prints a table
+ * of all phases at a fixed interval.
+ *
+ * Allocation is measured with the HotSpot per-thread allocation counter.
+ * Reading it allocates a few bytes itself; that overhead is measured once
+ * and subtracted.  On JVMs without the counter allocation is reported as -1.
+ */
+public class FrameProfiler {
+	public static final String JMX_DOMAIN = "edu.gmu.gmdrive";
+
+	/*
+	 * Profiler whose phases do nothing, for code that is not being profiled
+	 */
+	public static final FrameProfiler DISABLED = new FrameProfiler(false);
+
+	private boolean mEnabled;
+	private List<PhaseStats> mPhases;
+	private GarbageCollectorMXBean[] mCollectors;
+	private com.sun.management.ThreadMXBean mThreads; // null without allocation counters
+	private long mAllocationOverhead;
+
+	private MBeanServer mServer; // set once registered
+	private Thread mLogThread;
+	private volatile boolean mLogging;
+
+	public FrameProfiler() {
+		this(true);
+	}
+
+	private FrameProfiler(boolean enabled) {
+		mEnabled = enabled;
+		mPhases = new CopyOnWriteArrayList<PhaseStats>();
+		if(!enabled) return;
+
+		List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+		mCollectors = collectors.toArray(new GarbageCollectorMXBean[collectors.size()]);
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean)threads;
+			if(sunThreads.isThreadAllocatedMemorySupported()) {
+				sunThreads.setThreadAllocatedMemoryEnabled(true);
+				mThreads = sunThreads;
+				calibrate();
+			}
+		}
+	}
+
+	/*
+	 * Smallest allocation seen between two back to back counter reads
+	 */
+	private void calibrate() {
+		mAllocationOverhead = Long.MAX_VALUE;
+		for(int i = 0; i < 100; i++) {
+			long first = allocatedBytes();
+			long second = allocatedBytes();
+			mAllocationOverhead = Math.min(mAllocationOverhead, second - first);
+		}
+		mAllocationOverhead = Math.max(0, mAllocationOverhead);
+	}
+
+	/*
+	 * The phase called name, created on first use
+	 */
+	public synchronized PhaseStats phase(String name) {
+		for(PhaseStats phase : mPhases)
+			if(phase.getName().equals(name)) return phase;
+
+		PhaseStats phase = new PhaseStats(name, this);
+		mPhases.add(phase);
+		if(mServer != null)
+			register(phase);
+		return phase;
+	}
+
+	public List<PhaseStats> getPhases() {
+		return mPhases;
+	}
+
+	public boolean isEnabled() {
+		return mEnabled;
+	}
+
+	public boolean isAllocationTracked() {
+		return mThreads != null;
+	}
+
+	long getAllocationOverhead() {
+		return mAllocationOverhead;
+	}
+
+	/*
+	 * Bytes allocated so far by the calling thread, -1 if unknown
+	 */
+	long allocatedBytes() {
+		if(mThreads == null) return -1;
+		return mThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	long gcCount() {
+		long count = 0;
+		for(int i = 0; i < mCollectors.length; i++)
+			count += mCollectors[i].getCollectionCount();
+		return count;
+	}
+
+	long gcMillis() {
+		long millis = 0;
+		for(int i = 0; i < mCollectors.length; i++)
+			millis += mCollectors[i].getCollectionTime();
+		return millis;
+	}
+
+	/*
+	 * JMX
+	 */
+	public synchronized void register() {
+		if(!mEnabled || mServer != null) return;
+		mServer = ManagementFactory.getPlatformMBeanServer();
+		for(PhaseStats phase : mPhases)
+			register(phase);
+	}
+
+	private void register(PhaseStats phase) {
+		try {
+			mServer.registerMBean(phase, objectName(phase));
+		} catch(JMException e) {
+			e.printStackTrace();
+			System.err.println("Could not publish phase " + phase.getName() + " over JMX");
+		}
+	}
+
+	private static ObjectName objectName(PhaseStats phase) throws JMException {
+		return new ObjectName(JMX_DOMAIN + ":type=Phase,name=" + ObjectName.quote(phase.getName()));
+	}
+
+	public synchronized void unregister() {
+		if(mServer == null) return;
+		for(PhaseStats phase : mPhases) {
+			try {
+				ObjectName name = objectName(phase);
+				if(mServer.isRegistered(name))
+					mServer.unregisterMBean(name);
+			} catch(JMException e) {
+				e.printStackTrace();
+			}
+		}
+		mServer = null;
+	}
+
+	/*
+	 * LOGGING
+	 */
+
+	/*
+	 * Prints report() to stdout every interval ms until shutdown
+	 */
+	public synchronized void startLog(final long interval) {
+		if(!mEnabled || mLogThread != null) return;
+		mLogging = true;
+		mLogThread = new Thread(new Runnable() {
+			public void run() {
+				while(mLogging) {
+					try {
+						Thread.sleep(interval);
+					} catch(InterruptedException e) {
+						break;
+					}
+					System.out.print(report());
+				}
+			}
+		}, "Profiler");
+		mLogThread.setDaemon(true);
+		mLogThread.start();
+	}
+
+	/*
+	 * Table of every phase, times in microseconds
+	 */
+	public String report() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-18s %9s %9s %9s %9s %9s %9s %12s %5s %7s%n", "phase", "count", "mean",
+				"p50", "p99", "p99.9", "max", "bytes/call", "gcs", "gc ms"));
+		for(PhaseStats phase : mPhases) {
+			sb.append(String.format("%-18s %9d %9.1f %9.1f %9.1f %9.1f %9.1f %12d %5d %7d%n", phase.getName(),
+					phase.getCount(), phase.getMeanMicros(), phase.getP50Micros(), phase.getP99Micros(),
+					phase.getP999Micros(), phase.getMaxMicros(), phase.getAllocatedBytesPerCall(),
+					phase.getGcCount(), phase.getGcMillis()));
+		}
+		return sb.toString();
+	}
+
+	/*
+	 * Stops the log and removes the MXBeans
+	 */
+	public void shutdown() {
+		Thread logThread;
+		synchronized(this) {
+			mLogging = false;
+			logThread = mLogThread;
+			mLogThread = null;
+		}
+		if(logThread != null) {
+			logThread.interrupt();
+			try {
+				logThread.join();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		unregister();
+	}
+}
@@ -1,18 +1,14 @@
 package edu.gmu.gmdrive;
 
-import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.FloatBuffer;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
-import org.lwjgl.BufferUtils;
 import org.lwjgl.LWJGLException;
 import org.lwjgl.openal.AL;
 import org.lwjgl.openal.AL10;
 import org.newdawn.slick.AppGameContainer;
-import org.newdawn.slick.Color;
 import org.newdawn.slick.GameContainer;
 import org.newdawn.slick.Graphics;
 import org.newdawn.slick.Input;
@@ -23,20 +19,25 @@ import de.lessvoid.nifty.Nifty;
 import de.lessvoid.nifty.slick2d.NiftyOverlayBasicGame;
 
 public class GMDrive extends NiftyOverlayBasicGame {
-	ArrayList<RigidBody> mRigidBodies;
-	Vehicle mDriverVehicle;
-	//ArrayList<Waypoint> mWaypoints;
+	Simulation mSim;
 	Waypoint mNextWaypoint;
-	Route mRoute;
+	int mLastTarget;
+	
+	/* The simulation runs on its own thread; this thread only sees its snapshots */
+	SimThread mSimThread;
+	SimSnapshot mPrevious, mCurrent, mView;
+	long mTrailSeen;
+	BodyRenderer mBodyRenderer;
+	AudioThread mAudio;
 	
 	/*
 	 * CONVERSION CONSTANTS
 	 */
-	public static final float MILE_TO_METER = 1609.3f;
-	public static final float METER_TO_MILE = 1 / MILE_TO_METER;
+	public static final float MILE_TO_METER = Simulation.MILE_TO_METER;
+	public static final float METER_TO_MILE = Simulation.METER_TO_MILE;
 	
-	public static final float MPH_TO_MPS = 0.447f;
-	public static final float MPS_TO_MPH = 1 / MPH_TO_MPS;
+	public static final float MPH_TO_MPS = Simulation.MPH_TO_MPS;
+	public static final float MPS_TO_MPH = Simulation.MPS_TO_MPH;
 	
 	/*
 	 * CHANGE THESE VALUES TO REFLECT SYSTEM CONFIG
@@ -48,35 +49,70 @@ public class GMDrive extends NiftyOverlayBasicGame {
 	public static final int SCREEN_W = 800;
 	public static final int SCREEN_H = 800;
 	
-	public static final boolean USE_JOYSTICK = false;
+	public static final boolean USE_JOYSTICK = false; // default driver when none is given on the command line
 	public static final boolean TESTING_MODE = true;
 	public static final boolean RECORD_DATA = true;
+	public static final String RECORD_FORMAT = ".gmz"; // .gmz, .gmt (see TelemetryExport) or .csv
+	public static final int PROFILE_LOG_INTERVAL = 0; // s between phase timing tables on stdout, 0 for none
+	public static final int TELEMETRY_PORT = 0; // loopback port serving live telemetry (see TelemetryStream), 0 for none
 	
 	/*
 	 * EXPERIMENT PARAMETERS
 	 */
 	public static final Vector2f START_POSITION = new Vector2f(MILE_TO_METER * 1.0f, MILE_TO_METER * 1.0f);
 	
-	public static final int PATH_INTERVAL = 250;
-	ArrayList<Vector2f> mPath;
-	int mPathTick;
+	PathTrail mTrail;
+	TrailRenderer mTrailRenderer;
+	PathRenderer mPathRenderer;
 	
 	MessageWindow mMessageWindow;
+	Hud mHud;
 	Grid mGrid;
 	
 	Input mInput;
-	float steeringInput, accInput, brakeInput;
-	int startTime,simTime;
+	String mDriver;
+	VehicleProfile mProfile;
+	
+	/* Frame phases, also published over JMX (see FrameProfiler) */
+	FrameProfiler mProfiler;
+	PhaseStats mUpdatePhase, mUpdateSnapshotPhase, mUpdateAudioPhase, mUpdateMessagesPhase;
+	PhaseStats mRenderPhase, mRenderHudPhase, mRenderGridPhase, mRenderPathsPhase, mRenderObjectsPhase, mRenderMessagesPhase;
+	
+	String mOutputFilename;
+	String mInputLogFilename;
+	String mSegmentsFilename;
 	
-	FileWriter outputFile;
+	/* Leg summaries from the simulation thread, shown in the message window */
+	ConcurrentLinkedQueue<String> mLegMessages = new ConcurrentLinkedQueue<String>();
 	
 	public static final float WORLD_SCALE = SCREEN_H / MILE_TO_METER / 2;
-	public GMDrive() {
+	public GMDrive(String driver) {
+		this(driver, VehicleProfile.DEFAULT);
+	}
+
+	public GMDrive(String driver, VehicleProfile profile) {
 		super("GMDrive");
+		mDriver = driver;
+		mProfile = profile;
 	}
 
 	@Override
 	public void initGameAndGUI(GameContainer container) throws SlickException {
+		mProfiler = new FrameProfiler();
+		mUpdatePhase = mProfiler.phase("update");
+		mUpdateSnapshotPhase = mProfiler.phase("update.snapshot");
+		mUpdateAudioPhase = mProfiler.phase("update.audio");
+		mUpdateMessagesPhase = mProfiler.phase("update.messages");
+		mRenderPhase = mProfiler.phase("render");
+		mRenderHudPhase = mProfiler.phase("render.hud");
+		mRenderGridPhase = mProfiler.phase("render.grid");
+		mRenderPathsPhase = mProfiler.phase("render.paths");
+		mRenderObjectsPhase = mProfiler.phase("render.objects");
+		mRenderMessagesPhase = mProfiler.phase("render.messages");
+		mProfiler.register();
+		if(PROFILE_LOG_INTERVAL > 0)
+			mProfiler.startLog(PROFILE_LOG_INTERVAL * 1000L);
+		
 		/* Audio init */
 		
 		initNifty(container);
@@ -85,28 +121,31 @@ public class GMDrive extends NiftyOverlayBasicGame {
 			AL.destroy();
 			AL.create("DirectSound3D", 44100, 60, false);
 			AL10.alDistanceModel(AL10.AL_INVERSE_DISTANCE_CLAMPED);
+			mAudio = new AudioThread(new AlAudioBackend());
+			mAudio.setProfiler(mProfiler);
+			mAudio.start();
 		} catch (LWJGLException e) {
 			e.printStackTrace();
 			container.exit();
 		}
 		
-		mPath = new ArrayList<Vector2f>();
-		mRigidBodies = new ArrayList<RigidBody>();
+		mTrail = new PathTrail();
+		mTrailRenderer = new TrailRenderer();
+		mPathRenderer = new PathRenderer();
+		mBodyRenderer = new BodyRenderer();
 		mInput = container.getInput();
 		container.getGraphics().setWorldClip(0.0f,0.0f,(float)container.getWidth() / WORLD_SCALE,(float)container.getHeight() / WORLD_SCALE);
 		
 		if(RECORD_DATA) {
-			try {
-				outputFile = new FileWriter( new SimpleDateFormat("ddMMyy-hhmmss").format(new Date()) + ".csv");
-				outputFile.append("Time (ms),OwnX,OwnY,Accelerator,Brake,Steering,Speed (mph),TargetX,TargetY\n");
-			} catch(IOException e) {
-				e.printStackTrace();
-				container.exit();
-			}
-			
+			String session = new SimpleDateFormat("ddMMyy-hhmmss").format(new Date());
+			mOutputFilename = session + RECORD_FORMAT;
+			mInputLogFilename = session + ".gmi"; // replay with ReplayRunner
+			mSegmentsFilename = session + "-segments.csv";
 		}
+
 		/* Set up GUI */
 		mMessageWindow = new MessageWindow();
+		mHud = new Hud(mMessageWindow.getFont(), 6, 16);
 		mGrid = new Grid();
 		
 		initScenario("route4.xml");
@@ -114,161 +153,211 @@ public class GMDrive extends NiftyOverlayBasicGame {
 
 	private void initScenario(String filename) {
 		mMessageWindow.add("GMDrive is loading " + filename + "...");
-		mRoute =  new Route(filename);
+		mMessageWindow.add("Driving the " + mProfile);
+		mSim = new Simulation(new Route(filename), Simulation.DEFAULT_STEP, mProfile);
+		mSim.setProfiler(mProfiler);
+		
+		if(RECORD_DATA) {
+			try {
+				if(RECORD_FORMAT.equals(".gmz"))
+					mSim.addRecorder(new CompressedRecorder(mOutputFilename));
+				else if(RECORD_FORMAT.equals(".gmt"))
+					mSim.addRecorder(new ColumnarRecorder(mOutputFilename));
+				else
+					mSim.addRecorder(new TelemetryRecorder(mOutputFilename));
+				mSim.addRecorder(new InputLog(mInputLogFilename, mSim));
+			} catch(IOException e) {
+				e.printStackTrace();
+				System.exit(-1);
+			}
+		}
 		
-		steeringInput = accInput = brakeInput = 0;
-		startTime = simTime = 0;
-		mPathTick = 0;
+		SegmentAnalytics analytics = new SegmentAnalytics();
+		analytics.addListener(new SegmentAnalytics.Listener() {
+			public void segmentComplete(SegmentStats stats) {
+				if(stats.isReached())
+					mLegMessages.add(String.format("Leg %d: %.1f s, %.1f mph, %.2f m path sd",
+							stats.getSegment(), stats.getDuration() / 1000.0, stats.getSpeedMean(), stats.getCrossTrackSd()));
+			}
+			public void sessionComplete(SegmentStats total) {
+			}
+		});
+		if(RECORD_DATA) {
+			try {
+				analytics.addListener(new SegmentReport(mSegmentsFilename));
+			} catch(IOException e) {
+				e.printStackTrace();
+				System.err.println("Could not write " + mSegmentsFilename + ", leg figures are not recorded!");
+			}
+		}
+		mSim.addRecorder(analytics);
+		
+		if(TELEMETRY_PORT > 0) {
+			try {
+				mSim.addRecorder(new TelemetryStream(TELEMETRY_PORT));
+				mMessageWindow.add("Live telemetry on port " + TELEMETRY_PORT);
+			} catch(IOException e) {
+				e.printStackTrace();
+				System.err.println("Could not serve live telemetry on port " + TELEMETRY_PORT + "!");
+			}
+		}
+		
+		mSim.setInputProvider(createInput(mDriver));
 		
-		/* Init driver vehicle and set position to first waypoint */
-		mDriverVehicle = new Vehicle();
-		Vector2f pos = mRoute.getNext().getPos();
-		mDriverVehicle.setLocation(pos, (float)Math.PI);
-		mRigidBodies.add(mDriverVehicle);
+		mSimThread = new SimThread(mSim);
+		mPrevious = new SimSnapshot();
+		mCurrent = new SimSnapshot();
+		mView = new SimSnapshot();
+		mTrailSeen = 0;
+		mSimThread.start();
+		pollSnapshot();
+		mPrevious.copyFrom(mCurrent);
 		
 		try {
-			mNextWaypoint = new Waypoint();
+			mNextWaypoint = new Waypoint(mAudio);
 		} catch (SlickException e) {
 			e.printStackTrace();
 		}
-		mNextWaypoint.setLoc(mRoute.getNext().getPos(), new Vector2f(0.0f, 0.0f));
+		mLastTarget = -1;
+		updateWaypointSound();
 		
 		mMessageWindow.add("Ready.");
 	}
 	@Override
 	public void renderGame(GameContainer container, Graphics g) throws SlickException {
-		g.setFont(mMessageWindow.getFont());
-		g.drawString("Steering: " + steeringInput, 0, 0);
-		g.drawString("Throttle: " + accInput, 0, 16);
-		g.drawString("  Brakes: " + brakeInput, 0, 32);
+		mRenderPhase.begin();
 		
-		float vehSpeed = mDriverVehicle.getSpeedometer();
-		g.drawString("   Speed: " + String.format("%.2f", vehSpeed * 2.2369) + " mph", 0, 48);
+		/* Poses one step behind the simulation, interpolated to now */
+		long interval = mCurrent.getWallTime() - mPrevious.getWallTime();
+		float alpha = interval > 0 ? (System.nanoTime() - mCurrent.getWallTime()) / (float)interval : 1.0f;
+		mView.interpolate(mPrevious, mCurrent, Math.min(Math.max(alpha, 0.0f), 1.0f));
+		
+		mRenderHudPhase.begin();
+		mHud.set(0, "Steering: ", mCurrent.getSteering(), 2, "");
+		mHud.set(1, "Throttle: ", mCurrent.getThrottle(), 2, "");
+		mHud.set(2, "  Brakes: ", mCurrent.getBrakes(), 2, "");
+		mHud.set(3, "   Speed: ", mCurrent.getSpeedometer() * 2.2369, 2, " mph");
+		mHud.set(4, "Off path: ", mCurrent.getCrossTrack(), 1, " m");
+		mHud.set(5, "Progress: ", mCurrent.getProgress(), 0, "%");
+		mHud.render(0, 0);
+		mRenderHudPhase.end();
 				
 		/* World coordinates */
 		g.pushTransform();
 			g.scale(WORLD_SCALE, WORLD_SCALE);
+			mRenderGridPhase.begin();
 			mGrid.render(container,g);
+			mRenderGridPhase.end();
 			
-			Vector2f lastNode = null;
-			for(Vector2f pathNode : mPath) {
-				if(lastNode != null) {
-					g.setColor(Color.blue);
-					g.drawLine(pathNode.x, pathNode.y, lastNode.x, lastNode.y);
-				}
-				g.setColor(Color.cyan);
-				g.fillRect(pathNode.x - 0.5f, pathNode.y - 0.5f, 1.0f, 1.0f);
-				lastNode = pathNode;
-			}
+			mRenderPathsPhase.begin();
+			mPathRenderer.render(g, mSim.getRoute().getPath(), mView);
+			mTrailRenderer.render(g, mTrail, 1 / WORLD_SCALE);
+			mRenderPathsPhase.end();
 
+			mRenderObjectsPhase.begin();
 			if(mNextWaypoint != null) mNextWaypoint.render(container, g);
 			
-			for(RigidBody rb : mRigidBodies) {
-				rb.render(container, g);
+			for(int i = 0; i < mView.getBodyCount(); i++) {
+				mBodyRenderer.render(container, g, mView, i);
 			}
+			mRenderObjectsPhase.end();
 		g.popTransform();
 		
+		mRenderMessagesPhase.begin();
 		mMessageWindow.render(container, g);
+		mRenderMessagesPhase.end();
+		mRenderPhase.end();
 	}
 
 	@Override
 	public void updateGame(GameContainer container, int delta) throws SlickException {
-		if(RECORD_DATA)
-				recordData();
-		
-	  simTime += delta;
+		mUpdatePhase.begin();
+		mUpdateMessagesPhase.begin();
+		String message;
+		while((message = mLegMessages.poll()) != null)
+			mMessageWindow.add(message);
 		mMessageWindow.update(container, delta);
+		mUpdateMessagesPhase.end();
 		
 		if(mInput.isKeyDown(Input.KEY_ESCAPE))
 			container.exit();
 		
-		if(USE_JOYSTICK) {
-	  		steeringInput = mInput.getAxisValue(JOY_INDEX, AXIS_STEER);
-	  		brakeInput = -(mInput.getAxisValue(JOY_INDEX, AXIS_BRAKE) - 1.0f) / 2;
-	  		accInput = -(mInput.getAxisValue(JOY_INDEX, AXIS_ACC) - 1.0f) / 2;
-	
-			if(Math.abs(accInput) < 0.1f) accInput = 0f;
-			if(Math.abs(brakeInput) < 0.1f) brakeInput = 0f;
-		} else {
-			/* Steering */
-			if(mInput.isKeyDown(Input.KEY_A)) steeringInput = -1.0f;
-			else if(mInput.isKeyDown(Input.KEY_D)) steeringInput = 1.0f;
-			else steeringInput = 0.0f;
-
-			/* Accelerator */
-			if(mInput.isKeyDown(Input.KEY_W)) accInput = 1.0f;
-			else accInput = 0.0f;
-
-			/* Brakes */
-			if(mInput.isKeyDown(Input.KEY_S)) brakeInput = 1.0f;
-			else brakeInput = 0.0f;
-		}
-
-		mDriverVehicle.setSteering(steeringInput);
-		mDriverVehicle.setBrakes(brakeInput);
-		mDriverVehicle.setThrottle(accInput);
-		
-		for(RigidBody rb : mRigidBodies) {
-			rb.update(delta);
-		}
+		mUpdateSnapshotPhase.begin();
+		pollSnapshot();
+		mUpdateSnapshotPhase.end();
 		
-		/* Update OpenAL listener state */
-		Vector2f driverPos = mDriverVehicle.getLocation();
-		Vector2f driverVel = mDriverVehicle.pointVel(new Vector2f(0.0f,0.0f));
-		Vector2f driverAt = new Vector2f(1.0f,0.0f);
-		driverAt.setTheta(mDriverVehicle.mAngle * 180 / Math.PI);
-		
-		AL10.alListener3f(AL10.AL_POSITION, driverPos.getX(), driverPos.getY(), 0f);
-		AL10.alListener3f(AL10.AL_VELOCITY, driverVel.getX(), driverVel.getY(), 0f);
-		FloatBuffer listenerOri =
-				BufferUtils.createFloatBuffer(6).put(new float[] { -driverAt.getY(), driverAt.getX(), 0.0f,  0.0f, 0.0f, -1.0f });
-		listenerOri.rewind();
-		AL10.alListener(AL10.AL_ORIENTATION, listenerOri);
+		mUpdateAudioPhase.begin();
+		/* Publish listener state to the audio thread; body 0 is the driver */
+		float driverAngle = mCurrent.getAngle(0);
+		mAudio.setListener(mCurrent.getX(0), mCurrent.getY(0), mCurrent.getVelX(), mCurrent.getVelY(),
+				(float)Math.cos(driverAngle), (float)Math.sin(driverAngle));
 		
 		/* Update waypoint */
+		updateWaypointSound();
 		if(mNextWaypoint != null) {
-			float dist = driverPos.distance(mNextWaypoint.getPos());
-			int roundDist = Math.round(dist);
-			if(roundDist < 100)
-				mNextWaypoint = mRoute.getNext();
-			if(mNextWaypoint != null) { 
-				mNextWaypoint.setPingInterval((roundDist * 2) < 200 ? 200 : roundDist * 2);
-				mNextWaypoint.update(delta);
-			}
-		}
-		/* Path saving */
-		mPathTick += delta;
-		if(mPathTick > PATH_INTERVAL) {
-			mPathTick -= PATH_INTERVAL;
-			mPath.add(driverPos.copy());
+			int roundDist = Math.round(mCurrent.getTargetDistance());
+			mNextWaypoint.setPingInterval((roundDist * 2) < 200 ? 200 : roundDist * 2);
+			mNextWaypoint.update(delta);
 		}
+		mUpdateAudioPhase.end();
+		mUpdatePhase.end();
 	}
 	
-	private void recordData() {
-		String row = 
-				String.format("%d,%f,%f,%f,%f,%f,%f,%f,%f\n",
-						simTime,
-						mDriverVehicle.getLocation().x,
-						mDriverVehicle.getLocation().y,
-						accInput,
-						brakeInput,
-						steeringInput,
-						mDriverVehicle.getSpeedometer() * 2.2369,
-						mNextWaypoint.getPos().x,
-						mNextWaypoint.getPos().y);
-		//outputFile.append("Time,OwnX,OwnY,Accelerator,Brake,Steering,TargetX,TargetY\n");
-		try {
-			outputFile.append(row);
-			outputFile.flush();
-		} catch(IOException e) {
-			e.printStackTrace();
-			System.exit(-1);
+	/*
+	 * Takes the newest simulation snapshot, if any, keeping the one before it
+	 * for interpolation and feeding new trail points to the trail
+	 */
+	private void pollSnapshot() {
+		SimSnapshot fresh = mSimThread.poll();
+		if(fresh == null) return;
+		mPrevious.copyFrom(mCurrent);
+		mCurrent.copyFrom(fresh);
+		mTrailSeen = mCurrent.appendTrail(mTrail, mTrailSeen);
+	}
+	
+	/*
+	 * Moves the waypoint emitter to the simulation's current target
+	 */
+	private void updateWaypointSound() {
+		int target = mCurrent.isComplete() ? -2 : mCurrent.getTargetIndex();
+		if(target == mLastTarget) return;
+		mLastTarget = target;
+		
+		if(mCurrent.isComplete()) {
+			if(mNextWaypoint != null) mNextWaypoint.destroy();
+			mNextWaypoint = null;
+		} else if(mNextWaypoint != null) {
+			mNextWaypoint.setLoc(new Vector2f(mCurrent.getTargetX(), mCurrent.getTargetY()), new Vector2f(0.0f, 0.0f));
 		}
 	}
-
+	
+	/*
+	 * keyboard, joystick or any of the headless drivers (see Drivers)
+	 */
+	private InputProvider createInput(String driver) {
+		if(driver.equals("keyboard"))
+			return new KeyboardInput(mInput);
+		if(driver.equals("joystick"))
+			return new JoystickInput(mInput, JOY_INDEX, AXIS_STEER, AXIS_ACC, AXIS_BRAKE);
+		return Drivers.create(driver);
+	}
+	
+	/*
+	 * usage: GMDrive [keyboard | joystick | autopilot[:mph] | replay:session.gmi] [vehicle.properties]
+	 */
 	public static void main(String[] args) {
+		String driver = args.length > 0 ? args[0] : (USE_JOYSTICK ? "joystick" : "keyboard");
+		VehicleProfile profile = VehicleProfile.DEFAULT;
+		if(args.length > 1) {
+			try {
+				profile = VehicleProfile.load(args[1]);
+			} catch(IOException e) {
+				e.printStackTrace();
+				System.exit(-1);
+			}
+		}
 		try {
-			AppGameContainer gameContainer = new AppGameContainer(new GMDrive());
+			AppGameContainer gameContainer = new AppGameContainer(new GMDrive(driver, profile));
 			gameContainer.setUpdateOnlyWhenVisible(false);
 			gameContainer.setAlwaysRender(true);
 			gameContainer.setMaximumLogicUpdateInterval(20);
@@ -287,15 +376,13 @@ public class GMDrive extends NiftyOverlayBasicGame {
 
 	@Override
 	public boolean closeRequested() {
-		if(RECORD_DATA) {
-			try {
-				outputFile.flush();
-				outputFile.close();
-			} catch(IOException e) {
-				e.printStackTrace();
-				System.exit(-1);
-			}
-		}
+		mSimThread.stop();
+		mSim.close();
+		mGrid.destroy();
+		mPathRenderer.destroy();
+		if(mNextWaypoint != null) mNextWaypoint.destroy();
+		mAudio.shutdown();
+		mProfiler.shutdown();
 		
 		return super.closeRequested();
 	}
@@ -1,44 +1,109 @@
 package edu.gmu.gmdrive;
 
+import org.lwjgl.opengl.GL11;
 import org.newdawn.slick.Color;
 import org.newdawn.slick.GameContainer;
 import org.newdawn.slick.Graphics;
 import org.newdawn.slick.geom.Rectangle;
-import org.newdawn.slick.geom.Vector2f;
+import org.newdawn.slick.opengl.TextureImpl;
 
+/*
+ * Background grid of 1 mile major and quarter mile minor lines.
+ *
+ * The lines never change, so they are compiled once into a GL display list
+ * covering the visible area plus a margin, and the list is replayed each
+ * frame.  It is rebuilt only when the view leaves the cached area or the
+ * density level changes.
+ *
+ * Density adapts to the scale: when minor lines would come closer than
+ * MIN_LINE_SPACING pixels the grid steps up a level, multiplying both
+ * spacings by MINOR_DIVISIONS, so the line count stays bounded when zoomed out.
+ */
 public class Grid {
-	private static final Vector2f ORIGIN = new Vector2f(0.0f, 0.0f);
-	private static final Vector2f MAJOR_SIZE = new Vector2f(1609.3f, 1609.3f); // 1 mile x 1 mile
-	private static final Vector2f MINOR_FACTOR = new Vector2f(0.25f, 0.25f);
-	
+	private static final float ORIGIN_X = 0.0f, ORIGIN_Y = 0.0f;
+	private static final float MAJOR_SIZE = 1609.3f; // 1 mile
+	private static final int MINOR_DIVISIONS = 4; // minor lines per major cell
+	private static final float MIN_LINE_SPACING = 8.0f; // px
+
+	/* Cached display list and the area/level it was built for */
+	private int mList;
+	private int mLevel = -1;
+	private float mMinX, mMinY, mMaxX, mMaxY;
+
 	public Grid() {
-		
+
 	}
-	
+
 	public void render(GameContainer gc, Graphics g) {
 		Rectangle worldRect = g.getWorldClip();
-		g.pushTransform();
-			g.translate(ORIGIN.getX(), ORIGIN.getY());
-			float curX = ORIGIN.getX();
-			while(curX < worldRect.getMaxX()) {
-				g.setColor(Color.gray);
-				g.drawLine(curX,worldRect.getMinY(),curX,worldRect.getMaxY());
-				g.setColor(Color.darkGray);
-				for(float minorX = MAJOR_SIZE.getX() * MINOR_FACTOR.getX(); minorX < MAJOR_SIZE.getX(); minorX += MAJOR_SIZE.getX() * MINOR_FACTOR.getX()) {
-					g.drawLine(curX + minorX,worldRect.getMinY(),curX + minorX,worldRect.getMaxY());
-				}
-				curX += MAJOR_SIZE.getX();
+		float worldPerPixel = worldRect.getWidth() / gc.getWidth();
+
+		int level = 0;
+		float major = MAJOR_SIZE;
+		while(major / MINOR_DIVISIONS / worldPerPixel < MIN_LINE_SPACING) {
+			major *= MINOR_DIVISIONS;
+			level++;
+		}
+
+		if(mList == 0 || level != mLevel
+				|| worldRect.getMinX() < mMinX || worldRect.getMaxX() > mMaxX
+				|| worldRect.getMinY() < mMinY || worldRect.getMaxY() > mMaxY)
+			rebuild(worldRect, level, major);
+
+		TextureImpl.bindNone();
+		GL11.glCallList(mList);
+		g.setColor(Color.white);
+	}
+
+	/*
+	 * Compiles the lines for the visible area plus half a view on each side
+	 */
+	private void rebuild(Rectangle view, int level, float major) {
+		if(mList == 0)
+			mList = GL11.glGenLists(1);
+		mLevel = level;
+
+		mMinX = view.getMinX() - view.getWidth() / 2;
+		mMaxX = view.getMaxX() + view.getWidth() / 2;
+		mMinY = view.getMinY() - view.getHeight() / 2;
+		mMaxY = view.getMaxY() + view.getHeight() / 2;
+
+		float minor = major / MINOR_DIVISIONS;
+		GL11.glNewList(mList, GL11.GL_COMPILE);
+		GL11.glBegin(GL11.GL_LINES);
+			/* Vertical; lines start at the origin as they always have */
+			long first = (long)Math.ceil((Math.max(mMinX, ORIGIN_X) - ORIGIN_X) / minor);
+			long last = (long)Math.floor((mMaxX - ORIGIN_X) / minor);
+			for(long i = first; i <= last; i++) {
+				bind(i % MINOR_DIVISIONS == 0 ? Color.gray : Color.darkGray);
+				float x = ORIGIN_X + i * minor;
+				GL11.glVertex2f(x, mMinY);
+				GL11.glVertex2f(x, mMaxY);
 			}
-			float curY = ORIGIN.getY();
-			while(curY < worldRect.getMaxY()) {
-				g.setColor(Color.gray);
-				g.drawLine(worldRect.getMinX(),curY,worldRect.getMaxX(),curY);
-				g.setColor(Color.darkGray);
-				for(float minorY = MAJOR_SIZE.getY() * MINOR_FACTOR.getY(); minorY < MAJOR_SIZE.getY(); minorY += MAJOR_SIZE.getY() * MINOR_FACTOR.getY()) {
-					g.drawLine(worldRect.getMinX(),curY + minorY,worldRect.getMaxX(),curY + minorY);
-				}
-				curY += MAJOR_SIZE.getY();
+
+			/* Horizontal */
+			first = (long)Math.ceil((Math.max(mMinY, ORIGIN_Y) - ORIGIN_Y) / minor);
+			last = (long)Math.floor((mMaxY - ORIGIN_Y) / minor);
+			for(long i = first; i <= last; i++) {
+				bind(i % MINOR_DIVISIONS == 0 ? Color.gray : Color.darkGray);
+				float y = ORIGIN_Y + i * minor;
+				GL11.glVertex2f(mMinX, y);
+				GL11.glVertex2f(mMaxX, y);
 			}
-		g.popTransform();
+		GL11.glEnd();
+		GL11.glEndList();
+	}
+
+	private static void bind(Color c) {
+		GL11.glColor4f(c.r, c.g, c.b, c.a);
+	}
+
+	/*
+	 * Frees the display list; call while the GL context is still current
+	 */
+	public void destroy() {
+		if(mList != 0)
+			GL11.glDeleteLists(mList, 1);
+		mList = 0;
 	}
 }
@@ -0,0 +1,77 @@
+package edu.gmu.gmdrive;
+
+import java.io.IOException;
+
+/*
+ * Runs a scenario without display, input or audio, as fast as possible.
+ *
+ * usage: HeadlessRunner route.xml seconds [step ms] [output.csv | output.gmt | output.gmz] [driver] [segments.csv] [vehicle.properties]
+ *
+ * A .gmt output is written in the binary columnar format (see TelemetryFile),
+ * a .gmz output compressed (see CompressedTelemetryFile), anything else as
+ * CSV; "" records nothing.  The driver (see Drivers) defaults to idle.
+ * Per-leg figures (see SegmentAnalytics) go to segments.csv if given.  The
+ * vehicle (see VehicleProfile) defaults to the built-in car.
+ */
+public class HeadlessRunner {
+
+	public static void main(String[] args) {
+		if(args.length < 2) {
+			System.err.println("usage: HeadlessRunner route.xml seconds [step ms] [output.csv | output.gmt | output.gmz] [driver] [segments.csv] [vehicle.properties]");
+			System.exit(-1);
+		}
+
+		String routeFile = args[0];
+		long duration = (long)(Double.parseDouble(args[1]) * 1000);
+		int step = args.length > 2 ? Integer.parseInt(args[2]) : Simulation.DEFAULT_STEP;
+
+		VehicleProfile profile = VehicleProfile.DEFAULT;
+		if(args.length > 6) {
+			try {
+				profile = VehicleProfile.load(args[6]);
+			} catch(IOException e) {
+				e.printStackTrace();
+				System.exit(-1);
+			}
+		}
+
+		Simulation sim = new Simulation(new Route(routeFile), step, profile);
+		if(args.length > 4)
+			sim.setInputProvider(Drivers.create(args[4]));
+		if(args.length > 3 && args[3].length() > 0) {
+			try {
+				if(args[3].endsWith(".gmz"))
+					sim.addRecorder(new CompressedRecorder(args[3]));
+				else if(args[3].endsWith(".gmt"))
+					sim.addRecorder(new ColumnarRecorder(args[3]));
+				else
+					sim.addRecorder(new TelemetryRecorder(args[3]));
+			} catch(IOException e) {
+				e.printStackTrace();
+				System.exit(-1);
+			}
+		}
+		if(args.length > 5 && args[5].length() > 0) {
+			try {
+				SegmentAnalytics analytics = new SegmentAnalytics();
+				analytics.addListener(new SegmentReport(args[5]));
+				sim.addRecorder(analytics);
+			} catch(IOException e) {
+				e.printStackTrace();
+				System.exit(-1);
+			}
+		}
+
+		long start = System.nanoTime();
+		sim.runFor(duration);
+		long wall = System.nanoTime() - start;
+
+		sim.close();
+
+		double wallMs = wall / 1e6;
+		System.out.println(String.format("%s: simulated %d ms in %.1f ms (%.0fx real time)%s",
+				sim.getRoute().getName(), sim.getSimTime(), wallMs,
+				sim.getSimTime() / Math.max(wallMs, 1e-3),
+				sim.isComplete() ? ", route complete" : ""));
+	}
+}
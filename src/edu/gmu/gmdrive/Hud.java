@@ -0,0 +1,83 @@
+package edu.gmu.gmdrive;
+
+import org.newdawn.slick.UnicodeFont;
+
+/*
+ * Lines of "label value unit" text drawn over the view.
+ *
+ * Each value is quantized to the decimals it is shown with, and a line's
+ * text is only rebuilt when its label or quantized value changes; otherwise
+ * the same String is drawn again.  UnicodeFont caches a display list of the
+ * glyphs for each string it draws, so an unchanged line is a single cached
+ * list call, and a steady HUD allocates nothing.
+ */
+public class Hud {
+	private static final long NO_VALUE = Long.MIN_VALUE; // key of NaN values, shown as "--"
+	private static final long[] POWERS = { 1, 10, 100, 1000, 10000, 100000, 1000000 }; // up to six decimals
+
+	private UnicodeFont mFont;
+	private int mLineHeight;
+
+	private String[] mLabels, mUnits, mTexts;
+	private long[] mKeys;
+	private int[] mDecimals;
+	private StringBuilder mBuilder = new StringBuilder(64);
+
+	public Hud(UnicodeFont font, int lines, int lineHeight) {
+		mFont = font;
+		mFont.setDisplayListCaching(true);
+		mLineHeight = lineHeight;
+		mLabels = new String[lines];
+		mUnits = new String[lines];
+		mTexts = new String[lines];
+		mKeys = new long[lines];
+		mDecimals = new int[lines];
+	}
+
+	/*
+	 * Shows label, value to decimals places and unit on line
+	 */
+	public void set(int line, String label, double value, int decimals, String unit) {
+		long key = Double.isNaN(value) ? NO_VALUE : Math.round(value * POWERS[decimals]);
+		if(mTexts[line] != null && key == mKeys[line] && decimals == mDecimals[line]
+				&& label == mLabels[line] && unit == mUnits[line])
+			return;
+
+		mLabels[line] = label;
+		mUnits[line] = unit;
+		mKeys[line] = key;
+		mDecimals[line] = decimals;
+
+		StringBuilder sb = mBuilder;
+		sb.setLength(0);
+		sb.append(label);
+		if(key == NO_VALUE) sb.append("--");
+		else appendFixed(sb, key, decimals);
+		sb.append(unit);
+		mTexts[line] = sb.toString();
+	}
+
+	/*
+	 * Appends scaled / 10^decimals with exactly decimals places
+	 */
+	static void appendFixed(StringBuilder sb, long scaled, int decimals) {
+		if(scaled < 0) {
+			sb.append('-');
+			scaled = -scaled;
+		}
+		sb.append(scaled / POWERS[decimals]);
+		if(decimals == 0) return;
+		sb.append('.');
+		long frac = scaled % POWERS[decimals];
+		for(long digit = POWERS[decimals - 1]; digit > 1 && frac < digit; digit /= 10)
+			sb.append('0');
+		sb.append(frac);
+	}
+
+	public void render(float x, float y) {
+		for(int i = 0; i < mTexts.length; i++) {
+			if(mTexts[i] != null)
+				mFont.drawString(x, y + i * mLineHeight, mTexts[i]);
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package edu.gmu.gmdrive;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/*
+ * Records the driver inputs of a session so it can be replayed exactly (see
+ * InputReplay).
+ *
+ * The simulation steps with a fixed timestep, so the inputs applied at each
+ * step fully determine the run; frame timing does not need to be logged.
+ * Inputs are written only when they change, and every hash interval steps a
+ * hash of the simulation state is written so a replay can verify that it has
+ * not diverged.
+ *
+ * Layout, big endian (DataOutput):
+ *
+ *   int   magic "GMDI"
+ *   short version
+ *   int   step (ms)
+ *   int   hash interval (steps)
+ *   UTF   route file
+ *   UTF   vehicle profile file, empty for the default vehicle (version 2 on)
+ *
+ * followed by records, each a tag byte and the number of steps since the
+ * previous record as a varint:
+ *
+ *   INPUT  float steering, float throttle, float brakes; applied from this step on
+ *   HASH   long state hash, taken before this step runs
+ *   END    total number of steps
+ */
+public class InputLog implements Recorder {
+	public static final int MAGIC = 0x474d4449; // "GMDI"
+	public static final short VERSION = 2;
+	public static final int DEFAULT_HASH_INTERVAL = 100; // steps
+
+	static final byte TAG_INPUT = 1;
+	static final byte TAG_HASH = 2;
+	static final byte TAG_END = 3;
+
+	private DataOutputStream mOut;
+	private int mHashInterval;
+	private long mSteps, mLastRecord;
+	private float mSteering, mThrottle, mBrakes;
+	private boolean mHaveInputs;
+
+	public InputLog(String filename, Simulation sim) throws IOException {
+		this(filename, sim, DEFAULT_HASH_INTERVAL);
+	}
+
+	public InputLog(String filename, Simulation sim, int hashInterval) throws IOException {
+		if(hashInterval <= 0)
+			throw new IllegalArgumentException("Hash interval must be positive: " + hashInterval);
+		mHashInterval = hashInterval;
+
+		mOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+		mOut.writeInt(MAGIC);
+		mOut.writeShort(VERSION);
+		mOut.writeInt(sim.getStep());
+		mOut.writeInt(hashInterval);
+		mOut.writeUTF(sim.getRoute().getFilename());
+		String profile = sim.getVehicleProfile().getFilename();
+		mOut.writeUTF(profile != null ? profile : "");
+	}
+
+	@Override
+	public void record(Simulation sim) {
+		if(mOut == null) return;
+
+		try {
+			if(mSteps % mHashInterval == 0) {
+				writeTag(TAG_HASH);
+				mOut.writeLong(sim.stateHash());
+			}
+
+			float steering = sim.getSteering(), throttle = sim.getThrottle(), brakes = sim.getBrakes();
+			if(!mHaveInputs || changed(steering, mSteering) || changed(throttle, mThrottle) || changed(brakes, mBrakes)) {
+				writeTag(TAG_INPUT);
+				mOut.writeFloat(steering);
+				mOut.writeFloat(throttle);
+				mOut.writeFloat(brakes);
+				mSteering = steering;
+				mThrottle = throttle;
+				mBrakes = brakes;
+				mHaveInputs = true;
+			}
+		} catch(IOException e) {
+			e.printStackTrace();
+			System.err.println("Could not write input log, logging stopped!");
+			abandon();
+			return;
+		}
+		mSteps++;
+	}
+
+	private static boolean changed(float a, float b) {
+		return Float.floatToRawIntBits(a) != Float.floatToRawIntBits(b);
+	}
+
+	private void writeTag(byte tag) throws IOException {
+		mOut.writeByte(tag);
+		writeVarLong(mOut, mSteps - mLastRecord);
+		mLastRecord = mSteps;
+	}
+
+	@Override
+	public void close() {
+		if(mOut == null) return;
+		try {
+			writeTag(TAG_END);
+			mOut.close();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+		mOut = null;
+	}
+
+	private void abandon() {
+		try {
+			mOut.close();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+		mOut = null;
+	}
+
+	public long getSteps() {
+		return mSteps;
+	}
+
+	/*
+	 * Unsigned LEB128: seven bits per byte, low bits first
+	 */
+	static void writeVarLong(DataOutput out, long value) throws IOException {
+		while((value & ~0x7fL) != 0) {
+			out.writeByte((int)(value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int)value);
+	}
+
+	/*
+	 * The header of a log, as read by readHeader
+	 */
+	static class Header {
+		int mStep, mHashInterval;
+		String mRouteFile;
+		String mProfileFile; // "" for the default vehicle
+	}
+
+	/*
+	 * Reads the header of a log of any version up to VERSION, leaving in at
+	 * the first record
+	 */
+	static Header readHeader(DataInput in, String filename) throws IOException {
+		if(in.readInt() != MAGIC)
+			throw new IOException("Not an input log (bad magic): " + filename);
+		short version = in.readShort();
+		if(version < 1 || version > VERSION)
+			throw new IOException("Unsupported input log version " + version + ": " + filename);
+		Header header = new Header();
+		header.mStep = in.readInt();
+		header.mHashInterval = in.readInt();
+		header.mRouteFile = in.readUTF();
+		header.mProfileFile = version >= 2 ? in.readUTF() : ""; // version 1 only had the default vehicle
+		return header;
+	}
+
+	static long readVarLong(DataInput in) throws IOException {
+		long value = 0;
+		for(int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long)(b & 0x7f) << shift;
+			if((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Malformed varint");
+	}
+}
@@ -0,0 +1,10 @@
+package edu.gmu.gmdrive;
+
+/*
+ * Source of driver inputs.  Simulation calls update() at the start of every
+ * fixed step, before the step is recorded, and the provider sets the inputs
+ * for that step with Simulation.setInputs.
+ */
+public interface InputProvider {
+	void update(Simulation sim);
+}
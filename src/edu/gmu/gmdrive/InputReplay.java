@@ -0,0 +1,122 @@
+package edu.gmu.gmdrive;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/*
+ * Replays a session recorded by InputLog.  The simulation is stepped with the
+ * logged inputs and its state hash is compared against the logged hashes, so
+ * a replay either reproduces the original run bit for bit or reports the
+ * first step where it diverged.
+ *
+ * Hashes are only expected to match on the JVM and platform that wrote the
+ * log; the physics uses Math.sin/cos, which is not strictfp.
+ */
+public class InputReplay {
+	private String mFilename;
+	private DataInputStream mIn;
+	private int mStep, mHashInterval;
+	private String mRouteFile;
+	private VehicleProfile mProfile;
+
+	private long mSteps, mHashesChecked, mMismatches, mFirstMismatch;
+	private boolean mTruncated;
+
+	public InputReplay(String filename) throws IOException {
+		mFilename = filename;
+		mIn = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), 1 << 16));
+		try {
+			InputLog.Header header = InputLog.readHeader(mIn, filename);
+			mStep = header.mStep;
+			mHashInterval = header.mHashInterval;
+			mRouteFile = header.mRouteFile;
+			mProfile = VehicleProfile.load(header.mProfileFile);
+		} catch(IOException e) {
+			mIn.close();
+			throw e;
+		}
+		mFirstMismatch = -1;
+	}
+
+	/*
+	 * Simulation set up the way the logged one was; routeFile overrides the
+	 * logged route when not null
+	 */
+	public Simulation createSimulation(String routeFile) {
+		return new Simulation(new Route(routeFile != null ? routeFile : mRouteFile), mStep, mProfile);
+	}
+
+	/*
+	 * Steps sim through the whole log.  Recorders added to sim see every step
+	 * as they did in the original session.  Returns true if every logged hash
+	 * matched.
+	 */
+	public boolean replay(Simulation sim) throws IOException {
+		if(sim.getStep() != mStep)
+			throw new IllegalArgumentException("Log was recorded at " + mStep + " ms steps, simulation uses " + sim.getStep());
+
+		long next = 0; // step of the next record
+		try {
+			while(true) {
+				int tag;
+				try {
+					tag = mIn.readUnsignedByte();
+				} catch(EOFException e) {
+					/* Session ended without close(); replay what was logged */
+					mTruncated = true;
+					break;
+				}
+				next += InputLog.readVarLong(mIn);
+
+				while(mSteps < next) {
+					sim.step();
+					mSteps++;
+				}
+
+				if(tag == InputLog.TAG_INPUT) {
+					float steering = mIn.readFloat();
+					float throttle = mIn.readFloat();
+					float brakes = mIn.readFloat();
+					sim.setInputs(steering, throttle, brakes);
+				} else if(tag == InputLog.TAG_HASH) {
+					long expected = mIn.readLong();
+					mHashesChecked++;
+					if(sim.stateHash() != expected) {
+						if(mMismatches++ == 0)
+							mFirstMismatch = mSteps;
+					}
+				} else if(tag == InputLog.TAG_END) {
+					break;
+				} else {
+					throw new IOException("Corrupt input log (tag " + tag + " at step " + next + "): " + mFilename);
+				}
+			}
+		} catch(EOFException e) {
+			mTruncated = true;
+		} finally {
+			mIn.close();
+		}
+		return mMismatches == 0;
+	}
+
+	public int getStep() { return mStep; }
+	public int getHashInterval() { return mHashInterval; }
+	public String getRouteFile() { return mRouteFile; }
+	public VehicleProfile getVehicleProfile() { return mProfile; }
+	public long getSteps() { return mSteps; }
+	public long getHashesChecked() { return mHashesChecked; }
+	public long getMismatches() { return mMismatches; }
+
+	/*
+	 * Step at which the first hash mismatch was seen, -1 if none
+	 */
+	public long getFirstMismatch() { return mFirstMismatch; }
+
+	/*
+	 * True if the log ended without an END record, e.g. after a crash
+	 */
+	public boolean isTruncated() { return mTruncated; }
+}
@@ -0,0 +1,34 @@
+package edu.gmu.gmdrive;
+
+import org.newdawn.slick.Input;
+
+/*
+ * Wheel and pedals.  Pedal axes rest at +1 and read -1 fully pressed; both
+ * get a dead zone so a resting foot does not register.
+ */
+public class JoystickInput implements InputProvider {
+	public static final float DEAD_ZONE = 0.1f;
+
+	private Input mInput;
+	private int mJoystick, mSteerAxis, mAccAxis, mBrakeAxis;
+
+	public JoystickInput(Input input, int joystick, int steerAxis, int accAxis, int brakeAxis) {
+		mInput = input;
+		mJoystick = joystick;
+		mSteerAxis = steerAxis;
+		mAccAxis = accAxis;
+		mBrakeAxis = brakeAxis;
+	}
+
+	@Override
+	public void update(Simulation sim) {
+		float steering = mInput.getAxisValue(mJoystick, mSteerAxis);
+		float brakes = -(mInput.getAxisValue(mJoystick, mBrakeAxis) - 1.0f) / 2;
+		float throttle = -(mInput.getAxisValue(mJoystick, mAccAxis) - 1.0f) / 2;
+
+		if(Math.abs(throttle) < DEAD_ZONE) throttle = 0f;
+		if(Math.abs(brakes) < DEAD_ZONE) brakes = 0f;
+
+		sim.setInputs(steering, throttle, brakes);
+	}
+}
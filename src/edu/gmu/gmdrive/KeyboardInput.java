@@ -0,0 +1,34 @@
+package edu.gmu.gmdrive;
+
+import org.newdawn.slick.Input;
+
+/*
+ * WASD driving: A/D steer full lock, W full throttle, S full brakes
+ */
+public class KeyboardInput implements InputProvider {
+	private Input mInput;
+
+	public KeyboardInput(Input input) {
+		mInput = input;
+	}
+
+	@Override
+	public void update(Simulation sim) {
+		float steering, throttle, brakes;
+
+		/* Steering */
+		if(mInput.isKeyDown(Input.KEY_A)) steering = -1.0f;
+		else if(mInput.isKeyDown(Input.KEY_D)) steering = 1.0f;
+		else steering = 0.0f;
+
+		/* Accelerator */
+		if(mInput.isKeyDown(Input.KEY_W)) throttle = 1.0f;
+		else throttle = 0.0f;
+
+		/* Brakes */
+		if(mInput.isKeyDown(Input.KEY_S)) brakes = 1.0f;
+		else brakes = 0.0f;
+
+		sim.setInputs(steering, throttle, brakes);
+	}
+}
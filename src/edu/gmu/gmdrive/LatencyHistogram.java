@@ -0,0 +1,133 @@
+package edu.gmu.gmdrive;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Log-linear histogram of durations in ns, in the style of HdrHistogram.
+ *
+ * Values below 2 * sub-buckets are counted exactly; above that each power of
+ * two is split into 2^subBits equal buckets.  getPercentile reports the top
+ * of a bucket, within 2^-subBits of what was recorded (about 3% at the
+ * default SUB_BITS, in under 2000 buckets for the whole range of a long);
+ * getPercentileMidpoint reports its middle, within half that either way.
+ *
+ * record() neither locks nor allocates, and may race with readers on other
+ * threads; a percentile read while recording is off by at most the samples
+ * that arrived during the read.
+ */
+public class LatencyHistogram {
+	public static final int SUB_BITS = 5;
+
+	private int mSubBits, mSubBuckets, mBuckets;
+	private AtomicLongArray mCounts;
+	private AtomicLong mCount, mSum, mMax;
+
+	public LatencyHistogram() {
+		this(SUB_BITS);
+	}
+
+	/*
+	 * Finer buckets for values that need a closer percentile; every extra bit
+	 * halves the error and doubles the memory
+	 */
+	public LatencyHistogram(int subBits) {
+		if(subBits < 1 || subBits > 16)
+			throw new IllegalArgumentException("Sub-bucket bits must be 1 to 16: " + subBits);
+		mSubBits = subBits;
+		mSubBuckets = 1 << subBits;
+		mBuckets = mSubBuckets + (63 - subBits) * mSubBuckets;
+		mCounts = new AtomicLongArray(mBuckets);
+		mCount = new AtomicLong();
+		mSum = new AtomicLong();
+		mMax = new AtomicLong();
+	}
+
+	int bucket(long value) {
+		if(value < mSubBuckets) return (int)Math.max(value, 0);
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - mSubBits;
+		return mSubBuckets + shift * mSubBuckets + (int)((value >>> shift) - mSubBuckets);
+	}
+
+	/*
+	 * Smallest and largest values that land in bucket
+	 */
+	long lowestValue(int bucket) {
+		if(bucket < 2 * mSubBuckets) return bucket;
+		int shift = (bucket - mSubBuckets) / mSubBuckets;
+		long sub = mSubBuckets + (bucket - mSubBuckets) % mSubBuckets;
+		return sub << shift;
+	}
+
+	long highestValue(int bucket) {
+		if(bucket < 2 * mSubBuckets) return bucket;
+		int shift = (bucket - mSubBuckets) / mSubBuckets;
+		long sub = mSubBuckets + (bucket - mSubBuckets) % mSubBuckets;
+		return ((sub + 1) << shift) - 1;
+	}
+
+	public void record(long value) {
+		mCounts.incrementAndGet(bucket(value));
+		mCount.incrementAndGet();
+		mSum.addAndGet(value);
+		long max = mMax.get();
+		while(value > max && !mMax.compareAndSet(max, value))
+			max = mMax.get();
+	}
+
+	/*
+	 * Smallest recorded value v such that percentile % of the samples are <= v,
+	 * to bucket precision; 0 when empty
+	 */
+	public long getPercentile(double percentile) {
+		int bucket = percentileBucket(percentile);
+		return bucket >= 0 ? Math.min(highestValue(bucket), mMax.get()) : 0;
+	}
+
+	/*
+	 * The middle of the bucket getPercentile finds, for an estimate that is
+	 * not biased upwards; 0 when empty
+	 */
+	public double getPercentileMidpoint(double percentile) {
+		int bucket = percentileBucket(percentile);
+		if(bucket < 0) return 0;
+		return Math.min((lowestValue(bucket) + highestValue(bucket)) / 2.0, mMax.get());
+	}
+
+	/*
+	 * Bucket holding the percentile, -1 when empty
+	 */
+	private int percentileBucket(double percentile) {
+		long count = mCount.get();
+		if(count == 0) return -1;
+		long rank = Math.max(1, (long)Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for(int i = 0; i < mBuckets; i++) {
+			seen += mCounts.get(i);
+			if(seen >= rank)
+				return i;
+		}
+		return bucket(mMax.get());
+	}
+
+	public long getCount() { return mCount.get(); }
+	public long getSum() { return mSum.get(); }
+	public long getMax() { return mMax.get(); }
+
+	public double getMean() {
+		long count = mCount.get();
+		return count > 0 ? (double)mSum.get() / count : 0;
+	}
+
+	/*
+	 * Not atomic with respect to concurrent record() calls
+	 */
+	public void reset() {
+		for(int i = 0; i < mBuckets; i++)
+			mCounts.set(i, 0);
+		mCount.set(0);
+		mSum.set(0);
+		mMax.set(0);
+	}
+}
@@ -0,0 +1,79 @@
+package edu.gmu.gmdrive;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+ * Plays back the inputs of an InputLog, step for step.  Unlike InputReplay
+ * this is open loop: the state hashes are ignored, so the logged driver can
+ * be put in a different vehicle or route.  The whole log is read up front.
+ */
+public class LogInput implements InputProvider {
+	private int mStep;
+	private long[] mChangeSteps; // step at which each input change applies
+	private float[] mInputs; // steering, throttle, brakes per change
+	private int mChanges, mNext;
+	private long mSteps;
+
+	public LogInput(String filename) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), 1 << 16));
+		try {
+			mStep = InputLog.readHeader(in, filename).mStep; // route and vehicle are the caller's choice
+
+			mChangeSteps = new long[64];
+			mInputs = new float[64 * 3];
+			long step = 0;
+			while(true) {
+				int tag;
+				try {
+					tag = in.readUnsignedByte();
+				} catch(EOFException e) {
+					break; // session ended without close()
+				}
+				step += InputLog.readVarLong(in);
+				if(tag == InputLog.TAG_INPUT) {
+					if(mChanges == mChangeSteps.length) {
+						mChangeSteps = Arrays.copyOf(mChangeSteps, mChanges * 2);
+						mInputs = Arrays.copyOf(mInputs, mChanges * 2 * 3);
+					}
+					mChangeSteps[mChanges] = step;
+					mInputs[mChanges * 3] = in.readFloat();
+					mInputs[mChanges * 3 + 1] = in.readFloat();
+					mInputs[mChanges * 3 + 2] = in.readFloat();
+					mChanges++;
+				} else if(tag == InputLog.TAG_HASH) {
+					in.readLong();
+				} else if(tag == InputLog.TAG_END) {
+					break;
+				} else {
+					throw new IOException("Corrupt input log (tag " + tag + " at step " + step + "): " + filename);
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	@Override
+	public void update(Simulation sim) {
+		if(mSteps == 0 && sim.getStep() != mStep)
+			throw new IllegalStateException("Log was recorded at " + mStep + " ms steps, simulation uses " + sim.getStep());
+
+		if(mNext < mChanges && mChangeSteps[mNext] <= mSteps) {
+			int i = mNext++ * 3;
+			sim.setInputs(mInputs[i], mInputs[i + 1], mInputs[i + 2]);
+		}
+		mSteps++;
+	}
+
+	/*
+	 * Logged step length, ms
+	 */
+	public int getStep() {
+		return mStep;
+	}
+}
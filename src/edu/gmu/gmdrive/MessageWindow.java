@@ -1,85 +1,78 @@
 package edu.gmu.gmdrive;
 
 import java.awt.Color;
-import java.util.ArrayList;
 import org.newdawn.slick.GameContainer;
 import org.newdawn.slick.Graphics;
 import org.newdawn.slick.SlickException;
 import org.newdawn.slick.UnicodeFont;
 import org.newdawn.slick.font.effects.ColorEffect;
 
+/*
+ * Messages shown for MSG_DURATION ms at the bottom of the screen, newest
+ * lowest.
+ *
+ * Messages are kept in a fixed ring of MAX_MESSAGES; when it is full the
+ * oldest one makes room.  Every message lives equally long, so they expire
+ * oldest first and update() only has to look at the oldest end.  Updating
+ * and rendering allocate nothing.
+ */
 public class MessageWindow {
 	private static final int MSG_DURATION = 5000;
+	private static final int MAX_MESSAGES = 64;
 	private static final int FONT_SIZE = 12;
 	private static final int VERT_PADDING = 2;
-	
-	ArrayList<Message> mMessages;
+
+	/* Ring of messages; mHead is the slot of the newest */
+	private String[] mTexts;
+	private long[] mExpiry; // mClock value at which each message goes
+	private int mHead, mCount;
+	private long mClock; // ms
+
 	UnicodeFont mFont;
-	
+
 	public MessageWindow() {
 		try {
 			mFont = new UnicodeFont("res/VeraMono.ttf",FONT_SIZE,false,false);
 			mFont.addAsciiGlyphs();
 			mFont.getEffects().add(new ColorEffect(Color.WHITE));
 			mFont.loadGlyphs();
+			mFont.setDisplayListCaching(true);
 		} catch (SlickException e) {
 			e.printStackTrace();
 		}
-		mMessages = new ArrayList<Message>();
+		mTexts = new String[MAX_MESSAGES];
+		mExpiry = new long[MAX_MESSAGES];
+		mHead = MAX_MESSAGES - 1;
 	}
-	
+
 	public void update(GameContainer gc, int delta) {
-		ArrayList<Message> removeList = new ArrayList<Message>();
-		for(Message msg : mMessages) {
-			if(!msg.updateDuration(delta)) {
-				removeList.add(msg);
-			}
+		mClock += delta;
+		while(mCount > 0) {
+			int oldest = (mHead - mCount + 1 + MAX_MESSAGES) % MAX_MESSAGES;
+			if(mExpiry[oldest] > mClock) break;
+			mTexts[oldest] = null;
+			mCount--;
 		}
-		mMessages.removeAll(removeList);
 	}
-	
+
 	public void render(GameContainer gc,Graphics g) {
-		int n = 1;
-		for(Message msg : mMessages) {
-			int y = gc.getHeight() - (n++ * (FONT_SIZE + VERT_PADDING));
-			mFont.drawString(0.0f, y, msg.getText());
+		for(int n = 0; n < mCount; n++) {
+			int y = gc.getHeight() - ((n + 1) * (FONT_SIZE + VERT_PADDING));
+			mFont.drawString(0.0f, y, mTexts[(mHead - n + MAX_MESSAGES) % MAX_MESSAGES]);
 		}
 	}
-	
+
 	public void add(String text) {
-		mMessages.add(0,new Message(text,MSG_DURATION));
+		mHead = (mHead + 1) % MAX_MESSAGES;
+		mTexts[mHead] = text;
+		mExpiry[mHead] = mClock + MSG_DURATION;
+		if(mCount < MAX_MESSAGES) mCount++;
 	}
-	
+
 	/*
 	 * HACK!
 	 */
 	public UnicodeFont getFont() {
 		return mFont;
 	}
-
-	class Message {
-		private String mText;
-		private int mDuration;
-		
-		public Message(String text, int duration) {
-			mText = text;
-			mDuration = duration;
-		}
-		
-		/*
-		 * Returns false if duration falls below 0 (needs to be removed from message list)
-		 */
-		public boolean updateDuration(int delta) {
-			mDuration -= delta;
-			return (mDuration > 0) ? true : false;
-		}
-		
-		public int getDuration() {
-			return mDuration;
-		}
-		
-		public String getText() {
-			return mText;
-		}
-	}
 }
@@ -0,0 +1,103 @@
+package edu.gmu.gmdrive;
+
+import java.io.File;
+import java.io.IOException;
+
+/*
+ * AudioBackend without a sound device.  Handles are plain counters, a played
+ * source counts as playing for a fixed time, and every call is counted so the
+ * audio thread can be exercised headlessly.
+ */
+public class NullAudioBackend implements AudioBackend {
+	private long mPlayNanos;
+	private long[] mPlayUntil;
+	private int mNextBuffer, mNextSource, mMaxSources;
+	private int mCalls, mPlays, mLiveBuffers, mLiveSources;
+	private float mListenerX, mListenerY;
+
+	public NullAudioBackend() {
+		this(64, 500);
+	}
+
+	/*
+	 * maxSources: how many sources exist before createSource fails;
+	 * playMillis: how long a played source reports isPlaying
+	 */
+	public NullAudioBackend(int maxSources, int playMillis) {
+		mMaxSources = maxSources;
+		mPlayNanos = playMillis * 1000000L;
+		mPlayUntil = new long[maxSources + 1];
+	}
+
+	@Override
+	public synchronized int loadBuffer(String filename) throws IOException {
+		mCalls++;
+		if(!new File(filename).isFile())
+			throw new IOException("No such sound file: " + filename);
+		mLiveBuffers++;
+		return ++mNextBuffer;
+	}
+
+	@Override
+	public synchronized void deleteBuffer(int buffer) {
+		mCalls++;
+		mLiveBuffers--;
+	}
+
+	@Override
+	public synchronized int createSource() {
+		mCalls++;
+		if(mNextSource == mMaxSources) return 0;
+		mLiveSources++;
+		return ++mNextSource;
+	}
+
+	@Override
+	public synchronized void deleteSource(int source) {
+		mCalls++;
+		mLiveSources--;
+	}
+
+	@Override
+	public synchronized void configureSource(int source, int buffer, float referenceDistance, float maxDistance, float gain) {
+		mCalls++;
+	}
+
+	@Override
+	public synchronized void setSourceState(int source, float x, float y, float velX, float velY) {
+		mCalls++;
+	}
+
+	@Override
+	public synchronized void play(int source) {
+		mCalls++;
+		mPlays++;
+		mPlayUntil[source] = System.nanoTime() + mPlayNanos;
+	}
+
+	@Override
+	public synchronized void stop(int source) {
+		mCalls++;
+		mPlayUntil[source] = 0;
+	}
+
+	@Override
+	public synchronized boolean isPlaying(int source) {
+		mCalls++;
+		return mPlayUntil[source] - System.nanoTime() > 0;
+	}
+
+	@Override
+	public synchronized void setListener(float x, float y, float velX, float velY, float atX, float atY) {
+		mCalls++;
+		mListenerX = x;
+		mListenerY = y;
+	}
+
+	public synchronized int getCalls() { return mCalls; }
+	public synchronized int getPlays() { return mPlays; }
+	public synchronized int getLiveBuffers() { return mLiveBuffers; }
+	public synchronized int getLiveSources() { return mLiveSources; }
+	public synchronized float getListenerX() { return mListenerX; }
+	public synchronized float getListenerY() { return mListenerY; }
+}
@@ -0,0 +1,60 @@
+package edu.gmu.gmdrive;
+
+import org.lwjgl.opengl.GL11;
+import org.newdawn.slick.Color;
+import org.newdawn.slick.Graphics;
+import org.newdawn.slick.opengl.TextureImpl;
+
+/*
+ * Slick rendering for a RoutePath, the "ideal path" through the waypoints,
+ * with a tick from the driver to the closest point on it.
+ *
+ * The path never changes, so like Grid it is compiled once into a GL display
+ * list and replayed each frame; the list is rebuilt only for a different path.
+ */
+public class PathRenderer {
+	private static final Color PATH_COLOR = new Color(0.0f, 0.5f, 0.0f);
+
+	/* Cached display list and the path it was built for */
+	private int mList;
+	private RoutePath mPath;
+
+	/*
+	 * Draws in world coordinates; body 0 of the snapshot is the driver
+	 */
+	public void render(Graphics g, RoutePath path, SimSnapshot snapshot) {
+		if(mList == 0 || path != mPath)
+			rebuild(path);
+		TextureImpl.bindNone();
+		GL11.glCallList(mList);
+
+		if(snapshot.getBodyCount() > 0 && !Float.isNaN(snapshot.getClosestX())) {
+			g.setColor(Color.green);
+			g.drawLine(snapshot.getX(0), snapshot.getY(0), snapshot.getClosestX(), snapshot.getClosestY());
+		}
+	}
+
+	private void rebuild(RoutePath path) {
+		if(mList == 0)
+			mList = GL11.glGenLists(1);
+		mPath = path;
+
+		GL11.glNewList(mList, GL11.GL_COMPILE);
+		GL11.glColor4f(PATH_COLOR.r, PATH_COLOR.g, PATH_COLOR.b, PATH_COLOR.a);
+		GL11.glBegin(GL11.GL_LINE_STRIP);
+			for(int i = 0; i < path.getPointCount(); i++)
+				GL11.glVertex2f(path.getX(i), path.getY(i));
+		GL11.glEnd();
+		GL11.glEndList();
+	}
+
+	/*
+	 * Frees the display list; call while the GL context is still current
+	 */
+	public void destroy() {
+		if(mList != 0)
+			GL11.glDeleteLists(mList, 1);
+		mList = 0;
+		mPath = null;
+	}
+}
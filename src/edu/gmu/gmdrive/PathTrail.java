@@ -0,0 +1,182 @@
+package edu.gmu.gmdrive;
+
+/*
+ * Bounded store for the driven path.
+ *
+ * Positions are simplified online as they arrive and kept at several levels
+ * of detail.  Level 0 keeps every point that deviates from a straight line by
+ * more than BASE_TOLERANCE; each further level is simplified from the one
+ * below with LEVEL_FACTOR times the tolerance.  Every level is a fixed size
+ * ring of primitive coordinates, so memory is constant and the coarse levels
+ * reach much further back in time than the fine ones.
+ *
+ * A renderer picks one level with levelFor() and draws at most capacity
+ * points, however long the session has run.
+ */
+public class PathTrail {
+	public static final int DEFAULT_CAPACITY = 2048; // points per level
+	public static final int LEVELS = 4;
+	public static final float BASE_TOLERANCE = 0.5f; // m
+	public static final float LEVEL_FACTOR = 4.0f;
+
+	private Level[] mLevels;
+	private float mLastX, mLastY;
+	private boolean mEmpty = true;
+
+	public PathTrail() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public PathTrail(int capacity) {
+		if(capacity < 2)
+			throw new IllegalArgumentException("Capacity must be at least 2: " + capacity);
+		mLevels = new Level[LEVELS];
+		float tolerance = BASE_TOLERANCE;
+		for(int i = 0; i < LEVELS; i++) {
+			mLevels[i] = new Level(capacity, tolerance);
+			tolerance *= LEVEL_FACTOR;
+		}
+	}
+
+	public void add(float x, float y) {
+		mLastX = x;
+		mLastY = y;
+		mEmpty = false;
+
+		/* Whatever a level commits is the input of the next coarser one */
+		for(int i = 0; i < LEVELS; i++) {
+			Level level = mLevels[i];
+			if(!level.add(x, y)) break;
+			x = level.mCommittedX;
+			y = level.mCommittedY;
+		}
+	}
+
+	public void clear() {
+		for(Level level : mLevels)
+			level.clear();
+		mEmpty = true;
+	}
+
+	/*
+	 * Coarsest level whose tolerance is at most maxError (m), e.g. the size of
+	 * a pixel in world units
+	 */
+	public int levelFor(float maxError) {
+		int level = 0;
+		while(level + 1 < LEVELS && mLevels[level + 1].mTolerance <= maxError)
+			level++;
+		return level;
+	}
+
+	/*
+	 * Committed points of a level, oldest first.  The most recent position
+	 * (getLastX/Y) follows them but is not included.
+	 */
+	public int size(int level) { return mLevels[level].mCount; }
+	public float getX(int level, int i) { return mLevels[level].getX(i); }
+	public float getY(int level, int i) { return mLevels[level].getY(i); }
+	public float getTolerance(int level) { return mLevels[level].mTolerance; }
+
+	public boolean isEmpty() { return mEmpty; }
+	public float getLastX() { return mLastX; }
+	public float getLastY() { return mLastY; }
+
+	/*
+	 * One level: a ring of committed points fed by an opening window
+	 * simplifier.  The window holds the points since the last committed one
+	 * (the anchor); a new point is accepted into the window while every point
+	 * in it stays within tolerance of the chord from the anchor to the new
+	 * point.  Otherwise the newest window point is committed and becomes the
+	 * anchor.  The window is bounded, so each add costs at most MAX_WINDOW
+	 * distance tests.
+	 */
+	private static class Level {
+		static final int MAX_WINDOW = 32;
+
+		final float mTolerance, mToleranceSq;
+
+		/* Ring */
+		final float[] mX, mY;
+		int mHead, mCount;
+
+		/* Window */
+		final float[] mWindowX = new float[MAX_WINDOW], mWindowY = new float[MAX_WINDOW];
+		int mWindowCount;
+		float mAnchorX, mAnchorY;
+		boolean mHaveAnchor;
+
+		float mCommittedX, mCommittedY;
+
+		Level(int capacity, float tolerance) {
+			mX = new float[capacity];
+			mY = new float[capacity];
+			mTolerance = tolerance;
+			mToleranceSq = tolerance * tolerance;
+		}
+
+		/*
+		 * Returns true if a point was committed (see mCommittedX/Y)
+		 */
+		boolean add(float x, float y) {
+			if(!mHaveAnchor) {
+				mHaveAnchor = true;
+				return commit(x, y);
+			}
+
+			if(mWindowCount < MAX_WINDOW && fits(x, y)) {
+				mWindowX[mWindowCount] = x;
+				mWindowY[mWindowCount] = y;
+				mWindowCount++;
+				return false;
+			}
+
+			/* Close the window at its newest point and start a new one */
+			commit(mWindowX[mWindowCount - 1], mWindowY[mWindowCount - 1]);
+			mWindowX[0] = x;
+			mWindowY[0] = y;
+			mWindowCount = 1;
+			return true;
+		}
+
+		private boolean fits(float x, float y) {
+			float dx = x - mAnchorX, dy = y - mAnchorY;
+			float lengthSq = dx * dx + dy * dy;
+			for(int i = 0; i < mWindowCount; i++) {
+				float px = mWindowX[i] - mAnchorX, py = mWindowY[i] - mAnchorY;
+				float distSq;
+				if(lengthSq == 0) {
+					distSq = px * px + py * py;
+				} else {
+					float t = (px * dx + py * dy) / lengthSq;
+					if(t < 0) t = 0;
+					else if(t > 1) t = 1;
+					float ex = px - t * dx, ey = py - t * dy;
+					distSq = ex * ex + ey * ey;
+				}
+				if(distSq > mToleranceSq) return false;
+			}
+			return true;
+		}
+
+		private boolean commit(float x, float y) {
+			int tail = (mHead + mCount) % mX.length;
+			mX[tail] = x;
+			mY[tail] = y;
+			if(mCount < mX.length) mCount++;
+			else mHead = (mHead + 1) % mX.length;
+
+			mAnchorX = mCommittedX = x;
+			mAnchorY = mCommittedY = y;
+			return true;
+		}
+
+		float getX(int i) { return mX[(mHead + i) % mX.length]; }
+		float getY(int i) { return mY[(mHead + i) % mY.length]; }
+
+		void clear() {
+			mHead = mCount = mWindowCount = 0;
+			mHaveAnchor = false;
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package edu.gmu.gmdrive;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Timing, allocation and GC counters for one phase of a frame.  Bracket the
+ * phase with begin() and end() on one thread; nesting different phases is
+ * fine.  begin() / end() on a phase of a disabled FrameProfiler return at
+ * once.  Enabled, each reads the thread's allocation counter, which looks
+ * the thread up in the JVM and on JDK 8 allocates a few bytes; that
+ * allocation is measured once and subtracted (see FrameProfiler), not
+ * absent.
+ */
+public class PhaseStats implements PhaseStatsMXBean {
+	private String mName;
+	private FrameProfiler mProfiler;
+	private LatencyHistogram mHistogram;
+	private AtomicLong mAllocated, mGcCount, mGcMillis;
+
+	/* State of the open bracket, owned by the timing thread */
+	private long mStart, mStartAllocated, mStartGcCount, mStartGcMillis;
+
+	PhaseStats(String name, FrameProfiler profiler) {
+		mName = name;
+		mProfiler = profiler;
+		mHistogram = new LatencyHistogram();
+		mAllocated = new AtomicLong();
+		mGcCount = new AtomicLong();
+		mGcMillis = new AtomicLong();
+	}
+
+	public void begin() {
+		if(!mProfiler.isEnabled()) return;
+		mStartAllocated = mProfiler.allocatedBytes();
+		mStartGcCount = mProfiler.gcCount();
+		mStartGcMillis = mProfiler.gcMillis();
+		mStart = System.nanoTime();
+	}
+
+	public void end() {
+		if(!mProfiler.isEnabled()) return;
+		long end = System.nanoTime();
+		mHistogram.record(end - mStart);
+
+		long gcCount = mProfiler.gcCount();
+		if(gcCount != mStartGcCount) {
+			mGcCount.addAndGet(gcCount - mStartGcCount);
+			mGcMillis.addAndGet(mProfiler.gcMillis() - mStartGcMillis);
+		}
+		long allocated = mProfiler.allocatedBytes();
+		if(allocated >= 0)
+			mAllocated.addAndGet(Math.max(0, allocated - mStartAllocated - mProfiler.getAllocationOverhead()));
+	}
+
+	public LatencyHistogram getHistogram() {
+		return mHistogram;
+	}
+
+	@Override public String getName() { return mName; }
+	@Override public long getCount() { return mHistogram.getCount(); }
+	@Override public double getMeanMicros() { return mHistogram.getMean() / 1e3; }
+	@Override public double getP50Micros() { return mHistogram.getPercentile(50) / 1e3; }
+	@Override public double getP90Micros() { return mHistogram.getPercentile(90) / 1e3; }
+	@Override public double getP99Micros() { return mHistogram.getPercentile(99) / 1e3; }
+	@Override public double getP999Micros() { return mHistogram.getPercentile(99.9) / 1e3; }
+	@Override public double getMaxMicros() { return mHistogram.getMax() / 1e3; }
+
+	@Override
+	public long getAllocatedBytes() {
+		return mProfiler.isAllocationTracked() ? mAllocated.get() : -1;
+	}
+
+	@Override
+	public long getAllocatedBytesPerCall() {
+		long count = getCount();
+		if(!mProfiler.isAllocationTracked()) return -1;
+		return count > 0 ? mAllocated.get() / count : 0;
+	}
+
+	@Override public long getGcCount() { return mGcCount.get(); }
+	@Override public long getGcMillis() { return mGcMillis.get(); }
+
+	@Override
+	public void reset() {
+		mHistogram.reset();
+		mAllocated.set(0);
+		mGcCount.set(0);
+		mGcMillis.set(0);
+	}
+}
@@ -0,0 +1,31 @@
+package edu.gmu.gmdrive;
+
+/*
+ * JMX view of one profiled phase, registered by FrameProfiler as
+ * edu.gmu.gmdrive:type=Phase,name=<phase>.  Times are in microseconds.
+ */
+public interface PhaseStatsMXBean {
+	String getName();
+	long getCount();
+	double getMeanMicros();
+	double getP50Micros();
+	double getP90Micros();
+	double getP99Micros();
+	double getP999Micros();
+	double getMaxMicros();
+
+	/*
+	 * Bytes allocated on the timing thread inside the phase, -1 if the JVM
+	 * cannot tell
+	 */
+	long getAllocatedBytes();
+	long getAllocatedBytesPerCall();
+
+	/*
+	 * Collections that ended while the phase was running, and their time
+	 */
+	long getGcCount();
+	long getGcMillis();
+
+	void reset();
+}
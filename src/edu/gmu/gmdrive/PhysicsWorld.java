@@ -0,0 +1,730 @@
+package edu.gmu.gmdrive;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Structure-of-arrays store for every body in a scenario.  Positions,
+ * velocities, angles, accumulated forces and per-wheel state live in flat
+ * primitive arrays indexed by body (or wheel) number; RigidBody and Vehicle
+ * are thin views onto one index.
+ *
+ * Bodies do not interact while they are integrated (contacts are resolved
+ * afterwards, see Collisions), so step() splits large worlds into chunks and
+ * steps them in parallel on a fork/join pool.  Each body is always stepped by
+ * exactly one thread with the same arithmetic as the serial path, so results
+ * do not depend on the thread count.
+ */
+public class PhysicsWorld {
+	public static final int PARALLEL_THRESHOLD = 512; // bodies; below this step() runs serially
+	public static final int CHUNK = 128; // bodies per fork/join leaf task
+
+	private static final float TIRE_SIDE_FACTOR = 1.5f; // Arbitrary
+	private static final float TIRE_LOAD = 542.6f / 4.0f;
+	public static final float GRAVITY = 9.81f; // m/s^2
+
+	/* Bodies */
+	private int mBodyCount;
+	float[] mPosX, mPosY, mVelX, mVelY, mForceX, mForceY;
+	float[] mAngle, mAngularVelocity, mTorque, mCos, mSin;
+	float[] mMass, mInertia, mHalfX, mHalfY;
+	float[] mDrag, mRollingResistance;
+	int[] mWheelStart, mWheelCount;
+
+	/* Wheels */
+	private int mWheelTotal;
+	float[] mAttachX, mAttachY, mRadius, mWheelInertia;
+	float[] mWheelSpeed, mWheelTorque, mSteeringAngle;
+	float[] mBrakeTorque; // magnitude; always opposes the wheel's spin
+	float[] mForwardX, mForwardY, mSideX, mSideY;
+	float[] mResponseX, mResponseY; // result of the last tire evaluation, wheel space
+	float[] mTireLoad, mSideFactor; // static load on the wheel (kg); linear tire side / forward stiffness
+	TireCurve[] mLateral, mLongitudinal; // null for the linear tire
+	float[] mTireStiffness; // -d(wheel acceleration) / d(wheel speed) of the curve tire, as of the last tireResponse
+
+	private ForkJoinPool mPool;
+	private Integrator mIntegrator = Integrator.EULER;
+	private int mSubsteps = 1;
+	private Scratch mScratch = new Scratch();
+	float[] mInputTorque; // drive torque from the controls, held over substeps
+
+	public PhysicsWorld() {
+		this(4);
+	}
+
+	public PhysicsWorld(int initialCapacity) {
+		int capacity = Math.max(initialCapacity, 1);
+		mPosX = new float[capacity]; mPosY = new float[capacity];
+		mVelX = new float[capacity]; mVelY = new float[capacity];
+		mForceX = new float[capacity]; mForceY = new float[capacity];
+		mAngle = new float[capacity]; mAngularVelocity = new float[capacity];
+		mTorque = new float[capacity]; mCos = new float[capacity]; mSin = new float[capacity];
+		mMass = new float[capacity]; mInertia = new float[capacity];
+		mHalfX = new float[capacity]; mHalfY = new float[capacity];
+		mDrag = new float[capacity]; mRollingResistance = new float[capacity];
+		mWheelStart = new int[capacity]; mWheelCount = new int[capacity];
+
+		int wheels = capacity * 4;
+		mAttachX = new float[wheels]; mAttachY = new float[wheels];
+		mRadius = new float[wheels]; mWheelInertia = new float[wheels];
+		mWheelSpeed = new float[wheels]; mWheelTorque = new float[wheels]; mSteeringAngle = new float[wheels];
+		mForwardX = new float[wheels]; mForwardY = new float[wheels];
+		mSideX = new float[wheels]; mSideY = new float[wheels];
+		mResponseX = new float[wheels]; mResponseY = new float[wheels];
+		mInputTorque = new float[wheels];
+		mBrakeTorque = new float[wheels];
+		mTireLoad = new float[wheels]; mSideFactor = new float[wheels];
+		mLateral = new TireCurve[wheels]; mLongitudinal = new TireCurve[wheels];
+		mTireStiffness = new float[wheels];
+	}
+
+	/*
+	 * Reserves a body slot (and wheels slots if wheels > 0) and returns its index
+	 */
+	int allocBody(float halfX, float halfY, float mass, int wheels) {
+		if(mBodyCount == mPosX.length) growBodies(mBodyCount * 2);
+		if(mWheelTotal + wheels > mAttachX.length) growWheels(Math.max(mAttachX.length * 2, mWheelTotal + wheels));
+
+		int b = mBodyCount++;
+		mHalfX[b] = halfX;
+		mHalfY[b] = halfY;
+		mMass[b] = mass;
+		mInertia[b] = (1.0f / 12.0f) * mass * ((4 * halfX * halfX) + (4 * halfY * halfY)) * 1.2f;
+		mCos[b] = 1.0f;
+		mWheelStart[b] = mWheelTotal;
+		mWheelCount[b] = wheels;
+
+		for(int w = mWheelTotal; w < mWheelTotal + wheels; w++)
+			mSteeringAngle[w] = Float.NaN;
+		mWheelTotal += wheels;
+		return b;
+	}
+
+	void setWheel(int w, float attachX, float attachY, float radius) {
+		mAttachX[w] = attachX;
+		mAttachY[w] = attachY;
+		mRadius[w] = radius;
+		mWheelInertia[w] = (1.0f / 2.0f) * 1.5f * radius * radius;
+		mWheelSpeed[w] = 0.0f;
+		setSteeringAngle(w, 0.0f);
+		setTire(w, TIRE_LOAD, TIRE_SIDE_FACTOR, null, null);
+	}
+
+	/*
+	 * Tire of wheel w: linear with the given side factor when the curves are
+	 * null, otherwise lateral and longitudinal TireCurves scaled by the load
+	 */
+	void setTire(int w, float load, float sideFactor, TireCurve lateral, TireCurve longitudinal) {
+		if((lateral == null) != (longitudinal == null))
+			throw new IllegalArgumentException("A tire needs both curves or neither");
+		mTireLoad[w] = load;
+		mSideFactor[w] = sideFactor;
+		mLateral[w] = lateral;
+		mLongitudinal[w] = longitudinal;
+		mTireStiffness[w] = 0.0f;
+	}
+
+	void setDrag(int b, float drag, float rollingResistance) {
+		mDrag[b] = drag;
+		mRollingResistance[b] = rollingResistance;
+	}
+
+	private void growBodies(int capacity) {
+		mPosX = Arrays.copyOf(mPosX, capacity); mPosY = Arrays.copyOf(mPosY, capacity);
+		mVelX = Arrays.copyOf(mVelX, capacity); mVelY = Arrays.copyOf(mVelY, capacity);
+		mForceX = Arrays.copyOf(mForceX, capacity); mForceY = Arrays.copyOf(mForceY, capacity);
+		mAngle = Arrays.copyOf(mAngle, capacity); mAngularVelocity = Arrays.copyOf(mAngularVelocity, capacity);
+		mTorque = Arrays.copyOf(mTorque, capacity);
+		mCos = Arrays.copyOf(mCos, capacity); mSin = Arrays.copyOf(mSin, capacity);
+		mMass = Arrays.copyOf(mMass, capacity); mInertia = Arrays.copyOf(mInertia, capacity);
+		mHalfX = Arrays.copyOf(mHalfX, capacity); mHalfY = Arrays.copyOf(mHalfY, capacity);
+		mDrag = Arrays.copyOf(mDrag, capacity); mRollingResistance = Arrays.copyOf(mRollingResistance, capacity);
+		mWheelStart = Arrays.copyOf(mWheelStart, capacity); mWheelCount = Arrays.copyOf(mWheelCount, capacity);
+	}
+
+	private void growWheels(int capacity) {
+		mAttachX = Arrays.copyOf(mAttachX, capacity); mAttachY = Arrays.copyOf(mAttachY, capacity);
+		mRadius = Arrays.copyOf(mRadius, capacity); mWheelInertia = Arrays.copyOf(mWheelInertia, capacity);
+		mWheelSpeed = Arrays.copyOf(mWheelSpeed, capacity); mWheelTorque = Arrays.copyOf(mWheelTorque, capacity);
+		mSteeringAngle = Arrays.copyOf(mSteeringAngle, capacity);
+		mForwardX = Arrays.copyOf(mForwardX, capacity); mForwardY = Arrays.copyOf(mForwardY, capacity);
+		mSideX = Arrays.copyOf(mSideX, capacity); mSideY = Arrays.copyOf(mSideY, capacity);
+		mResponseX = Arrays.copyOf(mResponseX, capacity); mResponseY = Arrays.copyOf(mResponseY, capacity);
+		mInputTorque = Arrays.copyOf(mInputTorque, capacity);
+		mBrakeTorque = Arrays.copyOf(mBrakeTorque, capacity);
+		mTireLoad = Arrays.copyOf(mTireLoad, capacity); mSideFactor = Arrays.copyOf(mSideFactor, capacity);
+		mLateral = Arrays.copyOf(mLateral, capacity); mLongitudinal = Arrays.copyOf(mLongitudinal, capacity);
+		mTireStiffness = Arrays.copyOf(mTireStiffness, capacity);
+	}
+
+	/*
+	 * Pool used for parallel steps.  Defaults to a pool shared by all worlds.
+	 */
+	public void setPool(ForkJoinPool pool) {
+		mPool = pool;
+	}
+
+	/*
+	 * Integration scheme for every body and wheel; see the INTEGRATORS section.
+	 * Each step is split into substeps of equal length, which helps most with
+	 * the tire and brake dynamics at large steps.
+	 */
+	public void setIntegrator(Integrator integrator, int substeps) {
+		if(substeps < 1)
+			throw new IllegalArgumentException("Substeps must be at least 1: " + substeps);
+		mIntegrator = integrator;
+		mSubsteps = substeps;
+	}
+
+	public Integrator getIntegrator() { return mIntegrator; }
+	public int getSubsteps() { return mSubsteps; }
+
+	/*
+	 * Steps every body by delta ms
+	 */
+	public void step(int delta) {
+		float timeStep = delta / 1000f;
+		if(mBodyCount < PARALLEL_THRESHOLD) {
+			stepRange(0, mBodyCount, timeStep, mScratch);
+			return;
+		}
+
+		StepTask task = new StepTask(0, mBodyCount, timeStep);
+		if(ForkJoinTask.inForkJoinPool())
+			task.invoke();
+		else
+			(mPool != null ? mPool : SharedPool.POOL).invoke(task);
+	}
+
+	/*
+	 * Steps a single body by delta ms
+	 */
+	public void stepBody(int b, int delta) {
+		integrate(b, delta / 1000f, mScratch);
+	}
+
+	void stepRange(int from, int to, float timeStep, Scratch scratch) {
+		for(int b = from; b < to; b++)
+			integrate(b, timeStep, scratch);
+	}
+
+	private void integrate(int b, float timeStep, Scratch scratch) {
+		int firstWheel = mWheelStart[b];
+		int lastWheel = firstWheel + mWheelCount[b];
+		if(mIntegrator == Integrator.EULER && mSubsteps == 1) {
+			for(int w = firstWheel; w < lastWheel; w++)
+				mWheelTorque[w] += brake(w, mWheelSpeed[w]);
+			eulerStep(b, timeStep);
+			for(int w = firstWheel; w < lastWheel; w++)
+				mBrakeTorque[w] = 0;
+			return;
+		}
+
+		/* Drive torques were added once for the whole step; hold them for every substep */
+		for(int w = firstWheel; w < lastWheel; w++)
+			mInputTorque[w] = mWheelTorque[w];
+
+		float h = timeStep / mSubsteps;
+		for(int i = 0; i < mSubsteps; i++) {
+			switch(mIntegrator) {
+			case EULER:
+				for(int w = firstWheel; w < lastWheel; w++)
+					mWheelTorque[w] = mInputTorque[w] + brake(w, mWheelSpeed[w]);
+				eulerStep(b, h);
+				break;
+			case SEMI_IMPLICIT:
+				semiImplicit(b, h, scratch);
+				break;
+			case RK4:
+				rk4(b, h, scratch);
+				break;
+			}
+		}
+
+		for(int w = firstWheel; w < lastWheel; w++)
+			mBrakeTorque[w] = 0;
+
+		/* EULER consumes its own forces and torques; the others held them constant */
+		if(mIntegrator != Integrator.EULER) {
+			for(int w = firstWheel; w < lastWheel; w++)
+				mWheelTorque[w] = 0;
+			mForceX[b] = mForceY[b] = mTorque[b] = 0.0f;
+		}
+	}
+
+	/*
+	 * One explicit Euler step of timeStep s, consuming the body's forces
+	 */
+	private void eulerStep(int b, float timeStep) {
+		/* per-wheel forces */
+		int firstWheel = mWheelStart[b];
+		int lastWheel = firstWheel + mWheelCount[b];
+		for(int w = firstWheel; w < lastWheel; w++) {
+			float offsetX = relToWorldX(b, mAttachX[w], mAttachY[w]);
+			float offsetY = relToWorldY(b, mAttachX[w], mAttachY[w]);
+			float groundVelX = -offsetY * mAngularVelocity[b] + mVelX[b];
+			float groundVelY = offsetX * mAngularVelocity[b] + mVelY[b];
+
+			wheelForce(w, worldToRelX(b, groundVelX, groundVelY), worldToRelY(b, groundVelX, groundVelY), timeStep);
+
+			addForce(b, relToWorldX(b, mResponseX[w], mResponseY[w]), relToWorldY(b, mResponseX[w], mResponseY[w]),
+					offsetX, offsetY);
+		}
+
+		/* Linear */
+		float invMass = 1 / mMass[b];
+		mVelX[b] += mForceX[b] * invMass * timeStep;
+		mVelY[b] += mForceY[b] * invMass * timeStep;
+		mPosX[b] += mVelX[b] * timeStep;
+		mPosY[b] += mVelY[b] * timeStep;
+		mForceX[b] = mForceY[b] = 0.0f;
+
+		/* Angular */
+		float angAcc = mTorque[b] / mInertia[b];
+		mAngularVelocity[b] += angAcc * timeStep;
+		mAngle[b] += mAngularVelocity[b] * timeStep;
+		mTorque[b] = 0.0f;
+		updateRotation(b);
+
+		if(lastWheel > firstWheel) {
+			/* Rolling resistance */
+			mForceX[b] += mVelX[b] * -mRollingResistance[b];
+			mForceY[b] += mVelY[b] * -mRollingResistance[b];
+
+			/* Linear Drag */
+			float speed = (float)Math.sqrt(mVelX[b] * mVelX[b] + mVelY[b] * mVelY[b]);
+			float drag = -mDrag[b] * speed * mMass[b];
+			mForceX[b] += mVelX[b] * drag;
+			mForceY[b] += mVelY[b] * drag;
+		}
+	}
+
+	/*
+	 * INTEGRATORS
+	 *
+	 * EULER is the original scheme: the tire model integrates wheel speed
+	 * explicitly, the body is then integrated semi-implicitly with the forces
+	 * of this step, and drag and rolling resistance are applied one step late.
+	 * With one substep it is bit for bit what the simulation has always done.
+	 *
+	 * SEMI_IMPLICIT and RK4 integrate the same equations as one state vector
+	 * per body (position, velocity, angle, angular velocity, wheel speeds)
+	 * with every force evaluated at the state being differentiated, so there
+	 * is no lag.  SEMI_IMPLICIT updates velocities first and positions from
+	 * the new velocities; RK4 takes the classic four-stage step.  Forces added
+	 * with addForce are held constant over the step.
+	 *
+	 * None of them is better than first order here.  The brakes switch
+	 * direction with the wheel's spin, a wheel stops rather than reverses
+	 * and a curve tire saturates, so the forces are not smooth, and RK4's
+	 * error falls in proportion to the step like the others'
+	 * (IntegratorAccuracy); it only costs four evaluations where they take one.
+	 *
+	 * Brakes are friction: their direction is re-evaluated from the wheel's
+	 * spin in every substep (and every RK4 stage), and in all schemes a wheel
+	 * whose speed changes sign within a substep is stopped rather than spun
+	 * backwards.  A stopped wheel on a curve tire (see tireResponse) is held
+	 * by its brake for as long as the brake outweighs the other torques on
+	 * it; the linear tire keeps its original behaviour, where a stopped wheel
+	 * feels no brake at all.
+	 *
+	 * State layout: 0 x, 1 y, 2 velX, 3 velY, 4 angle, 5 angular velocity,
+	 * 6.. wheel speeds.
+	 */
+	public enum Integrator { EULER, SEMI_IMPLICIT, RK4 }
+
+	private static final int STATE = 6;
+
+	private void load(int b, float[] state) {
+		state[0] = mPosX[b]; state[1] = mPosY[b];
+		state[2] = mVelX[b]; state[3] = mVelY[b];
+		state[4] = mAngle[b]; state[5] = mAngularVelocity[b];
+		int firstWheel = mWheelStart[b];
+		for(int i = 0; i < mWheelCount[b]; i++)
+			state[STATE + i] = mWheelSpeed[firstWheel + i];
+	}
+
+	private void store(int b, float[] state, float[] start) {
+		mPosX[b] = state[0]; mPosY[b] = state[1];
+		mVelX[b] = state[2]; mVelY[b] = state[3];
+		mAngle[b] = state[4]; mAngularVelocity[b] = state[5];
+		updateRotation(b);
+		int firstWheel = mWheelStart[b];
+		for(int i = 0; i < mWheelCount[b]; i++) {
+			float speed = state[STATE + i];
+			float preSign = Math.signum(start[STATE + i]);
+			if(preSign != 0.0f && Math.signum(speed) != preSign)
+				speed = 0.0f;
+			mWheelSpeed[firstWheel + i] = speed;
+		}
+	}
+
+	/*
+	 * Brake torque on wheel w spinning at speed: Coulomb friction, opposing
+	 * the spin and zero once stopped
+	 */
+	private float brake(int w, float speed) {
+		return -Math.signum(speed) * mBrakeTorque[w];
+	}
+
+	/*
+	 * Time derivative of body b's state
+	 */
+	private void derivative(int b, float[] state, float[] out) {
+		float cos = (float)Math.cos(state[4]);
+		float sin = (float)Math.sin(state[4]);
+		float velX = state[2], velY = state[3], angVel = state[5];
+
+		float forceX = mForceX[b], forceY = mForceY[b], torque = mTorque[b];
+		int firstWheel = mWheelStart[b];
+		int wheels = mWheelCount[b];
+		for(int i = 0; i < wheels; i++) {
+			int w = firstWheel + i;
+			float offsetX = mAttachX[w] * cos - mAttachY[w] * sin;
+			float offsetY = mAttachX[w] * sin + mAttachY[w] * cos;
+			float groundVelX = -offsetY * angVel + velX;
+			float groundVelY = offsetX * angVel + velY;
+			float relGroundX = groundVelX * cos + groundVelY * sin;
+			float relGroundY = -groundVelX * sin + groundVelY * cos;
+
+			/* Same tire model as wheelForce */
+			float patchSpeed = -state[STATE + i] * mRadius[w];
+			float velDiffX = mForwardX[w] * patchSpeed + relGroundX;
+			float velDiffY = mForwardY[w] * patchSpeed + relGroundY;
+			float sideMag = velDiffX * mSideX[w] + velDiffY * mSideY[w];
+			float forwardMag = velDiffX * mForwardX[w] + velDiffY * mForwardY[w];
+			float reaction = tireResponse(w, sideMag, forwardMag);
+
+			float worldX = mResponseX[w] * cos - mResponseY[w] * sin;
+			float worldY = mResponseX[w] * sin + mResponseY[w] * cos;
+			forceX += worldX;
+			forceY += worldY;
+			torque += (offsetX * worldY) - (offsetY * worldX);
+
+			float wheelTorque = mInputTorque[w] + brake(w, state[STATE + i]) + reaction;
+			if(mLateral[w] != null && state[STATE + i] == 0.0f && Math.abs(wheelTorque) <= mBrakeTorque[w])
+				wheelTorque = 0.0f; // held by the brake
+			out[STATE + i] = wheelTorque * mRadius[w] / mWheelInertia[w];
+		}
+
+		if(wheels > 0) {
+			/* Rolling resistance and linear drag, at this state */
+			float speed = (float)Math.sqrt(velX * velX + velY * velY);
+			float drag = -mDrag[b] * speed * mMass[b];
+			forceX += velX * -mRollingResistance[b] + velX * drag;
+			forceY += velY * -mRollingResistance[b] + velY * drag;
+		}
+
+		out[0] = velX;
+		out[1] = velY;
+		out[2] = forceX / mMass[b];
+		out[3] = forceY / mMass[b];
+		out[4] = angVel;
+		out[5] = torque / mInertia[b];
+	}
+
+	private void semiImplicit(int b, float h, Scratch scratch) {
+		int n = STATE + mWheelCount[b];
+		scratch.ensure(n);
+		float[] state = scratch.mState, start = scratch.mStart, k = scratch.mK1;
+		load(b, state);
+		System.arraycopy(state, 0, start, 0, n);
+		derivative(b, state, k);
+
+		/* Velocities first, then positions from the new velocities */
+		state[2] += k[2] * h;
+		state[3] += k[3] * h;
+		state[5] += k[5] * h;
+		int firstWheel = mWheelStart[b];
+		for(int i = STATE; i < n; i++) {
+			float stiffness = mTireStiffness[firstWheel + i - STATE];
+			state[i] += stiffness > 0.0f ? k[i] * h / (1.0f + stiffness * h) : k[i] * h;
+		}
+		state[0] += state[2] * h;
+		state[1] += state[3] * h;
+		state[4] += state[5] * h;
+		store(b, state, start);
+	}
+
+	private void rk4(int b, float h, Scratch scratch) {
+		int n = STATE + mWheelCount[b];
+		scratch.ensure(n);
+		float[] start = scratch.mStart, tmp = scratch.mState;
+		float[] k1 = scratch.mK1, k2 = scratch.mK2, k3 = scratch.mK3, k4 = scratch.mK4;
+		load(b, start);
+
+		derivative(b, start, k1);
+		for(int i = 0; i < n; i++) tmp[i] = start[i] + k1[i] * (h / 2);
+		derivative(b, tmp, k2);
+		for(int i = 0; i < n; i++) tmp[i] = start[i] + k2[i] * (h / 2);
+		derivative(b, tmp, k3);
+		for(int i = 0; i < n; i++) tmp[i] = start[i] + k3[i] * h;
+		derivative(b, tmp, k4);
+
+		for(int i = 0; i < n; i++)
+			tmp[i] = start[i] + (k1[i] + 2 * k2[i] + 2 * k3[i] + k4[i]) * (h / 6);
+		store(b, tmp, start);
+	}
+
+	/*
+	 * REFERENCE
+	 *
+	 * The float state stops converging as the step shrinks: below a few
+	 * microseconds each step's change to a position hundreds of metres out
+	 * is only a few ulps.  For measuring the integrators (IntegratorAccuracy)
+	 * referenceStep steps body b by delta ms as SEMI_IMPLICIT substeps
+	 * carrying the state in double.  Forces are still evaluated in float, at
+	 * the state rounded to float, which costs about one part in 10^7 of each
+	 * derivative rather than an error per step.  Start from
+	 * referenceState(b) and pass the same array to every step; the body's
+	 * float fields are updated after each one.
+	 */
+	double[] referenceState(int b) {
+		float[] state = new float[STATE + mWheelCount[b]];
+		load(b, state);
+		double[] reference = new double[state.length];
+		for(int i = 0; i < state.length; i++)
+			reference[i] = state[i];
+		return reference;
+	}
+
+	void referenceStep(int b, double[] state, int delta, int substeps) {
+		int firstWheel = mWheelStart[b];
+		int lastWheel = firstWheel + mWheelCount[b];
+		int n = state.length;
+		mScratch.ensure(n);
+		float[] point = mScratch.mState, k = mScratch.mK1;
+		for(int w = firstWheel; w < lastWheel; w++)
+			mInputTorque[w] = mWheelTorque[w];
+
+		double h = delta / 1000.0 / substeps;
+		for(int s = 0; s < substeps; s++) {
+			for(int i = 0; i < n; i++)
+				point[i] = (float)state[i];
+			derivative(b, point, k);
+			state[2] += k[2] * h;
+			state[3] += k[3] * h;
+			state[5] += k[5] * h;
+			for(int i = STATE; i < n; i++) {
+				float stiffness = mTireStiffness[firstWheel + i - STATE];
+				double speed = state[i] + (stiffness > 0.0f ? k[i] * h / (1.0 + stiffness * h) : k[i] * h);
+				if(state[i] != 0.0 && Math.signum(speed) != Math.signum(state[i]))
+					speed = 0.0; // stopped rather than spun backwards, as in store
+				state[i] = speed;
+			}
+			state[0] += state[2] * h;
+			state[1] += state[3] * h;
+			state[4] += state[5] * h;
+		}
+
+		for(int i = 0; i < n; i++)
+			point[i] = (float)state[i];
+		store(b, point, point);
+		for(int w = firstWheel; w < lastWheel; w++)
+			mWheelTorque[w] = mBrakeTorque[w] = 0;
+		mForceX[b] = mForceY[b] = mTorque[b] = 0.0f;
+	}
+
+	/*
+	 * Per-thread working arrays for the state vector integrators
+	 */
+	static class Scratch {
+		float[] mState = new float[0], mStart, mK1, mK2, mK3, mK4;
+
+		void ensure(int n) {
+			if(mState.length >= n) return;
+			mState = new float[n]; mStart = new float[n];
+			mK1 = new float[n]; mK2 = new float[n]; mK3 = new float[n]; mK4 = new float[n];
+		}
+	}
+
+	/*
+	 * One Scratch per pool thread, kept across steps so a parallel step
+	 * allocates nothing once every worker has run.  A leaf never forks, so
+	 * no two leaves share one at a time.
+	 */
+	private static final ThreadLocal<Scratch> WORKER_SCRATCH = new ThreadLocal<Scratch>() {
+		@Override
+		protected Scratch initialValue() {
+			return new Scratch();
+		}
+	};
+
+	/*
+	 * Tire model.  Takes the ground velocity at the contact patch in wheel space
+	 * and leaves the response force in mResponseX/mResponseY
+	 */
+	void wheelForce(int w, float relGroundX, float relGroundY, float timeStep) {
+		float patchSpeed = -mWheelSpeed[w] * mRadius[w];
+		float velDiffX = mForwardX[w] * patchSpeed + relGroundX;
+		float velDiffY = mForwardY[w] * patchSpeed + relGroundY;
+
+		float sideMag = velDiffX * mSideX[w] + velDiffY * mSideY[w];
+		float forwardMag = velDiffX * mForwardX[w] + velDiffY * mForwardY[w];
+
+		mWheelTorque[w] += tireResponse(w, sideMag, forwardMag);
+
+		float preSign = Math.signum(mWheelSpeed[w]);
+		if(mLateral[w] != null && preSign == 0.0f && Math.abs(mWheelTorque[w]) <= mBrakeTorque[w]) {
+			mWheelTorque[w] = 0; // held by the brake
+			return;
+		}
+		float change = mWheelTorque[w] * mRadius[w] / mWheelInertia[w] * timeStep; // Bad integrator
+		if(mTireStiffness[w] > 0.0f)
+			change /= 1.0f + mTireStiffness[w] * timeStep; // linearly implicit; see tireResponse
+		mWheelSpeed[w] += change;
+		if(preSign != 0.0f && Math.signum(mWheelSpeed[w]) != preSign)
+			mWheelSpeed[w] = 0.0f;
+
+		mWheelTorque[w] = 0;
+	}
+
+	/*
+	 * Force of wheel w's tire on the body, wheel space, when its contact patch
+	 * slides at sideMag and forwardMag m/s; left in mResponseX/mResponseY.
+	 * Returns the reaction torque on the wheel.
+	 *
+	 * The linear tire pushes back in proportion to the sliding velocity,
+	 * without limit, and its reaction is the sliding velocity times the
+	 * radius, as it always was.  The curve tire saturates: each axis follows
+	 * its TireCurve times the normal load, and when both are working together
+	 * the pair is scaled back onto the friction ellipse through the two peaks.
+	 * Its reaction is the longitudinal force times the radius.  That couples
+	 * the light wheel stiffly to the ground (thousands per second near zero
+	 * slip), so the slope is left in mTireStiffness and EULER and
+	 * SEMI_IMPLICIT integrate the wheel speed linearly implicitly with it;
+	 * RK4 stays explicit and needs substeps of about a millisecond.
+	 */
+	private float tireResponse(int w, float sideMag, float forwardMag) {
+		TireCurve lateral = mLateral[w];
+		if(lateral == null) {
+			float sideVelX = mSideX[w] * sideMag * mSideFactor[w];
+			float sideVelY = mSideY[w] * sideMag * mSideFactor[w];
+			mResponseX[w] = (-sideVelX - mForwardX[w] * forwardMag) * mTireLoad[w];
+			mResponseY[w] = (-sideVelY - mForwardY[w] * forwardMag) * mTireLoad[w];
+			return forwardMag * mRadius[w];
+		}
+
+		TireCurve longitudinal = mLongitudinal[w];
+		float side = lateral.force(sideMag);
+		float forward = longitudinal.force(forwardMag);
+		float sideUse = side / lateral.getPeak();
+		float forwardUse = forward / longitudinal.getPeak();
+		float use = sideUse * sideUse + forwardUse * forwardUse;
+		if(use > 1.0f) {
+			float scale = 1.0f / (float)Math.sqrt(use);
+			side *= scale;
+			forward *= scale;
+		}
+
+		float normal = mTireLoad[w] * GRAVITY;
+		mResponseX[w] = -(mSideX[w] * side + mForwardX[w] * forward) * normal;
+		mResponseY[w] = -(mSideY[w] * side + mForwardY[w] * forward) * normal;
+
+		/* d(forwardMag) / d(wheel speed) is -radius; the wheel speed integrates torque * radius / inertia */
+		float r = mRadius[w];
+		mTireStiffness[w] = Math.max(longitudinal.slope(forwardMag), 0.0f) * normal * r * r * r / mWheelInertia[w];
+		return forward * normal * r;
+	}
+
+	void setSteeringAngle(int w, float newAngle) {
+		if(newAngle == mSteeringAngle[w]) return;
+		float cos = (float)Math.cos(newAngle);
+		float sin = (float)Math.sin(newAngle);
+		/* (0,1) and (-1,0) rotated by newAngle */
+		mForwardX[w] = 0.0f * cos - 1.0f * sin;
+		mForwardY[w] = 0.0f * sin + 1.0f * cos;
+		mSideX[w] = -1.0f * cos - 0.0f * sin;
+		mSideY[w] = -1.0f * sin + 0.0f * cos;
+		mSteeringAngle[w] = newAngle;
+	}
+
+	void updateRotation(int b) {
+		mCos[b] = (float)Math.cos(mAngle[b]);
+		mSin[b] = (float)Math.sin(mAngle[b]);
+	}
+
+	/*
+	 * Instant change of momentum, impulse (N s) at offset from the centre of
+	 * mass, both world space
+	 */
+	void applyImpulse(int b, float impulseX, float impulseY, float offsetX, float offsetY) {
+		float invMass = 1 / mMass[b];
+		mVelX[b] += impulseX * invMass;
+		mVelY[b] += impulseY * invMass;
+		mAngularVelocity[b] += ((offsetX * impulseY) - (offsetY * impulseX)) / mInertia[b];
+	}
+
+	void addForce(int b, float forceX, float forceY, float offsetX, float offsetY) {
+		mForceX[b] += forceX;
+		mForceY[b] += forceY;
+		mTorque[b] += (offsetX * forceY) - (offsetY * forceX);
+	}
+
+	float relToWorldX(int b, float x, float y) { return x * mCos[b] - y * mSin[b]; }
+	float relToWorldY(int b, float x, float y) { return x * mSin[b] + y * mCos[b]; }
+	float worldToRelX(int b, float x, float y) { return x * mCos[b] + y * mSin[b]; }
+	float worldToRelY(int b, float x, float y) { return -x * mSin[b] + y * mCos[b]; }
+
+	/*
+	 * FNV-1a over the raw bits of every body's pose and velocity and every
+	 * wheel's speed and steering angle
+	 */
+	public long stateHash() {
+		long hash = 0xcbf29ce484222325L;
+		for(int b = 0; b < mBodyCount; b++) {
+			hash = mix(hash, mPosX[b]);
+			hash = mix(hash, mPosY[b]);
+			hash = mix(hash, mVelX[b]);
+			hash = mix(hash, mVelY[b]);
+			hash = mix(hash, mAngle[b]);
+			hash = mix(hash, mAngularVelocity[b]);
+		}
+		for(int w = 0; w < mWheelTotal; w++) {
+			hash = mix(hash, mWheelSpeed[w]);
+			hash = mix(hash, mSteeringAngle[w]);
+		}
+		return hash;
+	}
+
+	private static long mix(long hash, float value) {
+		return (hash ^ Float.floatToRawIntBits(value)) * 0x100000001b3L;
+	}
+
+	public int getBodyCount() {
+		return mBodyCount;
+	}
+
+	public int getWheelCount() {
+		return mWheelTotal;
+	}
+
+	private class StepTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private int mFrom, mTo;
+		private float mTimeStep;
+
+		StepTask(int from, int to, float timeStep) {
+			mFrom = from;
+			mTo = to;
+			mTimeStep = timeStep;
+		}
+
+		@Override
+		protected void compute() {
+			if(mTo - mFrom <= CHUNK) {
+				stepRange(mFrom, mTo, mTimeStep, WORKER_SCRATCH.get());
+				return;
+			}
+			int mid = (mFrom + mTo) >>> 1;
+			invokeAll(new StepTask(mFrom, mid, mTimeStep), new StepTask(mid, mTo, mTimeStep));
+		}
+	}
+
+	/* Lazily created so headless single-vehicle runs never start worker threads */
+	private static class SharedPool {
+		static final ForkJoinPool POOL = new ForkJoinPool();
+	}
+}
@@ -0,0 +1,9 @@
+package edu.gmu.gmdrive;
+
+/*
+ * Receives the simulation state once per fixed step, before the step is applied
+ */
+public interface Recorder {
+	public void record(Simulation sim);
+	public void close();
+}
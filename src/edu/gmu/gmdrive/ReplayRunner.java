@@ -0,0 +1,63 @@
+package edu.gmu.gmdrive;
+
+import java.io.IOException;
+
+/*
+ * Replays an input log (see InputLog) headlessly, verifying the state hashes
+ * along the way, and optionally records telemetry for the replayed session.
+ * Exits with a non-zero status if the replay diverged.
+ *
+ * usage: ReplayRunner session.gmi [output.csv | output.gmt | output.gmz] [route.xml] [segments.csv]
+ *
+ * The route defaults to the one named in the log.  Pass "" as the output to
+ * override the route without recording telemetry, and "" as the route to keep
+ * it while writing per-leg figures (see SegmentReport).
+ */
+public class ReplayRunner {
+
+	public static void main(String[] args) {
+		if(args.length < 1) {
+			System.err.println("usage: ReplayRunner session.gmi [output.csv | output.gmt | output.gmz] [route.xml] [segments.csv]");
+			System.exit(-1);
+		}
+
+		try {
+			InputReplay replay = new InputReplay(args[0]);
+			Simulation sim = replay.createSimulation(args.length > 2 && args[2].length() > 0 ? args[2] : null);
+			if(args.length > 1 && args[1].length() > 0) {
+				if(args[1].endsWith(".gmz"))
+					sim.addRecorder(new CompressedRecorder(args[1]));
+				else if(args[1].endsWith(".gmt"))
+					sim.addRecorder(new ColumnarRecorder(args[1]));
+				else
+					sim.addRecorder(new TelemetryRecorder(args[1]));
+			}
+			if(args.length > 3) {
+				SegmentAnalytics analytics = new SegmentAnalytics();
+				analytics.addListener(new SegmentReport(args[3]));
+				sim.addRecorder(analytics);
+			}
+
+			long start = System.nanoTime();
+			boolean verified = replay.replay(sim);
+			long wall = System.nanoTime() - start;
+			sim.close();
+
+			double wallMs = wall / 1e6;
+			System.out.println(String.format("%s: replayed %d steps (%d ms) in %.1f ms (%.0fx real time)%s",
+					sim.getRoute().getName(), replay.getSteps(), sim.getSimTime(), wallMs,
+					sim.getSimTime() / Math.max(wallMs, 1e-3),
+					replay.isTruncated() ? ", log truncated" : ""));
+			if(verified) {
+				System.out.println(replay.getHashesChecked() + " state hashes verified");
+			} else {
+				System.err.println(replay.getMismatches() + " of " + replay.getHashesChecked()
+						+ " state hashes differ, first at step " + replay.getFirstMismatch());
+				System.exit(1);
+			}
+		} catch(IOException e) {
+			e.printStackTrace();
+			System.exit(-1);
+		}
+	}
+}
@@ -1,93 +1,118 @@
 package edu.gmu.gmdrive;
 
-import org.newdawn.slick.Color;
-import org.newdawn.slick.GameContainer;
-import org.newdawn.slick.Graphics;
-import org.newdawn.slick.geom.Transform;
-import org.newdawn.slick.geom.Vector2f;
-
 public class RigidBody {
-	/* 
+	/*
 	 * http://www.gamedev.net/topic/470497-2d-car-physics-tutorial/
 	 * thank you bzroom
+	 *
+	 * State lives in a PhysicsWorld; this is a view onto one body index.  The
+	 * Vec2 getters fill per-view vectors that are refreshed on every call, so
+	 * read them again after stepping rather than holding on to them.
 	*/
-	protected Vector2f mPosition;
-	protected Vector2f mVelocity;
-	private Vector2f mForces;
-	
-	private float mMass;
-	private Vector2f mHalfSize;
-	
-	protected float mAngle;
-	protected float mAngularVelocity;
-	private float mTorque;
-	private float mInertia;
-	
-	public RigidBody(Vector2f halfSize, float mass) {
-		mPosition = new Vector2f();
-		mVelocity = new Vector2f();
-		mForces = new Vector2f();
-		mHalfSize = halfSize;
-		mMass = mass;
-		
-		mInertia = (1.0f / 12.0f) * mMass * ((4 * mHalfSize.x * mHalfSize.x) + (4 * mHalfSize.y * mHalfSize.y)) * 1.2f;
+	protected PhysicsWorld mWorld;
+	protected int mIndex;
+
+	private Vec2 mHalfSize;
+	private Vec2 mLocation, mVelocity;
+
+	/*
+	 * Standalone body in a world of its own
+	 */
+	public RigidBody(Vec2 halfSize, float mass) {
+		this(new PhysicsWorld(1), halfSize, mass, 0);
+	}
+
+	public RigidBody(PhysicsWorld world, Vec2 halfSize, float mass) {
+		this(world, halfSize, mass, 0);
+	}
+
+	protected RigidBody(PhysicsWorld world, Vec2 halfSize, float mass, int wheels) {
+		mWorld = world;
+		mIndex = world.allocBody(halfSize.x, halfSize.y, mass, wheels);
+		mHalfSize = halfSize.copy();
+		mLocation = new Vec2();
+		mVelocity = new Vec2();
 	}
-		
+
+	/*
+	 * Steps only this body; Simulation steps the whole world at once instead
+	 */
 	public void update(int delta) {
-		float timeStep = delta / 1000f;
-		/* Linear */
-		Vector2f acceleration = mForces.scale(1/mMass);
-		mVelocity.add(acceleration.scale(timeStep));
-		mPosition.add(mVelocity.copy().scale(timeStep));
-		mForces.set(0.0f, 0.0f);
-		
-		/* Angular */
-		float angAcc = mTorque / mInertia;
-		mAngularVelocity += angAcc * timeStep;
-		mAngle += mAngularVelocity * timeStep;
-		mTorque = 0.0f;
+		mWorld.stepBody(mIndex, delta);
 	}
-	
-	public void render(GameContainer gc, Graphics g) {
-		g.pushTransform();
-			g.translate(mPosition.x,mPosition.y);
-			g.rotate(0.0f, 0.0f, mAngle * 180 / (float)Math.PI);
-			g.setColor(Color.white);
-			g.drawRect(-mHalfSize.x, -mHalfSize.y, 
-						mHalfSize.x * 2, mHalfSize.y * 2);
-		g.popTransform();
-		
-		
+
+	public void setLocation(Vec2 position, float angle) {
+		mWorld.mPosX[mIndex] = position.x;
+		mWorld.mPosY[mIndex] = position.y;
+		mWorld.mAngle[mIndex] = angle;
+		mWorld.updateRotation(mIndex);
 	}
-	
-	public void setLocation(Vector2f position, float angle) {
-		mPosition = position;
-		mAngle = angle;
+
+	public Vec2 getLocation() { return(mLocation.set(mWorld.mPosX[mIndex], mWorld.mPosY[mIndex])); }
+
+	public Vec2 getVelocity() { return(mVelocity.set(mWorld.mVelX[mIndex], mWorld.mVelY[mIndex])); }
+
+	public float getX() { return mWorld.mPosX[mIndex]; }
+	public float getY() { return mWorld.mPosY[mIndex]; }
+
+	public float getAngle() { return(mWorld.mAngle[mIndex]); }
+
+	public float getAngularVelocity() { return(mWorld.mAngularVelocity[mIndex]); }
+
+	public Vec2 getHalfSize() { return(mHalfSize); }
+
+	public PhysicsWorld getWorld() { return mWorld; }
+
+	public int getIndex() { return mIndex; }
+
+	public Vec2 relToWorld(Vec2 relative) {
+		return(new Vec2(relToWorldX(relative.x, relative.y), relToWorldY(relative.x, relative.y)));
+	}
+
+	public Vec2 worldToRel(Vec2 world) {
+		return(new Vec2(worldToRelX(world.x, world.y), worldToRelY(world.x, world.y)));
+	}
+
+	public float relToWorldX(float x, float y) { return mWorld.relToWorldX(mIndex, x, y); }
+	public float relToWorldY(float x, float y) { return mWorld.relToWorldY(mIndex, x, y); }
+	public float worldToRelX(float x, float y) { return mWorld.worldToRelX(mIndex, x, y); }
+	public float worldToRelY(float x, float y) { return mWorld.worldToRelY(mIndex, x, y); }
+
+	public Vec2 pointVel(Vec2 worldOffset) {
+		return(new Vec2(pointVelX(worldOffset.x, worldOffset.y), pointVelY(worldOffset.x, worldOffset.y)));
 	}
-	
-	public Vector2f getLocation() { return(mPosition); }
-	
-	public Vector2f relToWorld(Vector2f relative) {
-		Transform mat = Transform.createRotateTransform(mAngle);
-		return(mat.transform(relative));
+
+	public float pointVelX(float offsetX, float offsetY) { return -offsetY * mWorld.mAngularVelocity[mIndex] + mWorld.mVelX[mIndex]; }
+	public float pointVelY(float offsetX, float offsetY) { return offsetX * mWorld.mAngularVelocity[mIndex] + mWorld.mVelY[mIndex]; }
+
+	public void addForce(Vec2 worldForce, Vec2 worldOffset) {
+		addForce(worldForce.x, worldForce.y, worldOffset.x, worldOffset.y);
 	}
-	
-	public Vector2f worldToRel(Vector2f world) {
-		Transform mat = Transform.createRotateTransform(-mAngle);
-		return(mat.transform(world));
+
+	public void addForce(float forceX, float forceY, float offsetX, float offsetY) {
+		mWorld.addForce(mIndex, forceX, forceY, offsetX, offsetY);
 	}
-	
-	public Vector2f pointVel(Vector2f worldOffset) {
-		Vector2f tangent = new Vector2f(-worldOffset.y,worldOffset.x);
-		return(tangent.scale(mAngularVelocity).add(mVelocity));
+
+	/*
+	 * Force through the centre of mass, no torque
+	 */
+	public void addForce(float forceX, float forceY) {
+		mWorld.mForceX[mIndex] += forceX;
+		mWorld.mForceY[mIndex] += forceY;
 	}
-	
-	public void addForce(Vector2f worldForce, Vector2f worldOffset) {
-		mForces.add(worldForce);
-		mTorque += (worldOffset.x * worldForce.y) - (worldOffset.y * worldForce.x);
+
+	/*
+	 * Instant change of momentum, as from a collision; impulse and offset are
+	 * world space
+	 */
+	public void applyImpulse(float impulseX, float impulseY, float offsetX, float offsetY) {
+		mWorld.applyImpulse(mIndex, impulseX, impulseY, offsetX, offsetY);
 	}
-	
+
+	/*
+	 * Infinite for obstacles, which nothing moves
+	 */
 	public float getMass() {
-		return mMass;
+		return mWorld.mMass[mIndex];
 	}
 }
@@ -4,10 +4,9 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.LinkedList;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
 
-import org.newdawn.slick.SlickException;
-import org.newdawn.slick.geom.Vector2f;
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -15,15 +14,59 @@ import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.DefaultHandler;
 import org.xml.sax.helpers.XMLReaderFactory;
 
+/*
+ * Waypoints of a route file, as x, y pairs in m.
+ *
+ * The XML is parsed only when its binary cache (see RouteCache) is missing
+ * or stale; the cache is then rewritten, and later loads map it instead.
+ * Waypoints are read from the mapping as they are asked for, and their
+ * arrival zones are added to the SpatialIndex a few at a time as the
+ * driver gets to them.
+ */
 public class Route extends DefaultHandler {
-	private LinkedList<Waypoint> mWaypoints;
+	public static final int ZONES_AHEAD = 16; // arrival zones added beyond the one asked for
+	
+	private FloatBuffer mPoints;
 	private String mRouteName;
+	private String mFilename;
+	private int mNext;
+	private SpatialIndex mIndex;
+	private float mZoneRadius;
+	private int[] mZones;
+	private int mZoneCount;
+	private RoutePath mPath;
+	
+	/* XML parse in progress */
+	private float[] mParsed;
+	private int mParsedCount;
 	
 	public Route(String filename) {
-		mWaypoints = new LinkedList<Waypoint>();
+		this(filename, true);
+	}
+	
+	/*
+	 * useCache false always parses the XML and leaves the cache alone
+	 */
+	public Route(String filename, boolean useCache) {
 		mRouteName = "Untitled Route";
+		mFilename = filename;
+		mPoints = FloatBuffer.allocate(0);
 		
 		File file = new File(filename);
+		if(useCache) {
+			try {
+				RouteCache cache = RouteCache.open(file);
+				if(cache != null) {
+					mRouteName = cache.getName();
+					mPoints = cache.getPoints();
+					return;
+				}
+			} catch(IOException e) {
+				e.printStackTrace();
+				System.err.println("Could not read route cache for " + filename + ", parsing the XML");
+			}
+		}
+		
 		InputSource src = null;
 		
 		try {
@@ -41,15 +84,29 @@ public class Route extends DefaultHandler {
 			e.printStackTrace();
 			System.err.println("Could not create SAX object.\nRoute is empty!");
 		}
+		boolean complete = false;
+		mParsed = new float[256];
 		if(reader != null) {
 			reader.setContentHandler(this);
 			try {
 				reader.parse(src);
+				complete = true;
 			} catch (IOException | SAXException e) {
 				e.printStackTrace();
 				System.err.println("Error reading file: " + filename + "\nRoute may have only partially loaded!");
 			}
 		}
+		mPoints = FloatBuffer.wrap(mParsed, 0, mParsedCount * 2).slice();
+		
+		if(useCache && complete) {
+			try {
+				RouteCache.write(file, RouteCache.checksum(file), mRouteName, mParsed, mParsedCount);
+			} catch(IOException e) {
+				e.printStackTrace();
+				System.err.println("Could not write route cache for " + filename);
+			}
+		}
+		mParsed = null;
 	}
 	
 	@Override
@@ -60,19 +117,97 @@ public class Route extends DefaultHandler {
 		} else if(localName.equals("waypoint")) {
 			float x = Float.parseFloat(attribs.getValue(uri,"x"));
 			float y = Float.parseFloat(attribs.getValue(uri,"y"));
-			Waypoint tmp = null;
-			try {
-				tmp = new Waypoint();
-				tmp.setLoc(new Vector2f(x * GMDrive.MILE_TO_METER,y * GMDrive.MILE_TO_METER), new Vector2f(0.0f, 0.0f));
-			} catch (SlickException e) {
-				e.printStackTrace();
-			}
-			if(tmp != null) mWaypoints.add(tmp);
+			if(mParsedCount * 2 == mParsed.length)
+				mParsed = Arrays.copyOf(mParsed, mParsed.length * 2);
+			mParsed[mParsedCount * 2] = x * Simulation.MILE_TO_METER;
+			mParsed[mParsedCount * 2 + 1] = y * Simulation.MILE_TO_METER;
+			mParsedCount++;
 		}
 		
 	}
 	
-	public Waypoint getNext() {
-		return(mWaypoints.poll());
+	public String getName() {
+		return mRouteName;
+	}
+	
+	public String getFilename() {
+		return mFilename;
+	}
+	
+	/*
+	 * Returns the next waypoint position and advances past it, or null if the
+	 * route is exhausted
+	 */
+	public Vec2 getNext() {
+		if(mNext >= size()) {
+			mNext = size() + 1;
+			return null;
+		}
+		return(get(mNext++));
+	}
+	
+	/*
+	 * Index of the waypoint last returned by getNext, -1 before the first call
+	 * and size() once the route is exhausted
+	 */
+	public int getCurrentIndex() {
+		return mNext - 1;
+	}
+	
+	/*
+	 * Polyline through the waypoints, compiled on first use; this reads every
+	 * waypoint
+	 */
+	public RoutePath getPath() {
+		if(mPath == null)
+			mPath = new RoutePath(this);
+		return mPath;
+	}
+	
+	public Vec2 get(int index) {
+		return new Vec2(getX(index), getY(index));
+	}
+	
+	public float getX(int index) {
+		if(index < 0 || index >= size())
+			throw new IndexOutOfBoundsException("Waypoint " + index + " of " + size());
+		return mPoints.get(index * 2);
+	}
+	
+	public float getY(int index) {
+		if(index < 0 || index >= size())
+			throw new IndexOutOfBoundsException("Waypoint " + index + " of " + size());
+		return mPoints.get(index * 2 + 1);
+	}
+	
+	public int size() {
+		return mPoints.limit() / 2;
+	}
+	
+	/*
+	 * Arrival zones of the given radius around the waypoints go into index;
+	 * waypoint i gets zone id getZone(i).  Zones are added as they are first
+	 * asked for, along with the next ZONES_AHEAD.
+	 */
+	public void register(SpatialIndex index, float radius) {
+		mIndex = index;
+		mZoneRadius = radius;
+		mZones = new int[Math.min(size(), 64)];
+		mZoneCount = 0;
+	}
+	
+	/*
+	 * Zone id of waypoint index in the registered SpatialIndex, -1 if not registered
+	 */
+	public int getZone(int index) {
+		if(mIndex == null || index < 0 || index >= size()) return -1;
+		if(index >= mZoneCount) {
+			int end = Math.min(size(), index + 1 + ZONES_AHEAD);
+			if(end > mZones.length)
+				mZones = Arrays.copyOf(mZones, Math.max(end, mZones.length * 2));
+			for(; mZoneCount < end; mZoneCount++)
+				mZones[mZoneCount] = mIndex.addZone(getX(mZoneCount), getY(mZoneCount), mZoneRadius);
+		}
+		return mZones[index];
 	}
 }
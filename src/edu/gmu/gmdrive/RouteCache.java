@@ -0,0 +1,156 @@
+package edu.gmu.gmdrive;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/*
+ * Compiled binary form of a route XML file, kept next to it as
+ * <file>.gmr.  Layout, big endian:
+ *
+ *   int    magic "GMDR"
+ *   short  version
+ *   long   source length
+ *   long   source modification time
+ *   long   source CRC-32
+ *   UTF    route name
+ *   int    waypoint count
+ *   float  x, y per waypoint, in m
+ *
+ * A cache is current when the source length and time match.  If only the
+ * time differs (a checkout or a copy) the source is hashed, and a matching
+ * hash brings the recorded time up to date instead of rebuilding.
+ *
+ * The waypoints are memory mapped rather than read, so opening the cache
+ * skips the XML parse and copies nothing.  The whole route is still read
+ * once when a Simulation starts, which compiles it into a RoutePath (about
+ * 120 ms and 28 MB for a million waypoints).
+ * Caches are written to a temporary file and moved into place, so
+ * concurrent loads never see a partial one.
+ */
+public class RouteCache {
+	public static final int MAGIC = 0x474d4452; // "GMDR"
+	public static final short VERSION = 1;
+	public static final String SUFFIX = ".gmr";
+	private static final int MTIME_OFFSET = 4 + 2 + 8;
+
+	private String mName;
+	private FloatBuffer mPoints;
+
+	private RouteCache(String name, FloatBuffer points) {
+		mName = name;
+		mPoints = points;
+	}
+
+	public String getName() { return mName; }
+
+	/*
+	 * x, y per waypoint
+	 */
+	public FloatBuffer getPoints() { return mPoints; }
+
+	public static File cacheFile(File source) {
+		return new File(source.getPath() + SUFFIX);
+	}
+
+	/*
+	 * The cache for source, or null if there is none or it is stale
+	 */
+	public static RouteCache open(File source) throws IOException {
+		File file = cacheFile(source);
+		if(!file.isFile() || !source.isFile()) return null;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			if(raf.length() < MTIME_OFFSET + 16 || raf.readInt() != MAGIC || raf.readShort() != VERSION)
+				return null;
+			long length = raf.readLong();
+			long modified = raf.readLong();
+			long crc = raf.readLong();
+			if(length != source.length()) return null;
+			if(modified != source.lastModified()) {
+				if(crc != checksum(source)) return null;
+				touch(file, source.lastModified());
+			}
+
+			String name = raf.readUTF();
+			int count = raf.readInt();
+			long start = raf.getFilePointer();
+			if(count < 0 || start + count * 8L > raf.length())
+				throw new IOException("Corrupt route cache: " + file);
+
+			FloatBuffer points = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, start, count * 8L).asFloatBuffer();
+			return new RouteCache(name, points);
+		} finally {
+			raf.close(); // the mapping stays valid
+		}
+	}
+
+	/*
+	 * Writes the cache for source; count waypoints as x, y pairs in points
+	 */
+	public static void write(File source, long crc, String name, float[] points, int count) throws IOException {
+		File file = cacheFile(source);
+		File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+			try {
+				out.writeInt(MAGIC);
+				out.writeShort(VERSION);
+				out.writeLong(source.length());
+				out.writeLong(source.lastModified());
+				out.writeLong(crc);
+				out.writeUTF(name);
+				out.writeInt(count);
+				for(int i = 0; i < count * 2; i++)
+					out.writeFloat(points[i]);
+			} finally {
+				out.close();
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			temp.delete();
+		}
+	}
+
+	/*
+	 * Records a new source time in an otherwise current cache
+	 */
+	private static void touch(File file, long modified) {
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.seek(MTIME_OFFSET);
+				raf.writeLong(modified);
+			} finally {
+				raf.close();
+			}
+		} catch(IOException e) {
+			System.err.println("Could not update route cache " + file + ": " + e.getMessage());
+		}
+	}
+
+	static long checksum(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[1 << 16];
+		InputStream in = new FileInputStream(file);
+		try {
+			int read;
+			while((read = in.read(buffer)) > 0)
+				crc.update(buffer, 0, read);
+		} finally {
+			in.close();
+		}
+		return crc.getValue();
+	}
+}
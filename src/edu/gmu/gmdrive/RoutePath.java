@@ -0,0 +1,214 @@
+package edu.gmu.gmdrive;
+
+/*
+ * Compiled, immutable form of a Route: the "ideal path" polyline through its
+ * waypoints, with a cumulative arc-length table.
+ *
+ * Segment i runs from point i to point i + 1 and arc length is measured from
+ * the first waypoint.  pointAt and segmentAt binary search the arc-length
+ * table.  Closest-point queries go through a Tracker, which starts from the
+ * segment it found last time and walks to the nearest local minimum, so
+ * following a vehicle costs amortized constant time per step; only the first
+ * query scans every segment.
+ *
+ * The points and tables are built in full by the constructor, about 28 bytes
+ * per waypoint; a Simulation builds one for its route when it starts.
+ */
+public class RoutePath {
+	private float[] mX, mY;
+	private double[] mDistance; // arc length at each point
+	private float[] mDirX, mDirY, mLength; // unit direction and length of each segment
+
+	public RoutePath(Route route) {
+		int points = route.size();
+		mX = new float[points];
+		mY = new float[points];
+		mDistance = new double[points];
+		for(int i = 0; i < points; i++) {
+			mX[i] = route.getX(i);
+			mY[i] = route.getY(i);
+		}
+
+		int segments = Math.max(0, points - 1);
+		mDirX = new float[segments];
+		mDirY = new float[segments];
+		mLength = new float[segments];
+		for(int i = 0; i < segments; i++) {
+			float dx = mX[i + 1] - mX[i], dy = mY[i + 1] - mY[i];
+			float length = (float)Math.sqrt(dx * dx + dy * dy);
+			mLength[i] = length;
+			if(length > 0) {
+				mDirX[i] = dx / length;
+				mDirY[i] = dy / length;
+			}
+			mDistance[i + 1] = mDistance[i] + length;
+		}
+	}
+
+	public int getPointCount() { return mX.length; }
+	public int getSegmentCount() { return mLength.length; }
+	public float getX(int point) { return mX[point]; }
+	public float getY(int point) { return mY[point]; }
+
+	/*
+	 * Arc length from the first waypoint to point
+	 */
+	public double getDistance(int point) {
+		return mDistance[point];
+	}
+
+	public double getLength() {
+		return mX.length > 0 ? mDistance[mX.length - 1] : 0;
+	}
+
+	/*
+	 * Segment containing arc length distance, clamped to the path; -1 if the
+	 * path has no segments
+	 */
+	public int segmentAt(double distance) {
+		int low = 0, high = mLength.length - 1;
+		while(low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if(mDistance[mid] <= distance) low = mid;
+			else high = mid - 1;
+		}
+		return high;
+	}
+
+	/*
+	 * Point at arc length distance, clamped to the ends of the path, into out[0..1]
+	 */
+	public void pointAt(double distance, float[] out) {
+		int segment = segmentAt(distance);
+		if(segment < 0) {
+			out[0] = mX.length > 0 ? mX[0] : Float.NaN;
+			out[1] = mY.length > 0 ? mY[0] : Float.NaN;
+			return;
+		}
+		float along = (float)Math.min(Math.max(distance - mDistance[segment], 0), mLength[segment]);
+		out[0] = mX[segment] + mDirX[segment] * along;
+		out[1] = mY[segment] + mDirY[segment] * along;
+	}
+
+	/*
+	 * Distance along segment of the point on it closest to (x, y)
+	 */
+	public float alongSegment(int segment, float x, float y) {
+		float along = (x - mX[segment]) * mDirX[segment] + (y - mY[segment]) * mDirY[segment];
+		return Math.min(Math.max(along, 0), mLength[segment]);
+	}
+
+	/*
+	 * Squared distance from (x, y) to segment
+	 */
+	private float distanceSq(int segment, float x, float y) {
+		float along = alongSegment(segment, x, y);
+		float dx = x - (mX[segment] + mDirX[segment] * along);
+		float dy = y - (mY[segment] + mDirY[segment] * along);
+		return dx * dx + dy * dy;
+	}
+
+	/*
+	 * Closest point on the path to a moving position.  Not thread safe; use one
+	 * per follower.
+	 */
+	public static class Tracker {
+		private RoutePath mPath;
+		private int mSegment = -1;
+		private double mDistance = Double.NaN;
+		private float mCrossTrack = Float.NaN;
+		private float mClosestX = Float.NaN, mClosestY = Float.NaN;
+
+		public Tracker(RoutePath path) {
+			mPath = path;
+		}
+
+		/*
+		 * Moves to the closest point to (x, y), searching from the last segment
+		 */
+		public void update(float x, float y) {
+			int segments = mPath.getSegmentCount();
+			if(segments == 0) return;
+
+			int best;
+			float bestSq;
+			if(mSegment < 0) {
+				/* First query: full scan */
+				best = 0;
+				bestSq = mPath.distanceSq(0, x, y);
+				for(int i = 1; i < segments; i++) {
+					float d = mPath.distanceSq(i, x, y);
+					if(d < bestSq) {
+						best = i;
+						bestSq = d;
+					}
+				}
+			} else {
+				/* Walk forward, ties included to get past shared corners, then back */
+				best = mSegment;
+				bestSq = mPath.distanceSq(best, x, y);
+				while(best + 1 < segments) {
+					float d = mPath.distanceSq(best + 1, x, y);
+					if(d > bestSq) break;
+					best++;
+					bestSq = d;
+				}
+				if(best == mSegment) {
+					while(best > 0) {
+						float d = mPath.distanceSq(best - 1, x, y);
+						if(d >= bestSq) break;
+						best--;
+						bestSq = d;
+					}
+				}
+			}
+
+			float along = mPath.alongSegment(best, x, y);
+			float dirX = mPath.mDirX[best], dirY = mPath.mDirY[best];
+			mSegment = best;
+			mDistance = mPath.mDistance[best] + along;
+			mClosestX = mPath.mX[best] + dirX * along;
+			mClosestY = mPath.mY[best] + dirY * along;
+
+			/* Positive on the counter-clockwise side of the direction of travel */
+			float cross = dirX * (y - mClosestY) - dirY * (x - mClosestX);
+			float distance = (float)Math.sqrt(bestSq);
+			mCrossTrack = cross >= 0 ? distance : -distance;
+		}
+
+		/*
+		 * Forgets the last position, so the next update scans the whole path
+		 */
+		public void reset() {
+			mSegment = -1;
+		}
+
+		public RoutePath getPath() { return mPath; }
+
+		/*
+		 * Segment of the closest point, -1 before the first update
+		 */
+		public int getSegment() { return mSegment; }
+
+		/*
+		 * Arc length of the closest point
+		 */
+		public double getDistance() { return mDistance; }
+
+		/*
+		 * Signed distance from the path in m
+		 */
+		public float getCrossTrack() { return mCrossTrack; }
+
+		public float getClosestX() { return mClosestX; }
+		public float getClosestY() { return mClosestY; }
+
+		/*
+		 * Share of the path's length covered, 0 to 100
+		 */
+		public float getProgress() {
+			double length = mPath.getLength();
+			return length > 0 ? (float)(100 * mDistance / length) : Float.NaN;
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package edu.gmu.gmdrive;
+
+/*
+ * Recorder that keeps only whole-run figures: distance driven and peak and
+ * mean speed.  Used by BatchRunner, where per-step telemetry for thousands of
+ * runs would be far too much.
+ */
+public class RunSummary implements Recorder {
+	private long mSamples;
+	private double mDistance, mMaxSpeed, mSpeedSum;
+	private float mLastX, mLastY;
+
+	@Override
+	public void record(Simulation sim) {
+		Vehicle vehicle = sim.getDriverVehicle();
+		float x = vehicle.getX(), y = vehicle.getY();
+		if(mSamples > 0) {
+			float dx = x - mLastX, dy = y - mLastY;
+			mDistance += Math.sqrt(dx * dx + dy * dy);
+		}
+		mLastX = x;
+		mLastY = y;
+
+		double speed = TelemetryColumn.SPEED_MPH.sample(sim);
+		if(speed > mMaxSpeed) mMaxSpeed = speed;
+		mSpeedSum += speed;
+		mSamples++;
+	}
+
+	@Override
+	public void close() {
+
+	}
+
+	public long getSamples() { return mSamples; }
+	public double getDistance() { return mDistance; } // m
+	public double getMaxSpeed() { return mMaxSpeed; } // mph
+	public double getMeanSpeed() { return mSamples > 0 ? mSpeedSum / mSamples : 0; } // mph
+}
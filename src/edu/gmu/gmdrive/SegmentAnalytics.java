@@ -0,0 +1,321 @@
+package edu.gmu.gmdrive;
+
+import java.util.ArrayList;
+
+/*
+ * Recorder that computes the study's per-leg figures while the drive runs,
+ * instead of from the telemetry afterwards: time and distance, speed and
+ * cross-track mean, spread and percentiles, steering and pedal reversals and
+ * steering entropy.
+ *
+ * Each step updates running aggregates for the current leg and for the whole
+ * session; neither grows with the length of the drive.  Means and variances
+ * are Welford's, percentiles come from log-linear histograms (LatencyHistogram
+ * with SKETCH_BITS sub-bucket bits, counting speed in thousandths of a mph and
+ * cross-track in mm), reported at the middle of their bucket: within half a
+ * bucket, about 0.1%, or 0.03 mph at 30 mph.  When the route moves on to its
+ * next waypoint the finished leg's SegmentStats go to the listeners; close()
+ * reports the leg in progress and the session total.  Listeners are called on
+ * the simulation thread.
+ *
+ * Reversals are counted as in the steering reversal rate: a change of
+ * direction of at least the gap since the last extreme.  Steering entropy
+ * follows Nakayama et al.: steering is sampled every ENTROPY_INTERVAL ms, each
+ * sample is predicted from the three before it by a second order Taylor
+ * expansion, and the entropy (base 9) of the prediction errors is taken over
+ * nine bins bounded by 0.5, 1, 2.5 and 5 alpha either side of zero.  alpha
+ * should be the 90th percentile prediction error of a baseline drive; the
+ * default only makes drives comparable with each other.
+ */
+public class SegmentAnalytics implements Recorder {
+	public static final float STEERING_GAP = 0.02f; // of full lock
+	public static final float PEDAL_GAP = 0.05f;
+	public static final int ENTROPY_INTERVAL = 150; // ms
+	public static final double DEFAULT_ENTROPY_ALPHA = 0.05; // of full lock
+	private static final int SKETCH_BITS = 8; // 256 buckets per power of two
+
+	/*
+	 * Receives finished legs, then the session total at close
+	 */
+	public interface Listener {
+		public void segmentComplete(SegmentStats stats);
+		public void sessionComplete(SegmentStats total);
+	}
+
+	/*
+	 * Online mean and variance (Welford)
+	 */
+	static class RunningStats {
+		long mCount;
+		double mMean, mM2, mMin = Double.POSITIVE_INFINITY, mMax = Double.NEGATIVE_INFINITY;
+
+		void add(double value) {
+			mCount++;
+			double delta = value - mMean;
+			mMean += delta / mCount;
+			mM2 += delta * (value - mMean);
+			if(value < mMin) mMin = value;
+			if(value > mMax) mMax = value;
+		}
+
+		double getMean() { return mCount > 0 ? mMean : Double.NaN; }
+		double getSd() { return mCount > 1 ? Math.sqrt(mM2 / (mCount - 1)) : Double.NaN; }
+
+		void reset() {
+			mCount = 0;
+			mMean = mM2 = 0;
+			mMin = Double.POSITIVE_INFINITY;
+			mMax = Double.NEGATIVE_INFINITY;
+		}
+	}
+
+	/*
+	 * Changes of direction by at least a gap
+	 */
+	static class ReversalCounter {
+		private float mGap;
+		private float mExtreme = Float.NaN;
+		private int mDirection;
+		long mCount;
+
+		ReversalCounter(float gap) {
+			mGap = gap;
+		}
+
+		void add(float value) {
+			if(Float.isNaN(mExtreme)) {
+				mExtreme = value;
+			} else if(mDirection == 0) {
+				/* The first move of a gap sets the direction without counting */
+				if(Math.abs(value - mExtreme) >= mGap) {
+					mDirection = value > mExtreme ? 1 : -1;
+					mExtreme = value;
+				}
+			} else if(mDirection > 0 ? value > mExtreme : value < mExtreme) {
+				mExtreme = value;
+			} else if(Math.abs(value - mExtreme) >= mGap) {
+				mCount++;
+				mDirection = -mDirection;
+				mExtreme = value;
+			}
+		}
+	}
+
+	/*
+	 * Aggregates for one leg or the session
+	 */
+	private static class Accumulator {
+		int mStartTime;
+		long mSamples;
+		double mDistance;
+		RunningStats mSpeed = new RunningStats(), mCrossTrack = new RunningStats();
+		LatencyHistogram mSpeedSketch = new LatencyHistogram(SKETCH_BITS), mCrossTrackSketch = new LatencyHistogram(SKETCH_BITS);
+		double mCrossTrackMax;
+		long mSteeringStart, mThrottleStart, mBrakeStart; // reversal counts when the leg began
+		long[] mEntropyBins = new long[9];
+
+		void reset(int startTime, SegmentAnalytics analytics) {
+			mStartTime = startTime;
+			mSamples = 0;
+			mDistance = 0;
+			mSpeed.reset();
+			mCrossTrack.reset();
+			mSpeedSketch.reset();
+			mCrossTrackSketch.reset();
+			mCrossTrackMax = 0;
+			mSteeringStart = analytics.mSteering.mCount;
+			mThrottleStart = analytics.mThrottle.mCount;
+			mBrakeStart = analytics.mBrake.mCount;
+			for(int i = 0; i < mEntropyBins.length; i++)
+				mEntropyBins[i] = 0;
+		}
+
+		void add(double speed, float crossTrack, double distance) {
+			mSamples++;
+			mDistance += distance;
+			mSpeed.add(speed);
+			mSpeedSketch.record(Math.round(Math.abs(speed) * 1000));
+			if(!Float.isNaN(crossTrack)) {
+				mCrossTrack.add(crossTrack);
+				mCrossTrackSketch.record(Math.round(Math.abs(crossTrack) * 1000));
+				mCrossTrackMax = Math.max(mCrossTrackMax, Math.abs(crossTrack));
+			}
+		}
+
+		SegmentStats finish(int segment, boolean reached, int endTime, SegmentAnalytics analytics) {
+			SegmentStats stats = new SegmentStats();
+			stats.mSegment = segment;
+			stats.mReached = reached;
+			stats.mStartTime = mStartTime;
+			stats.mEndTime = endTime;
+			stats.mSamples = mSamples;
+			stats.mDistance = mDistance;
+
+			stats.mSpeedMean = mSpeed.getMean();
+			stats.mSpeedSd = mSpeed.getSd();
+			stats.mSpeedMax = mSpeed.mCount > 0 ? mSpeed.mMax : Double.NaN;
+			stats.mSpeedMedian = mSpeed.mCount > 0 ? mSpeedSketch.getPercentileMidpoint(50) / 1000.0 : Double.NaN;
+			stats.mSpeed85 = mSpeed.mCount > 0 ? mSpeedSketch.getPercentileMidpoint(85) / 1000.0 : Double.NaN;
+
+			boolean tracked = mCrossTrack.mCount > 0;
+			stats.mCrossTrackMean = mCrossTrack.getMean();
+			stats.mCrossTrackSd = mCrossTrack.getSd();
+			stats.mCrossTrackMax = tracked ? mCrossTrackMax : Double.NaN;
+			stats.mCrossTrack95 = tracked ? mCrossTrackSketch.getPercentileMidpoint(95) / 1000.0 : Double.NaN;
+
+			stats.mSteeringReversals = analytics.mSteering.mCount - mSteeringStart;
+			stats.mThrottleReversals = analytics.mThrottle.mCount - mThrottleStart;
+			stats.mBrakeReversals = analytics.mBrake.mCount - mBrakeStart;
+			stats.mSteeringEntropy = entropy(mEntropyBins);
+			return stats;
+		}
+	}
+
+	private double mAlpha;
+	private ArrayList<Listener> mListeners = new ArrayList<Listener>();
+	private ArrayList<SegmentStats> mSegments = new ArrayList<SegmentStats>();
+	private SegmentStats mTotal;
+
+	private Simulation mSim; // last one recorded, to close the final leg
+	private int mSegment = Integer.MIN_VALUE;
+	private Accumulator mLeg = new Accumulator(), mSession = new Accumulator();
+	private float mLastX, mLastY;
+
+	ReversalCounter mSteering = new ReversalCounter(STEERING_GAP);
+	ReversalCounter mThrottle = new ReversalCounter(PEDAL_GAP);
+	ReversalCounter mBrake = new ReversalCounter(PEDAL_GAP);
+
+	/* Steering samples for entropy, newest first */
+	private float[] mHistory = new float[3];
+	private int mHistoryCount;
+	private int mNextEntropyTime;
+
+	public SegmentAnalytics() {
+		this(DEFAULT_ENTROPY_ALPHA);
+	}
+
+	public SegmentAnalytics(double entropyAlpha) {
+		if(!(entropyAlpha > 0))
+			throw new IllegalArgumentException("Entropy alpha must be positive");
+		mAlpha = entropyAlpha;
+	}
+
+	public void addListener(Listener listener) {
+		mListeners.add(listener);
+	}
+
+	@Override
+	public void record(Simulation sim) {
+		if(mTotal != null) return;
+		int time = sim.getSimTime();
+		int segment = sim.getRoute().getCurrentIndex();
+		Vehicle vehicle = sim.getDriverVehicle();
+		float x = vehicle.getX(), y = vehicle.getY();
+
+		if(mSim == null) {
+			mSession.reset(time, this);
+			mLeg.reset(time, this);
+			mSegment = segment;
+			mLastX = x;
+			mLastY = y;
+		} else if(segment != mSegment) {
+			finishLeg(time, true);
+			mLeg.reset(time, this);
+			mSegment = segment;
+		}
+		mSim = sim;
+
+		float dx = x - mLastX, dy = y - mLastY;
+		double distance = Math.sqrt(dx * dx + dy * dy);
+		mLastX = x;
+		mLastY = y;
+
+		double speed = TelemetryColumn.SPEED_MPH.sample(sim);
+		float crossTrack = sim.getTracker().getCrossTrack();
+		mLeg.add(speed, crossTrack, distance);
+		mSession.add(speed, crossTrack, distance);
+
+		float steering = sim.getSteering();
+		mSteering.add(steering);
+		mThrottle.add(sim.getThrottle());
+		mBrake.add(sim.getBrakes());
+
+		if(time >= mNextEntropyTime) {
+			mNextEntropyTime = time + ENTROPY_INTERVAL;
+			sampleSteering(steering);
+		}
+	}
+
+	private void sampleSteering(float steering) {
+		if(mHistoryCount == 3) {
+			float d1 = mHistory[0] - mHistory[1], d2 = mHistory[1] - mHistory[2];
+			double predicted = mHistory[0] + d1 + 0.5 * (d1 - d2);
+			int bin = entropyBin(steering - predicted);
+			mLeg.mEntropyBins[bin]++;
+			mSession.mEntropyBins[bin]++;
+		} else {
+			mHistoryCount++;
+		}
+		mHistory[2] = mHistory[1];
+		mHistory[1] = mHistory[0];
+		mHistory[0] = steering;
+	}
+
+	/*
+	 * Bin 4 holds errors within half alpha of zero
+	 */
+	private int entropyBin(double error) {
+		double e = Math.abs(error) / mAlpha;
+		int offset = e < 0.5 ? 0 : e < 1 ? 1 : e < 2.5 ? 2 : e < 5 ? 3 : 4;
+		return error < 0 ? 4 - offset : 4 + offset;
+	}
+
+	static double entropy(long[] bins) {
+		long total = 0;
+		for(long count : bins)
+			total += count;
+		if(total == 0) return Double.NaN;
+		double h = 0;
+		for(long count : bins) {
+			if(count == 0) continue;
+			double p = (double)count / total;
+			h -= p * Math.log(p);
+		}
+		return h / Math.log(bins.length);
+	}
+
+	private void finishLeg(int endTime, boolean reached) {
+		SegmentStats stats = mLeg.finish(mSegment, reached, endTime, this);
+		mSegments.add(stats);
+		for(int i = 0; i < mListeners.size(); i++)
+			mListeners.get(i).segmentComplete(stats);
+	}
+
+	/*
+	 * Reports the leg in progress (reached if the route has moved past it
+	 * since the last step was recorded) and the session total
+	 */
+	@Override
+	public void close() {
+		if(mTotal != null || mSim == null) return;
+		int time = mSim.getSimTime();
+		finishLeg(time, mSim.getRoute().getCurrentIndex() != mSegment);
+		mTotal = mSession.finish(-1, mSim.isComplete(), time, this);
+		for(int i = 0; i < mListeners.size(); i++)
+			mListeners.get(i).sessionComplete(mTotal);
+	}
+
+	/*
+	 * Finished legs, in order
+	 */
+	public ArrayList<SegmentStats> getSegments() {
+		return mSegments;
+	}
+
+	/*
+	 * The whole session, null until close()
+	 */
+	public SegmentStats getTotal() {
+		return mTotal;
+	}
+}
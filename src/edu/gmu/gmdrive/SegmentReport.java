@@ -0,0 +1,62 @@
+package edu.gmu.gmdrive;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/*
+ * Writes SegmentAnalytics results as CSV, one row per leg as it finishes and
+ * a last row ("all") for the whole session.  Rows are flushed as they are
+ * written, so the file can be watched during a drive.
+ */
+public class SegmentReport implements SegmentAnalytics.Listener {
+	public static final String HEADER = "segment,reached,start (ms),duration (ms),distance (m),"
+			+ "mean speed (mph),sd speed (mph),max speed (mph),median speed (mph),85th speed (mph),"
+			+ "mean cross-track (m),sd cross-track (m),max cross-track (m),95th cross-track (m),"
+			+ "steering reversals,throttle reversals,brake reversals,steering entropy\n";
+
+	private Writer mOutput;
+
+	public SegmentReport(String filename) throws IOException {
+		this(new BufferedWriter(new FileWriter(filename)));
+	}
+
+	public SegmentReport(Writer output) throws IOException {
+		mOutput = output;
+		mOutput.write(HEADER);
+		mOutput.flush();
+	}
+
+	@Override
+	public void segmentComplete(SegmentStats stats) {
+		write(Integer.toString(stats.getSegment()), stats);
+	}
+
+	@Override
+	public void sessionComplete(SegmentStats total) {
+		write("all", total);
+		try {
+			mOutput.close();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void write(String segment, SegmentStats stats) {
+		try {
+			mOutput.write(row(segment, stats));
+			mOutput.flush();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	static String row(String segment, SegmentStats s) {
+		return String.format("%s,%d,%d,%d,%.1f,%.2f,%.2f,%.2f,%.2f,%.2f,%.2f,%.2f,%.2f,%.2f,%d,%d,%d,%.3f\n",
+				segment, s.isReached() ? 1 : 0, s.getStartTime(), s.getDuration(), s.getDistance(),
+				s.getSpeedMean(), s.getSpeedSd(), s.getSpeedMax(), s.getSpeedMedian(), s.getSpeed85(),
+				s.getCrossTrackMean(), s.getCrossTrackSd(), s.getCrossTrackMax(), s.getCrossTrack95(),
+				s.getSteeringReversals(), s.getThrottleReversals(), s.getBrakeReversals(), s.getSteeringEntropy());
+	}
+}
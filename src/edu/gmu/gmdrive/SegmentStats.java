@@ -0,0 +1,59 @@
+package edu.gmu.gmdrive;
+
+/*
+ * Driving figures for one leg of a route, or for the whole session, as
+ * computed by SegmentAnalytics.
+ *
+ * Leg n runs from waypoint n - 1 to waypoint n (Route.getCurrentIndex() while
+ * it is being driven); the session total has segment -1.
+ */
+public class SegmentStats {
+	int mSegment;
+	boolean mReached;
+	int mStartTime, mEndTime; // ms of simulated time
+	long mSamples;
+	double mDistance; // m driven
+
+	/* mph */
+	double mSpeedMean, mSpeedSd, mSpeedMax, mSpeedMedian, mSpeed85;
+
+	/* Signed cross-track error in m, positive left of the path */
+	double mCrossTrackMean, mCrossTrackSd, mCrossTrackMax, mCrossTrack95;
+
+	long mSteeringReversals, mThrottleReversals, mBrakeReversals;
+	double mSteeringEntropy;
+
+	public int getSegment() { return mSegment; }
+
+	/*
+	 * Whether the leg ended at its waypoint rather than with the session
+	 */
+	public boolean isReached() { return mReached; }
+
+	public int getStartTime() { return mStartTime; }
+	public int getEndTime() { return mEndTime; }
+	public int getDuration() { return mEndTime - mStartTime; } // ms
+	public long getSamples() { return mSamples; }
+	public double getDistance() { return mDistance; }
+
+	public double getSpeedMean() { return mSpeedMean; }
+	public double getSpeedSd() { return mSpeedSd; }
+	public double getSpeedMax() { return mSpeedMax; }
+	public double getSpeedMedian() { return mSpeedMedian; }
+	public double getSpeed85() { return mSpeed85; }
+
+	public double getCrossTrackMean() { return mCrossTrackMean; }
+	public double getCrossTrackSd() { return mCrossTrackSd; } // SDLP
+	public double getCrossTrackMax() { return mCrossTrackMax; } // largest magnitude
+	public double getCrossTrack95() { return mCrossTrack95; } // 95th percentile magnitude
+
+	public long getSteeringReversals() { return mSteeringReversals; }
+	public long getThrottleReversals() { return mThrottleReversals; }
+	public long getBrakeReversals() { return mBrakeReversals; }
+
+	/*
+	 * Nakayama steering entropy, 0 (perfectly smooth) to 1; NaN if the leg was
+	 * too short to sample
+	 */
+	public double getSteeringEntropy() { return mSteeringEntropy; }
+}
@@ -0,0 +1,231 @@
+package edu.gmu.gmdrive;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*
+ * Copy of everything the display needs from one simulation step: body and
+ * wheel poses, controls, route progress and the newest trail points.
+ *
+ * SimThread fills snapshots on the simulation thread and hands them to the
+ * render thread through a triple buffer, so neither side ever sees a
+ * snapshot the other is writing.  Arrays only grow, so a steady simulation
+ * fills them without allocating.
+ */
+public class SimSnapshot {
+	public static final int TRAIL_BACKLOG = 16; // newest trail points carried in every snapshot
+
+	int mSimTime;
+	long mWallTime; // System.nanoTime() when captured
+
+	/* Bodies, in Simulation.getBodies() order (0 is the driver); wheels are flat per body */
+	int mBodyCount;
+	float[] mPosX = new float[1], mPosY = new float[1], mAngle = new float[1];
+	float[] mHalfX = new float[1], mHalfY = new float[1];
+	int[] mWheelStart = new int[1], mWheelCount = new int[1];
+	float[] mWheelX = new float[4], mWheelY = new float[4], mWheelRadius = new float[4], mWheelSteering = new float[4];
+
+	/* Driver */
+	float mSteering, mThrottle, mBrakes, mSpeed;
+	float mVelX, mVelY;
+
+	/* Route; target index is Route.getCurrentIndex() */
+	int mTargetIndex;
+	boolean mComplete;
+	float mTargetX, mTargetY, mTargetDistance;
+	float mCrossTrack, mProgress, mClosestX, mClosestY;
+
+	/* Trail: point i of the session is at i % TRAIL_BACKLOG, for the newest TRAIL_BACKLOG */
+	long mTrailCount;
+	float[] mTrailX = new float[TRAIL_BACKLOG], mTrailY = new float[TRAIL_BACKLOG];
+
+	/*
+	 * Fills this from sim; called on the simulation thread
+	 */
+	void capture(Simulation sim, long wallTime) {
+		mSimTime = sim.getSimTime();
+		mWallTime = wallTime;
+
+		ArrayList<RigidBody> bodies = sim.getBodies();
+		ensureBodies(bodies.size());
+		mBodyCount = bodies.size();
+		int wheel = 0;
+		for(int i = 0; i < mBodyCount; i++) {
+			RigidBody rb = bodies.get(i);
+			mPosX[i] = rb.getX();
+			mPosY[i] = rb.getY();
+			mAngle[i] = rb.getAngle();
+			mHalfX[i] = rb.getHalfSize().x;
+			mHalfY[i] = rb.getHalfSize().y;
+			mWheelStart[i] = wheel;
+			mWheelCount[i] = 0;
+			if(rb instanceof Vehicle) {
+				Vehicle vehicle = (Vehicle)rb;
+				int wheels = vehicle.getWheelCount();
+				ensureWheels(wheel + wheels);
+				for(int w = 0; w < wheels; w++, wheel++) {
+					mWheelX[wheel] = vehicle.getWheelAttachX(w);
+					mWheelY[wheel] = vehicle.getWheelAttachY(w);
+					mWheelRadius[wheel] = vehicle.getWheelRadius(w);
+					mWheelSteering[wheel] = vehicle.getWheelSteeringAngle(w);
+				}
+				mWheelCount[i] = wheels;
+			}
+		}
+
+		Vehicle driver = sim.getDriverVehicle();
+		mSteering = sim.getSteering();
+		mThrottle = sim.getThrottle();
+		mBrakes = sim.getBrakes();
+		mSpeed = driver.getSpeedometer();
+		mVelX = driver.getVelocity().x;
+		mVelY = driver.getVelocity().y;
+
+		mTargetIndex = sim.getRoute().getCurrentIndex();
+		mComplete = sim.isComplete();
+		mTargetX = mComplete ? Float.NaN : sim.getTarget().x;
+		mTargetY = mComplete ? Float.NaN : sim.getTarget().y;
+		mTargetDistance = sim.getTargetDistance();
+
+		RoutePath.Tracker tracker = sim.getTracker();
+		mCrossTrack = tracker.getCrossTrack();
+		mProgress = tracker.getProgress();
+		mClosestX = tracker.getClosestX();
+		mClosestY = tracker.getClosestY();
+	}
+
+	/*
+	 * Poses between a (alpha 0) and b (alpha 1); everything else is taken from b.
+	 * Bodies that only exist in b are not moved.
+	 */
+	void interpolate(SimSnapshot a, SimSnapshot b, float alpha) {
+		copyFrom(b);
+		int bodies = Math.min(a.mBodyCount, b.mBodyCount);
+		for(int i = 0; i < bodies; i++) {
+			mPosX[i] = a.mPosX[i] + (b.mPosX[i] - a.mPosX[i]) * alpha;
+			mPosY[i] = a.mPosY[i] + (b.mPosY[i] - a.mPosY[i]) * alpha;
+			mAngle[i] = a.mAngle[i] + angleBetween(a.mAngle[i], b.mAngle[i]) * alpha;
+			if(a.mWheelCount[i] != b.mWheelCount[i]) continue;
+			for(int w = 0; w < b.mWheelCount[i]; w++) {
+				int wa = a.mWheelStart[i] + w, wb = b.mWheelStart[i] + w;
+				mWheelSteering[wb] = a.mWheelSteering[wa] + (b.mWheelSteering[wb] - a.mWheelSteering[wa]) * alpha;
+			}
+		}
+	}
+
+	/*
+	 * Signed shortest turn from angle a to angle b
+	 */
+	private static float angleBetween(float a, float b) {
+		float d = (b - a) % (2 * (float)Math.PI);
+		if(d > Math.PI) d -= 2 * (float)Math.PI;
+		else if(d < -Math.PI) d += 2 * (float)Math.PI;
+		return d;
+	}
+
+	void copyFrom(SimSnapshot other) {
+		mSimTime = other.mSimTime;
+		mWallTime = other.mWallTime;
+
+		ensureBodies(other.mBodyCount);
+		mBodyCount = other.mBodyCount;
+		System.arraycopy(other.mPosX, 0, mPosX, 0, mBodyCount);
+		System.arraycopy(other.mPosY, 0, mPosY, 0, mBodyCount);
+		System.arraycopy(other.mAngle, 0, mAngle, 0, mBodyCount);
+		System.arraycopy(other.mHalfX, 0, mHalfX, 0, mBodyCount);
+		System.arraycopy(other.mHalfY, 0, mHalfY, 0, mBodyCount);
+		System.arraycopy(other.mWheelStart, 0, mWheelStart, 0, mBodyCount);
+		System.arraycopy(other.mWheelCount, 0, mWheelCount, 0, mBodyCount);
+		int wheels = mBodyCount > 0 ? other.mWheelStart[mBodyCount - 1] + other.mWheelCount[mBodyCount - 1] : 0;
+		ensureWheels(wheels);
+		System.arraycopy(other.mWheelX, 0, mWheelX, 0, wheels);
+		System.arraycopy(other.mWheelY, 0, mWheelY, 0, wheels);
+		System.arraycopy(other.mWheelRadius, 0, mWheelRadius, 0, wheels);
+		System.arraycopy(other.mWheelSteering, 0, mWheelSteering, 0, wheels);
+
+		mSteering = other.mSteering;
+		mThrottle = other.mThrottle;
+		mBrakes = other.mBrakes;
+		mSpeed = other.mSpeed;
+		mVelX = other.mVelX;
+		mVelY = other.mVelY;
+
+		mTargetIndex = other.mTargetIndex;
+		mComplete = other.mComplete;
+		mTargetX = other.mTargetX;
+		mTargetY = other.mTargetY;
+		mTargetDistance = other.mTargetDistance;
+		mCrossTrack = other.mCrossTrack;
+		mProgress = other.mProgress;
+		mClosestX = other.mClosestX;
+		mClosestY = other.mClosestY;
+
+		mTrailCount = other.mTrailCount;
+		System.arraycopy(other.mTrailX, 0, mTrailX, 0, TRAIL_BACKLOG);
+		System.arraycopy(other.mTrailY, 0, mTrailY, 0, TRAIL_BACKLOG);
+	}
+
+	private void ensureBodies(int count) {
+		if(count <= mPosX.length) return;
+		int capacity = Math.max(count, mPosX.length * 2);
+		mPosX = Arrays.copyOf(mPosX, capacity);
+		mPosY = Arrays.copyOf(mPosY, capacity);
+		mAngle = Arrays.copyOf(mAngle, capacity);
+		mHalfX = Arrays.copyOf(mHalfX, capacity);
+		mHalfY = Arrays.copyOf(mHalfY, capacity);
+		mWheelStart = Arrays.copyOf(mWheelStart, capacity);
+		mWheelCount = Arrays.copyOf(mWheelCount, capacity);
+	}
+
+	private void ensureWheels(int count) {
+		if(count <= mWheelX.length) return;
+		int capacity = Math.max(count, mWheelX.length * 2);
+		mWheelX = Arrays.copyOf(mWheelX, capacity);
+		mWheelY = Arrays.copyOf(mWheelY, capacity);
+		mWheelRadius = Arrays.copyOf(mWheelRadius, capacity);
+		mWheelSteering = Arrays.copyOf(mWheelSteering, capacity);
+	}
+
+	/*
+	 * Trail points newer than seen (a previous getTrailCount()) are appended to trail;
+	 * returns the new count.  Points that fell out of the backlog are skipped.
+	 */
+	public long appendTrail(PathTrail trail, long seen) {
+		for(long i = Math.max(seen, mTrailCount - TRAIL_BACKLOG); i < mTrailCount; i++)
+			trail.add(mTrailX[(int)(i % TRAIL_BACKLOG)], mTrailY[(int)(i % TRAIL_BACKLOG)]);
+		return mTrailCount;
+	}
+
+	public int getSimTime() { return mSimTime; }
+	public long getWallTime() { return mWallTime; }
+
+	public int getBodyCount() { return mBodyCount; }
+	public float getX(int body) { return mPosX[body]; }
+	public float getY(int body) { return mPosY[body]; }
+	public float getAngle(int body) { return mAngle[body]; }
+	public float getHalfX(int body) { return mHalfX[body]; }
+	public float getHalfY(int body) { return mHalfY[body]; }
+	public int getWheelCount(int body) { return mWheelCount[body]; }
+	public float getWheelX(int body, int wheel) { return mWheelX[mWheelStart[body] + wheel]; }
+	public float getWheelY(int body, int wheel) { return mWheelY[mWheelStart[body] + wheel]; }
+	public float getWheelRadius(int body, int wheel) { return mWheelRadius[mWheelStart[body] + wheel]; }
+	public float getWheelSteering(int body, int wheel) { return mWheelSteering[mWheelStart[body] + wheel]; }
+
+	public float getSteering() { return mSteering; }
+	public float getThrottle() { return mThrottle; }
+	public float getBrakes() { return mBrakes; }
+	public float getSpeedometer() { return mSpeed; }
+	public float getVelX() { return mVelX; }
+	public float getVelY() { return mVelY; }
+
+	public int getTargetIndex() { return mTargetIndex; }
+	public boolean isComplete() { return mComplete; }
+	public float getTargetX() { return mTargetX; }
+	public float getTargetY() { return mTargetY; }
+	public float getTargetDistance() { return mTargetDistance; }
+	public float getCrossTrack() { return mCrossTrack; }
+	public float getProgress() { return mProgress; }
+	public float getClosestX() { return mClosestX; }
+	public float getClosestY() { return mClosestY; }
+	public long getTrailCount() { return mTrailCount; }
+}
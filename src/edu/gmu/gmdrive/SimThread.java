@@ -0,0 +1,181 @@
+package edu.gmu.gmdrive;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Runs a Simulation on its own thread at a fixed rate of one step per
+ * Simulation.getStep() ms of wall time, so input sampling, physics and
+ * recording keep their timing whatever the display is doing.
+ *
+ * After every step the thread captures a SimSnapshot and publishes it through
+ * a triple buffer: the simulation fills the back snapshot and swaps it into
+ * the middle slot, the render thread swaps the middle slot out when it is
+ * marked fresh.  Neither side waits for the other.  Snapshots are stamped
+ * with the step's scheduled time so the render thread can interpolate
+ * between the last two without seeing scheduling noise.
+ *
+ * Waits park until SPIN_THRESHOLD before a deadline and yield from there, as
+ * timed parks are far coarser than a step on some platforms.  If the thread
+ * falls more than MAX_CATCH_UP steps behind it runs what it can and restarts
+ * the schedule from now rather than racing to catch up.
+ *
+ * Once started, the Simulation belongs to this thread; the input provider
+ * and recorders are called on it.  Touch the Simulation again only after
+ * stop().
+ */
+public class SimThread {
+	public static final int TRAIL_INTERVAL = 250; // ms of simulated time between trail points
+	public static final long SPIN_THRESHOLD = 1000000; // ns
+	public static final int MAX_CATCH_UP = 10; // steps
+
+	private static final int FRESH = 4;
+
+	private Simulation mSim;
+	private long mStepNanos;
+
+	/* Snapshot triple buffer; mBack belongs to the simulation thread, mFront to the reader */
+	private SimSnapshot[] mSnapshots;
+	private AtomicInteger mMiddle;
+	private int mBack, mFront;
+
+	/* Newest trail points, simulation thread */
+	private float[] mTrailX, mTrailY;
+	private long mTrailCount;
+	private int mNextTrailTime;
+
+	private LatencyHistogram mLateness;
+	private AtomicLong mResets;
+
+	private Thread mThread;
+	private volatile boolean mRunning;
+
+	public SimThread(Simulation sim) {
+		mSim = sim;
+		mStepNanos = sim.getStep() * 1000000L;
+
+		mSnapshots = new SimSnapshot[] { new SimSnapshot(), new SimSnapshot(), new SimSnapshot() };
+		mFront = 0;
+		mMiddle = new AtomicInteger(1);
+		mBack = 2;
+
+		mTrailX = new float[SimSnapshot.TRAIL_BACKLOG];
+		mTrailY = new float[SimSnapshot.TRAIL_BACKLOG];
+		mLateness = new LatencyHistogram();
+		mResets = new AtomicLong();
+	}
+
+	public void start() {
+		final long first = System.nanoTime();
+		publish(first); // something to draw before the first step
+
+		mRunning = true;
+		mThread = new Thread(new Runnable() {
+			public void run() {
+				long next = first + mStepNanos;
+				try {
+					while(mRunning) {
+						waitUntil(next);
+						if(!mRunning) break;
+						mLateness.record(Math.max(0, System.nanoTime() - next));
+
+						mSim.step();
+						trail();
+						publish(next);
+
+						next += mStepNanos;
+						long now = System.nanoTime();
+						if(now - next > MAX_CATCH_UP * mStepNanos) {
+							mResets.incrementAndGet();
+							next = now;
+						}
+					}
+				} catch(RuntimeException e) {
+					e.printStackTrace();
+					System.err.println("Simulation thread stopped at " + mSim.getSimTime() + " ms!");
+					mRunning = false;
+				}
+			}
+		}, "Simulation");
+		mThread.setPriority(Thread.MAX_PRIORITY);
+		mThread.setDaemon(true);
+		mThread.start();
+	}
+
+	private void waitUntil(long deadline) {
+		long wait;
+		while(mRunning && (wait = deadline - System.nanoTime()) > 0) {
+			if(wait > SPIN_THRESHOLD) LockSupport.parkNanos(wait - SPIN_THRESHOLD);
+			else Thread.yield();
+		}
+	}
+
+	private void trail() {
+		int time = mSim.getSimTime();
+		if(time < mNextTrailTime) return;
+		mNextTrailTime = time + TRAIL_INTERVAL;
+
+		Vehicle driver = mSim.getDriverVehicle();
+		int slot = (int)(mTrailCount % SimSnapshot.TRAIL_BACKLOG);
+		mTrailX[slot] = driver.getX();
+		mTrailY[slot] = driver.getY();
+		mTrailCount++;
+	}
+
+	private void publish(long wallTime) {
+		SimSnapshot back = mSnapshots[mBack];
+		back.capture(mSim, wallTime);
+		back.mTrailCount = mTrailCount;
+		System.arraycopy(mTrailX, 0, back.mTrailX, 0, SimSnapshot.TRAIL_BACKLOG);
+		System.arraycopy(mTrailY, 0, back.mTrailY, 0, SimSnapshot.TRAIL_BACKLOG);
+		mBack = mMiddle.getAndSet(mBack | FRESH) & ~FRESH;
+	}
+
+	/*
+	 * The newest snapshot if one was published since the last call, else null.
+	 * Reader side; the snapshot stays valid until the next call.
+	 */
+	public SimSnapshot poll() {
+		if((mMiddle.get() & FRESH) == 0) return null;
+		mFront = mMiddle.getAndSet(mFront) & ~FRESH;
+		return mSnapshots[mFront];
+	}
+
+	/*
+	 * Stops after the step in progress; the Simulation is the caller's again
+	 */
+	public void stop() {
+		if(mThread == null) return;
+		mRunning = false;
+		LockSupport.unpark(mThread);
+		try {
+			mThread.join();
+		} catch(InterruptedException e) {
+			e.printStackTrace();
+		}
+		mThread = null;
+
+		if(mResets.get() > 0)
+			System.err.println("Simulation: fell behind real time " + mResets.get() + " times");
+	}
+
+	public boolean isRunning() {
+		return mRunning;
+	}
+
+	/*
+	 * How late each step started against its schedule, in ns
+	 */
+	public LatencyHistogram getLateness() {
+		return mLateness;
+	}
+
+	public long getResets() {
+		return mResets.get();
+	}
+
+	public Simulation getSimulation() {
+		return mSim;
+	}
+}
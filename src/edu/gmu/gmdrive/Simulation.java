@@ -0,0 +1,309 @@
+package edu.gmu.gmdrive;
+
+import java.util.ArrayList;
+
+/*
+ * Headless simulation core.  Owns the bodies, route progression and recorder
+ * and advances them with a fixed timestep.  Nothing in here may touch Slick,
+ * LWJGL or OpenAL so it can run on machines without a display or sound device,
+ * as fast as the CPU allows.
+ */
+public class Simulation {
+	/*
+	 * CONVERSION CONSTANTS
+	 */
+	public static final float MILE_TO_METER = 1609.3f;
+	public static final float METER_TO_MILE = 1 / MILE_TO_METER;
+
+	public static final float MPH_TO_MPS = 0.447f;
+	public static final float MPS_TO_MPH = 1 / MPH_TO_MPS;
+
+	public static final int DEFAULT_STEP = 10; // ms
+	public static final int ARRIVAL_RADIUS = 100; // m
+
+	private PhysicsWorld mWorld;
+	private ArrayList<RigidBody> mRigidBodies;
+	private Vehicle mDriverVehicle;
+	private VehicleProfile mProfile;
+	private Route mRoute;
+	private Vec2 mTarget;
+	private int mTargetZone;
+	private ArrayList<Recorder> mRecorders;
+	private InputProvider mInputProvider;
+	private SpatialIndex mIndex;
+	private Collisions mCollisions;
+	private int[] mZoneHits;
+	private RoutePath.Tracker mTracker;
+	private PhaseStats mInputPhase, mRecordPhase, mPhysicsPhase, mCollisionPhase, mRoutePhase;
+
+	private float mSteering, mThrottle, mBrakes;
+	private int mStep, mAccumulator, mSimTime;
+
+	public Simulation(Route route, int step) {
+		this(route, step, VehicleProfile.DEFAULT);
+	}
+
+	/*
+	 * Simulation whose driver (and traffic) vehicles are built from profile
+	 */
+	public Simulation(Route route, int step, VehicleProfile profile) {
+		if(step <= 0)
+			throw new IllegalArgumentException("Step must be positive: " + step);
+
+		mRoute = route;
+		mStep = step;
+		mProfile = profile;
+		mIndex = new SpatialIndex();
+		mRoute.register(mIndex, ARRIVAL_RADIUS);
+		mZoneHits = new int[16];
+		mRecorders = new ArrayList<Recorder>();
+		mWorld = new PhysicsWorld();
+		mCollisions = new Collisions(mWorld);
+		mRigidBodies = new ArrayList<RigidBody>();
+		setProfiler(FrameProfiler.DISABLED);
+
+		/* Init driver vehicle and set position to first waypoint */
+		mDriverVehicle = new Vehicle(mWorld, profile);
+		Vec2 start = mRoute.getNext();
+		mDriverVehicle.setLocation(start != null ? start.copy() : new Vec2(), (float)Math.PI);
+		mRigidBodies.add(mDriverVehicle);
+		updateIndex();
+		mTracker = new RoutePath.Tracker(mRoute.getPath());
+		mTracker.update(mDriverVehicle.getX(), mDriverVehicle.getY());
+
+		nextTarget();
+	}
+
+	public Simulation(Route route) {
+		this(route, DEFAULT_STEP);
+	}
+
+	/*
+	 * Runs as many fixed steps as fit into elapsed ms; the remainder carries over
+	 * to the next call.  Returns the number of steps taken.
+	 */
+	public int advance(int elapsed) {
+		int steps = 0;
+		mAccumulator += elapsed;
+		while(mAccumulator >= mStep) {
+			mAccumulator -= mStep;
+			step();
+			steps++;
+		}
+		return steps;
+	}
+
+	/*
+	 * Steps back to back without waiting for wall clock time, until duration ms
+	 * of simulated time have passed or the route is complete.
+	 */
+	public void runFor(long duration) {
+		long end = mSimTime + duration;
+		while(mSimTime < end && !isComplete())
+			step();
+	}
+
+	public void step() {
+		mInputPhase.begin();
+		if(mInputProvider != null)
+			mInputProvider.update(this);
+		mInputPhase.end();
+
+		mRecordPhase.begin();
+		for(int i = 0; i < mRecorders.size(); i++)
+			mRecorders.get(i).record(this);
+		mRecordPhase.end();
+
+		mSimTime += mStep;
+
+		mPhysicsPhase.begin();
+		mDriverVehicle.setSteering(mSteering);
+		mDriverVehicle.setBrakes(mBrakes);
+		mDriverVehicle.setThrottle(mThrottle);
+
+		mWorld.step(mStep);
+		mPhysicsPhase.end();
+
+		mCollisionPhase.begin();
+		mCollisions.step();
+		mCollisionPhase.end();
+
+		mRoutePhase.begin();
+		updateIndex();
+		mTracker.update(mDriverVehicle.getX(), mDriverVehicle.getY());
+
+		/* Update waypoint: zone lookup first, then the exact arrival test */
+		if(mTarget != null && inZone(mDriverVehicle.getIndex(), mTargetZone)
+				&& Math.round(getTargetDistance()) < ARRIVAL_RADIUS)
+			nextTarget();
+		mRoutePhase.end();
+	}
+
+	private void nextTarget() {
+		mTarget = mRoute.getNext();
+		mTargetZone = mRoute.getZone(mRoute.getCurrentIndex());
+	}
+
+	private void updateIndex() {
+		for(int i = 0; i < mRigidBodies.size(); i++) {
+			RigidBody rb = mRigidBodies.get(i);
+			mIndex.updateBody(rb.getIndex(), rb.getX(), rb.getY());
+		}
+	}
+
+	private boolean inZone(int body, int zone) {
+		int hits = mIndex.queryZonesAt(body, mZoneHits);
+		if(hits > mZoneHits.length) {
+			mZoneHits = new int[hits * 2];
+			hits = mIndex.queryZonesAt(body, mZoneHits);
+		}
+		for(int i = 0; i < hits; i++)
+			if(mZoneHits[i] == zone) return true;
+		return false;
+	}
+
+	public void setInputs(float steering, float throttle, float brakes) {
+		mSteering = steering;
+		mThrottle = throttle;
+		mBrakes = brakes;
+	}
+
+	/*
+	 * Provider asked for inputs at every step; null to leave them to setInputs
+	 */
+	public void setInputProvider(InputProvider provider) {
+		mInputProvider = provider;
+	}
+
+	public InputProvider getInputProvider() {
+		return mInputProvider;
+	}
+
+	/*
+	 * Times each part of step() as the phases sim.input, sim.record,
+	 * sim.physics, sim.collisions and sim.route
+	 */
+	public void setProfiler(FrameProfiler profiler) {
+		mInputPhase = profiler.phase("sim.input");
+		mRecordPhase = profiler.phase("sim.record");
+		mPhysicsPhase = profiler.phase("sim.physics");
+		mCollisionPhase = profiler.phase("sim.collisions");
+		mRoutePhase = profiler.phase("sim.route");
+	}
+
+	public void addRecorder(Recorder recorder) {
+		mRecorders.add(recorder);
+	}
+
+	/*
+	 * Closes every recorder; call once at the end of a session
+	 */
+	public void close() {
+		for(Recorder recorder : mRecorders)
+			recorder.close();
+		mRecorders.clear();
+	}
+
+	/*
+	 * Hash of everything that determines future steps: body and wheel state,
+	 * simulation time and route progress.  Used to verify replays.
+	 */
+	public long stateHash() {
+		long hash = mWorld.stateHash();
+		hash = (hash ^ mSimTime) * 0x100000001b3L;
+		hash = (hash ^ mRoute.getCurrentIndex()) * 0x100000001b3L;
+		return hash;
+	}
+
+	/*
+	 * Adds a body created in this simulation's world (see getWorld)
+	 */
+	public void addBody(RigidBody body) {
+		if(body.getWorld() != mWorld)
+			throw new IllegalArgumentException("Body belongs to a different PhysicsWorld");
+		mRigidBodies.add(body);
+		mIndex.updateBody(body.getIndex(), body.getX(), body.getY());
+	}
+
+	/*
+	 * Adds an ambient traffic vehicle; its inputs are the caller's business
+	 */
+	public Vehicle addVehicle(Vec2 position, float angle) {
+		Vehicle vehicle = new Vehicle(mWorld, mProfile);
+		vehicle.setLocation(position, angle);
+		mRigidBodies.add(vehicle);
+		mIndex.updateBody(vehicle.getIndex(), position.x, position.y);
+		return vehicle;
+	}
+
+	/*
+	 * Adds a fixed box, such as a barrier or parked vehicle, that bodies
+	 * collide with but cannot move
+	 */
+	public RigidBody addObstacle(Vec2 position, Vec2 halfSize, float angle) {
+		RigidBody obstacle = new RigidBody(mWorld, halfSize, Float.POSITIVE_INFINITY);
+		obstacle.setLocation(position, angle);
+		addBody(obstacle);
+		return obstacle;
+	}
+
+	public Collisions getCollisions() {
+		return mCollisions;
+	}
+
+	/*
+	 * Waypoint zones and body positions, by PhysicsWorld body index
+	 */
+	public SpatialIndex getSpatialIndex() {
+		return mIndex;
+	}
+
+	public PhysicsWorld getWorld() {
+		return mWorld;
+	}
+
+	public ArrayList<RigidBody> getBodies() {
+		return mRigidBodies;
+	}
+
+	public VehicleProfile getVehicleProfile() {
+		return mProfile;
+	}
+
+	public Vehicle getDriverVehicle() {
+		return mDriverVehicle;
+	}
+
+	public Route getRoute() {
+		return mRoute;
+	}
+
+	/*
+	 * Driver vehicle's closest point on the route's path, as of the last step
+	 */
+	public RoutePath.Tracker getTracker() {
+		return mTracker;
+	}
+
+	/*
+	 * Position of the waypoint currently being driven to, or null when the route is complete
+	 */
+	public Vec2 getTarget() {
+		return mTarget;
+	}
+
+	public float getTargetDistance() {
+		if(mTarget == null) return Float.NaN;
+		return mDriverVehicle.getLocation().distance(mTarget);
+	}
+
+	public boolean isComplete() {
+		return mTarget == null;
+	}
+
+	public int getSimTime() { return mSimTime; }
+	public int getStep() { return mStep; }
+	public float getSteering() { return mSteering; }
+	public float getThrottle() { return mThrottle; }
+	public float getBrakes() { return mBrakes; }
+}
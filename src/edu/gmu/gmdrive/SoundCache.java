@@ -0,0 +1,63 @@
+package edu.gmu.gmdrive;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+/*
+ * Reference counted audio buffers, one per sound file.  A file is decoded
+ * and uploaded the first time it is acquired; later acquires share the buffer
+ * and the buffer is deleted when the last user releases it.
+ */
+public class SoundCache {
+	private AudioBackend mBackend;
+	private HashMap<String, Entry> mEntries;
+
+	public SoundCache(AudioBackend backend) {
+		mBackend = backend;
+		mEntries = new HashMap<String, Entry>();
+	}
+
+	/*
+	 * Buffer holding the decoded file; pair every call with release()
+	 */
+	public int acquire(String filename) throws IOException {
+		Entry entry = mEntries.get(filename);
+		if(entry == null) {
+			entry = new Entry(mBackend.loadBuffer(filename));
+			mEntries.put(filename, entry);
+		}
+		entry.mRefs++;
+		return entry.mBuffer;
+	}
+
+	public void release(String filename) {
+		Entry entry = mEntries.get(filename);
+		if(entry == null) return;
+		if(--entry.mRefs == 0) {
+			mBackend.deleteBuffer(entry.mBuffer);
+			mEntries.remove(filename);
+		}
+	}
+
+	/*
+	 * Deletes every buffer regardless of references, e.g. before AL is destroyed
+	 */
+	public void destroy() {
+		for(Entry entry : mEntries.values())
+			mBackend.deleteBuffer(entry.mBuffer);
+		mEntries.clear();
+	}
+
+	public int size() {
+		return mEntries.size();
+	}
+
+	private static class Entry {
+		final int mBuffer;
+		int mRefs;
+
+		Entry(int buffer) {
+			mBuffer = buffer;
+		}
+	}
+}
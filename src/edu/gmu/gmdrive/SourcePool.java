@@ -0,0 +1,127 @@
+package edu.gmu.gmdrive;
+
+/*
+ * Fixed set of audio sources shared by all emitters.
+ *
+ * Emitters are virtual: they keep their own position and only hold a real
+ * source (a voice) while they play.  When every voice is taken, acquire()
+ * steals one, preferring a voice whose sound has finished and otherwise the
+ * one with the lowest audibility (priority scaled by distance attenuation at
+ * the listener), provided the new sound would be more audible.  Sources are
+ * created lazily, up to the capacity or as many as the device will give.
+ */
+public class SourcePool {
+	public static final int DEFAULT_CAPACITY = 16;
+
+	/* Source parameters shared by every emitter */
+	public static final float REFERENCE_DISTANCE = 100.0f;
+	public static final float MAX_DISTANCE = 1000.0f;
+	public static final float GAIN = 0.5f;
+
+	private AudioBackend mBackend;
+	private int[] mSources;
+	private Emitter[] mOwners;
+	private int mCount, mCapacity;
+	private float mListenerX, mListenerY;
+
+	public SourcePool(AudioBackend backend) {
+		this(backend, DEFAULT_CAPACITY);
+	}
+
+	public SourcePool(AudioBackend backend, int capacity) {
+		mBackend = backend;
+		mSources = new int[capacity];
+		mOwners = new Emitter[capacity];
+		mCapacity = capacity;
+	}
+
+	public void setListener(float x, float y) {
+		mListenerX = x;
+		mListenerY = y;
+	}
+
+	/*
+	 * Binds a voice to the emitter and returns its source, or 0 if every
+	 * voice is busy with something more audible
+	 */
+	int acquire(Emitter emitter) {
+		if(emitter.mVoice != 0) return emitter.mVoice;
+
+		int slot = -1;
+		if(mCount < mCapacity) {
+			int source = mBackend.createSource();
+			if(source != 0) {
+				slot = mCount++;
+				mSources[slot] = source;
+			} else {
+				mCapacity = mCount; // device is out of sources
+			}
+		}
+		if(slot < 0) slot = victim(audibility(emitter));
+		if(slot < 0) return 0;
+
+		int source = mSources[slot];
+		if(mOwners[slot] != null) {
+			mBackend.stop(source);
+			mOwners[slot].mVoice = 0;
+		}
+		mOwners[slot] = emitter;
+		emitter.mVoice = source;
+		mBackend.configureSource(source, emitter.mBuffer, REFERENCE_DISTANCE, MAX_DISTANCE, GAIN);
+		mBackend.setSourceState(source, emitter.mX, emitter.mY, emitter.mVelX, emitter.mVelY);
+		return source;
+	}
+
+	/*
+	 * Stops and frees the emitter's voice, if it has one
+	 */
+	void release(Emitter emitter) {
+		for(int i = 0; i < mCount; i++) {
+			if(mOwners[i] == emitter) {
+				mBackend.stop(mSources[i]);
+				mBackend.configureSource(mSources[i], 0, REFERENCE_DISTANCE, MAX_DISTANCE, GAIN);
+				mOwners[i] = null;
+				emitter.mVoice = 0;
+				return;
+			}
+		}
+	}
+
+	private int victim(float audibility) {
+		int quietest = -1;
+		float quietestAudibility = audibility;
+		for(int i = 0; i < mCount; i++) {
+			if(mOwners[i] == null || !mBackend.isPlaying(mSources[i]))
+				return i;
+			float a = audibility(mOwners[i]);
+			if(a < quietestAudibility) {
+				quietestAudibility = a;
+				quietest = i;
+			}
+		}
+		return quietest;
+	}
+
+	/*
+	 * Priority times the inverse distance clamped attenuation the listener hears
+	 */
+	private float audibility(Emitter emitter) {
+		float dx = emitter.mX - mListenerX, dy = emitter.mY - mListenerY;
+		float distance = (float)Math.sqrt(dx * dx + dy * dy);
+		distance = Math.max(REFERENCE_DISTANCE, Math.min(distance, MAX_DISTANCE));
+		return emitter.mPriority * REFERENCE_DISTANCE / distance;
+	}
+
+	public void destroy() {
+		for(int i = 0; i < mCount; i++) {
+			if(mOwners[i] != null) mOwners[i].mVoice = 0;
+			mBackend.deleteSource(mSources[i]);
+			mOwners[i] = null;
+		}
+		mCount = 0;
+	}
+
+	public int getVoiceCount() {
+		return mCount;
+	}
+}
@@ -0,0 +1,302 @@
+package edu.gmu.gmdrive;
+
+import java.util.Arrays;
+
+/*
+ * Uniform grid over the world plane holding circular zones (waypoints, trigger
+ * areas) and point bodies.
+ *
+ * Zones are registered into every cell their bounding box overlaps and never
+ * move.  Bodies live in the single cell containing their position and are
+ * re-filed only when they cross a cell boundary, so updating every body each
+ * step is cheap.  Queries touch only the cells around the query point and
+ * write ids into a caller supplied array; nothing is allocated once the
+ * touched cells exist.
+ *
+ * Cells are kept in an open addressing hash keyed by cell coordinate, so the
+ * world does not need bounds.
+ */
+public class SpatialIndex {
+	public static final float DEFAULT_CELL_SIZE = 200.0f; // m
+
+	private float mCellSize, mInvCellSize;
+
+	/* Cell table */
+	private long[] mKeys;
+	private Cell[] mCells;
+	private int mCellCount;
+
+	/* Zones */
+	private int mZoneCount;
+	private float[] mZoneX, mZoneY, mZoneRadius;
+	private int[] mZoneStamp;
+	private int mStamp;
+
+	/* Bodies */
+	private int[] mBodyCellX, mBodyCellY;
+	private float[] mBodyX, mBodyY;
+	private boolean[] mBodyPresent;
+
+	public SpatialIndex() {
+		this(DEFAULT_CELL_SIZE);
+	}
+
+	public SpatialIndex(float cellSize) {
+		if(!(cellSize > 0))
+			throw new IllegalArgumentException("Cell size must be positive: " + cellSize);
+		mCellSize = cellSize;
+		mInvCellSize = 1 / cellSize;
+
+		mKeys = new long[64];
+		mCells = new Cell[64];
+
+		mZoneX = new float[16]; mZoneY = new float[16]; mZoneRadius = new float[16];
+		mZoneStamp = new int[16];
+
+		mBodyCellX = new int[16]; mBodyCellY = new int[16];
+		mBodyX = new float[16]; mBodyY = new float[16];
+		mBodyPresent = new boolean[16];
+	}
+
+	/*
+	 * ZONES
+	 */
+
+	/*
+	 * Registers a circular zone and returns its id.  Ids are handed out in order
+	 * starting from 0.
+	 */
+	public int addZone(float x, float y, float radius) {
+		if(mZoneCount == mZoneX.length) {
+			int capacity = mZoneCount * 2;
+			mZoneX = Arrays.copyOf(mZoneX, capacity);
+			mZoneY = Arrays.copyOf(mZoneY, capacity);
+			mZoneRadius = Arrays.copyOf(mZoneRadius, capacity);
+			mZoneStamp = Arrays.copyOf(mZoneStamp, capacity);
+		}
+		int id = mZoneCount++;
+		mZoneX[id] = x;
+		mZoneY[id] = y;
+		mZoneRadius[id] = radius;
+
+		int minX = cellOf(x - radius), maxX = cellOf(x + radius);
+		int minY = cellOf(y - radius), maxY = cellOf(y + radius);
+		for(int cx = minX; cx <= maxX; cx++)
+			for(int cy = minY; cy <= maxY; cy++)
+				cell(cx, cy, true).addZone(id);
+		return id;
+	}
+
+	/*
+	 * Ids of the zones containing (x, y).  Returns the number found; at most
+	 * out.length of them are written.
+	 */
+	public int queryZones(float x, float y, int[] out) {
+		Cell cell = cell(cellOf(x), cellOf(y), false);
+		if(cell == null) return 0;
+
+		int found = 0;
+		for(int i = 0; i < cell.mZoneCount; i++) {
+			int id = cell.mZones[i];
+			if(zoneContains(id, x, y)) {
+				if(found < out.length) out[found] = id;
+				found++;
+			}
+		}
+		return found;
+	}
+
+	/*
+	 * Ids of the zones whose circle comes within distance of (x, y)
+	 */
+	public int queryZonesNear(float x, float y, float distance, int[] out) {
+		int stamp = nextStamp();
+		int found = 0;
+		int minX = cellOf(x - distance), maxX = cellOf(x + distance);
+		int minY = cellOf(y - distance), maxY = cellOf(y + distance);
+		for(int cx = minX; cx <= maxX; cx++) {
+			for(int cy = minY; cy <= maxY; cy++) {
+				Cell cell = cell(cx, cy, false);
+				if(cell == null) continue;
+				for(int i = 0; i < cell.mZoneCount; i++) {
+					int id = cell.mZones[i];
+					if(mZoneStamp[id] == stamp) continue;
+					mZoneStamp[id] = stamp;
+
+					float dx = mZoneX[id] - x, dy = mZoneY[id] - y;
+					float reach = mZoneRadius[id] + distance;
+					if(dx * dx + dy * dy <= reach * reach) {
+						if(found < out.length) out[found] = id;
+						found++;
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	public boolean zoneContains(int id, float x, float y) {
+		float dx = mZoneX[id] - x, dy = mZoneY[id] - y;
+		return dx * dx + dy * dy <= mZoneRadius[id] * mZoneRadius[id];
+	}
+
+	public int getZoneCount() { return mZoneCount; }
+	public float getZoneX(int id) { return mZoneX[id]; }
+	public float getZoneY(int id) { return mZoneY[id]; }
+	public float getZoneRadius(int id) { return mZoneRadius[id]; }
+
+	/*
+	 * BODIES
+	 */
+
+	/*
+	 * Inserts body id at (x, y), or moves it there if already present
+	 */
+	public void updateBody(int id, float x, float y) {
+		if(id >= mBodyPresent.length) {
+			int capacity = Math.max(mBodyPresent.length * 2, id + 1);
+			mBodyCellX = Arrays.copyOf(mBodyCellX, capacity);
+			mBodyCellY = Arrays.copyOf(mBodyCellY, capacity);
+			mBodyX = Arrays.copyOf(mBodyX, capacity);
+			mBodyY = Arrays.copyOf(mBodyY, capacity);
+			mBodyPresent = Arrays.copyOf(mBodyPresent, capacity);
+		}
+
+		int cx = cellOf(x), cy = cellOf(y);
+		mBodyX[id] = x;
+		mBodyY[id] = y;
+		if(mBodyPresent[id]) {
+			if(cx == mBodyCellX[id] && cy == mBodyCellY[id]) return;
+			cell(mBodyCellX[id], mBodyCellY[id], false).removeBody(id);
+		}
+		cell(cx, cy, true).addBody(id);
+		mBodyCellX[id] = cx;
+		mBodyCellY[id] = cy;
+		mBodyPresent[id] = true;
+	}
+
+	public void removeBody(int id) {
+		if(id >= mBodyPresent.length || !mBodyPresent[id]) return;
+		cell(mBodyCellX[id], mBodyCellY[id], false).removeBody(id);
+		mBodyPresent[id] = false;
+	}
+
+	/*
+	 * Ids of the bodies within distance of (x, y)
+	 */
+	public int queryBodies(float x, float y, float distance, int[] out) {
+		int found = 0;
+		float distSq = distance * distance;
+		int minX = cellOf(x - distance), maxX = cellOf(x + distance);
+		int minY = cellOf(y - distance), maxY = cellOf(y + distance);
+		for(int cx = minX; cx <= maxX; cx++) {
+			for(int cy = minY; cy <= maxY; cy++) {
+				Cell cell = cell(cx, cy, false);
+				if(cell == null) continue;
+				for(int i = 0; i < cell.mBodyCount; i++) {
+					int id = cell.mBodies[i];
+					float dx = mBodyX[id] - x, dy = mBodyY[id] - y;
+					if(dx * dx + dy * dy <= distSq) {
+						if(found < out.length) out[found] = id;
+						found++;
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	/*
+	 * Ids of the zones containing body id
+	 */
+	public int queryZonesAt(int body, int[] out) {
+		return queryZones(mBodyX[body], mBodyY[body], out);
+	}
+
+	/*
+	 * CELLS
+	 */
+
+	private int cellOf(float coord) {
+		return (int)Math.floor(coord * mInvCellSize);
+	}
+
+	private static long key(int cx, int cy) {
+		return ((long)cx << 32) | (cy & 0xffffffffL);
+	}
+
+	private static int slot(long key, int mask) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int)(h >>> 32) & mask;
+	}
+
+	private Cell cell(int cx, int cy, boolean create) {
+		long key = key(cx, cy);
+		int mask = mCells.length - 1;
+		int i = slot(key, mask);
+		while(mCells[i] != null) {
+			if(mKeys[i] == key) return mCells[i];
+			i = (i + 1) & mask;
+		}
+		if(!create) return null;
+
+		Cell cell = new Cell();
+		mKeys[i] = key;
+		mCells[i] = cell;
+		if(++mCellCount * 2 > mCells.length) rehash();
+		return cell;
+	}
+
+	private void rehash() {
+		long[] oldKeys = mKeys;
+		Cell[] oldCells = mCells;
+		mKeys = new long[oldKeys.length * 2];
+		mCells = new Cell[oldCells.length * 2];
+		int mask = mCells.length - 1;
+		for(int j = 0; j < oldCells.length; j++) {
+			if(oldCells[j] == null) continue;
+			int i = slot(oldKeys[j], mask);
+			while(mCells[i] != null) i = (i + 1) & mask;
+			mKeys[i] = oldKeys[j];
+			mCells[i] = oldCells[j];
+		}
+	}
+
+	private int nextStamp() {
+		if(++mStamp == 0) {
+			Arrays.fill(mZoneStamp, 0);
+			mStamp = 1;
+		}
+		return mStamp;
+	}
+
+	public float getCellSize() {
+		return mCellSize;
+	}
+
+	private static class Cell {
+		int[] mZones = new int[2];
+		int mZoneCount;
+		int[] mBodies = new int[2];
+		int mBodyCount;
+
+		void addZone(int id) {
+			if(mZoneCount == mZones.length) mZones = Arrays.copyOf(mZones, mZoneCount * 2);
+			mZones[mZoneCount++] = id;
+		}
+
+		void addBody(int id) {
+			if(mBodyCount == mBodies.length) mBodies = Arrays.copyOf(mBodies, mBodyCount * 2);
+			mBodies[mBodyCount++] = id;
+		}
+
+		void removeBody(int id) {
+			for(int i = 0; i < mBodyCount; i++) {
+				if(mBodies[i] == id) {
+					mBodies[i] = mBodies[--mBodyCount];
+					return;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package edu.gmu.gmdrive;
+
+import java.util.Arrays;
+
+/*
+ * Sort-and-sweep broadphase over the bounding boxes of every body in a
+ * PhysicsWorld.
+ *
+ * Bodies are kept in order of the low edge of their box along one axis.
+ * Bodies move little between steps, so the order from the last step is
+ * nearly right and an insertion sort repairs it in close to linear time.
+ * Sweeping the sorted list, each body is only compared with the ones whose
+ * low edge lies before its own high edge, and those pairs are checked on the
+ * other axis.
+ *
+ * The sweep axis is the one along which the bodies are more spread out; it
+ * only changes when the other axis becomes clearly better (AXIS_SWITCH), as
+ * changing it, like adding bodies, costs a full sort.
+ */
+public class SweepAndPrune {
+	private static final float AXIS_SWITCH = 1.5f; // variance ratio
+
+	private PhysicsWorld mWorld;
+	private int mCount; // bodies in mOrder
+	private int[] mOrder = new int[0];
+	private float[] mMinX = new float[0], mMaxX = new float[0], mMinY = new float[0], mMaxY = new float[0];
+	private long[] mKeys = new long[0]; // full sorts
+	private boolean mSweepY;
+	private long mMoves; // insertion sort moves in the last update
+
+	private int[] mPairs = new int[64]; // body pairs, two entries each
+	private int mPairCount;
+
+	public SweepAndPrune(PhysicsWorld world) {
+		mWorld = world;
+	}
+
+	/*
+	 * Recomputes every body's box and restores the sort order; call after the
+	 * world has stepped
+	 */
+	public void update() {
+		int n = mWorld.getBodyCount();
+		if(n > mMinX.length) {
+			int capacity = Math.max(n, mMinX.length * 2);
+			mOrder = Arrays.copyOf(mOrder, capacity);
+			mMinX = Arrays.copyOf(mMinX, capacity); mMaxX = Arrays.copyOf(mMaxX, capacity);
+			mMinY = Arrays.copyOf(mMinY, capacity); mMaxY = Arrays.copyOf(mMaxY, capacity);
+		}
+
+		float[] posX = mWorld.mPosX, posY = mWorld.mPosY, cos = mWorld.mCos, sin = mWorld.mSin;
+		float[] halfX = mWorld.mHalfX, halfY = mWorld.mHalfY;
+		double sumX = 0, sumY = 0, sumXX = 0, sumYY = 0;
+		for(int b = 0; b < n; b++) {
+			float c = Math.abs(cos[b]), s = Math.abs(sin[b]);
+			float extentX = c * halfX[b] + s * halfY[b];
+			float extentY = s * halfX[b] + c * halfY[b];
+			float x = posX[b], y = posY[b];
+			mMinX[b] = x - extentX;
+			mMaxX[b] = x + extentX;
+			mMinY[b] = y - extentY;
+			mMaxY[b] = y + extentY;
+			sumX += x;
+			sumY += y;
+			sumXX += (double)x * x;
+			sumYY += (double)y * y;
+		}
+
+		/* Variance times n along each axis */
+		double varianceX = sumXX - sumX * sumX / Math.max(n, 1);
+		double varianceY = sumYY - sumY * sumY / Math.max(n, 1);
+		boolean sweepY = mSweepY ? varianceX <= varianceY * AXIS_SWITCH : varianceY > varianceX * AXIS_SWITCH;
+
+		mMoves = 0;
+		if(n != mCount || sweepY != mSweepY) {
+			for(int b = mCount; b < n; b++)
+				mOrder[b] = b;
+			mCount = n;
+			mSweepY = sweepY;
+			fullSort();
+		} else {
+			insertionSort();
+		}
+	}
+
+	private void insertionSort() {
+		float[] min = mSweepY ? mMinY : mMinX;
+		int[] order = mOrder;
+		for(int i = 1; i < mCount; i++) {
+			int body = order[i];
+			float key = min[body];
+			int j = i - 1;
+			while(j >= 0 && min[order[j]] > key) {
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = body;
+			mMoves += i - 1 - j;
+		}
+	}
+
+	/*
+	 * Sorts from scratch by packing each key with its body into a long
+	 */
+	private void fullSort() {
+		float[] min = mSweepY ? mMinY : mMinX;
+		if(mKeys.length < mCount) mKeys = new long[mOrder.length];
+		for(int i = 0; i < mCount; i++) {
+			int body = mOrder[i];
+			int bits = Float.floatToIntBits(min[body]);
+			bits ^= (bits >> 31) & 0x7fffffff; // orders like the float, as a signed int
+			mKeys[i] = ((long)bits << 32) | body;
+		}
+		Arrays.sort(mKeys, 0, mCount);
+		for(int i = 0; i < mCount; i++)
+			mOrder[i] = (int)mKeys[i];
+	}
+
+	/*
+	 * Finds every pair of bodies whose boxes overlap, as of the last update;
+	 * read them with getPairs.  Returns the number of pairs.
+	 */
+	public int findPairs() {
+		float[] min = mSweepY ? mMinY : mMinX, max = mSweepY ? mMaxY : mMaxX;
+		float[] otherMin = mSweepY ? mMinX : mMinY, otherMax = mSweepY ? mMaxX : mMaxY;
+		int[] order = mOrder;
+		mPairCount = 0;
+		for(int i = 0; i < mCount; i++) {
+			int a = order[i];
+			float end = max[a];
+			for(int j = i + 1; j < mCount; j++) {
+				int b = order[j];
+				if(min[b] > end) break;
+				if(otherMin[b] > otherMax[a] || otherMin[a] > otherMax[b]) continue;
+				if(mPairCount * 2 == mPairs.length) mPairs = Arrays.copyOf(mPairs, mPairs.length * 2);
+				mPairs[mPairCount * 2] = a;
+				mPairs[mPairCount * 2 + 1] = b;
+				mPairCount++;
+			}
+		}
+		return mPairCount;
+	}
+
+	/*
+	 * Pairs from the last findPairs: bodies 2i and 2i + 1 for pair i
+	 */
+	public int[] getPairs() { return mPairs; }
+	public int getPairCount() { return mPairCount; }
+
+	public boolean isSweepingY() { return mSweepY; }
+
+	/*
+	 * Bodies moved past another by the last update's insertion sort; zero
+	 * after a full sort
+	 */
+	public long getMoves() { return mMoves; }
+}
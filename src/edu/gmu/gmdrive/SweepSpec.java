@@ -0,0 +1,169 @@
+package edu.gmu.gmdrive;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Properties;
+
+/*
+ * Parameter sweep for BatchRunner, read from a properties file:
+ *
+ *   route = route1.xml, route2.xml
+ *   driver = constant:0.1:1:0, constant:-0.1:1:0
+ *   drag = 0.05:0.15:0.01
+ *   rolling = 6.8
+ *   steeringLock = 0.349
+ *   torque = 90, 120, 240
+ *   integrator = EULER, RK4:2
+ *   vehicle = default, vehicles/mustang-pacejka.properties
+ *   duration = 600
+ *   step = 10
+ *
+ * Every parameter is a comma separated list; numeric ones also take
+ * from:to:increment (inclusive).  The runs are every combination, route
+ * varying slowest.  Missing vehicle parameters default to "profile", the
+ * value of the run's vehicle, duration (s) to ten minutes and step (ms) to
+ * the default step.
+ * See Drivers for driver names.  An integrator is a PhysicsWorld.Integrator
+ * name with an optional substep count, EULER with one substep by default.
+ * A vehicle is a VehicleProfile file, "default" (the default) for the
+ * built-in car.
+ *
+ * Runs are decoded from their index on demand, so large sweeps are never
+ * materialised.
+ */
+public class SweepSpec {
+	public static final int ROUTE = 0, DRIVER = 1, DRAG = 2, ROLLING = 3, STEERING_LOCK = 4, TORQUE = 5, INTEGRATOR = 6, VEHICLE = 7;
+	public static final String[] PARAMETERS = { "route", "driver", "drag", "rolling", "steeringLock", "torque", "integrator", "vehicle" };
+	private static final boolean[] NUMERIC = { false, false, true, true, true, true, false, false };
+	public static final String PROFILE = "profile"; // vehicle parameter value: keep the profile's
+
+	public static final double DEFAULT_DURATION = 600; // s
+
+	private String[][] mValues;
+	private double mDuration;
+	private int mStep;
+	private long mRuns;
+	private HashMap<String, VehicleProfile> mProfiles;
+
+	public SweepSpec(String filename) throws IOException {
+		Properties props = new Properties();
+		InputStream in = new FileInputStream(filename);
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+
+		for(String key : props.stringPropertyNames()) {
+			if(!key.equals("duration") && !key.equals("step") && index(key) < 0)
+				throw new IOException("Unknown sweep parameter '" + key + "' in " + filename);
+		}
+		if(props.getProperty("route") == null)
+			throw new IOException("Sweep has no route in " + filename);
+
+		String[] defaults = { null, "idle", PROFILE, PROFILE, PROFILE, PROFILE, "EULER", "default" };
+		mValues = new String[PARAMETERS.length][];
+		mRuns = 1;
+		for(int i = 0; i < PARAMETERS.length; i++) {
+			mValues[i] = parse(props.getProperty(PARAMETERS[i], defaults[i]), NUMERIC[i]);
+			if(mValues[i].length == 0)
+				throw new IOException("No values for " + PARAMETERS[i] + " in " + filename);
+			mRuns *= mValues[i].length;
+		}
+		for(String integrator : mValues[INTEGRATOR]) {
+			try {
+				setIntegrator(new PhysicsWorld(0), integrator); // fail early on typos
+			} catch(IllegalArgumentException e) {
+				throw new IOException("Bad integrator '" + integrator + "' in " + filename);
+			}
+		}
+		mProfiles = new HashMap<String, VehicleProfile>();
+		for(String vehicle : mValues[VEHICLE])
+			mProfiles.put(vehicle, VehicleProfile.load(vehicle)); // once, and fail early
+
+		mDuration = Double.parseDouble(props.getProperty("duration", Double.toString(DEFAULT_DURATION)).trim());
+		mStep = Integer.parseInt(props.getProperty("step", Integer.toString(Simulation.DEFAULT_STEP)).trim());
+	}
+
+	private static int index(String parameter) {
+		for(int i = 0; i < PARAMETERS.length; i++)
+			if(PARAMETERS[i].equals(parameter)) return i;
+		return -1;
+	}
+
+	private static String[] parse(String list, boolean numeric) throws IOException {
+		ArrayList<String> values = new ArrayList<String>();
+		for(String item : list.split(",")) {
+			item = item.trim();
+			if(item.length() == 0) continue;
+
+			String[] range = item.split(":");
+			if(!numeric || range.length == 1) {
+				if(numeric && !item.equals(PROFILE)) Float.parseFloat(item); // fail early on typos
+				values.add(item);
+				continue;
+			}
+			if(range.length != 3)
+				throw new IOException("Bad range '" + item + "', expected from:to:increment");
+
+			/* Decimal arithmetic so 0.05:0.15:0.01 gives exactly eleven values */
+			BigDecimal from = new BigDecimal(range[0].trim());
+			BigDecimal to = new BigDecimal(range[1].trim());
+			BigDecimal increment = new BigDecimal(range[2].trim());
+			if(increment.signum() <= 0)
+				throw new IOException("Range increment must be positive: " + item);
+			for(BigDecimal v = from; v.compareTo(to) <= 0; v = v.add(increment))
+				values.add(v.toPlainString());
+		}
+		return values.toArray(new String[values.size()]);
+	}
+
+	/*
+	 * Applies an integrator value, NAME or NAME:substeps, to world
+	 */
+	public static void setIntegrator(PhysicsWorld world, String integrator) {
+		String[] parts = integrator.split(":");
+		if(parts.length > 2)
+			throw new IllegalArgumentException("Expected NAME[:substeps]: " + integrator);
+		world.setIntegrator(PhysicsWorld.Integrator.valueOf(parts[0].trim()),
+				parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1);
+	}
+
+	/*
+	 * Profile of a vehicle value of this sweep
+	 */
+	public VehicleProfile getProfile(String vehicle) {
+		return mProfiles.get(vehicle);
+	}
+
+	/*
+	 * Applies a vehicle parameter value unless it is PROFILE
+	 */
+	public static boolean isSet(String value) {
+		return !value.equals(PROFILE);
+	}
+
+	public long getRunCount() {
+		return mRuns;
+	}
+
+	/*
+	 * Parameter values of run index, in PARAMETERS order
+	 */
+	public String[] getRun(long index) {
+		String[] run = new String[PARAMETERS.length];
+		for(int i = PARAMETERS.length - 1; i >= 0; i--) {
+			int n = mValues[i].length;
+			run[i] = mValues[i][(int)(index % n)];
+			index /= n;
+		}
+		return run;
+	}
+
+	public double getDuration() { return mDuration; }
+	public int getStep() { return mStep; }
+}
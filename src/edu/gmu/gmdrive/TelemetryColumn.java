@@ -0,0 +1,89 @@
+package edu.gmu.gmdrive;
+
+/*
+ * One column of recorded telemetry.  sample() is called on the simulation
+ * thread once per step and must not allocate.
+ */
+public abstract class TelemetryColumn {
+	/*
+	 * Precision of the sampled value, used by binary formats to pick a storage width
+	 */
+	public enum Type { INT, FLOAT, DOUBLE }
+
+	private String mName;
+	private Type mType;
+
+	public TelemetryColumn(String name, Type type) {
+		mName = name;
+		mType = type;
+	}
+
+	public abstract double sample(Simulation sim);
+
+	public String getName() {
+		return mName;
+	}
+
+	/*
+	 * Integral columns are written without a fractional part
+	 */
+	public boolean isIntegral() {
+		return mType == Type.INT;
+	}
+
+	public Type getType() {
+		return mType;
+	}
+
+	/*
+	 * STANDARD COLUMNS
+	 */
+	public static final TelemetryColumn TIME = new TelemetryColumn("Time (ms)", Type.INT) {
+		public double sample(Simulation sim) { return sim.getSimTime(); }
+	};
+	public static final TelemetryColumn OWN_X = new TelemetryColumn("OwnX", Type.FLOAT) {
+		public double sample(Simulation sim) { return sim.getDriverVehicle().getLocation().x; }
+	};
+	public static final TelemetryColumn OWN_Y = new TelemetryColumn("OwnY", Type.FLOAT) {
+		public double sample(Simulation sim) { return sim.getDriverVehicle().getLocation().y; }
+	};
+	public static final TelemetryColumn ACCELERATOR = new TelemetryColumn("Accelerator", Type.FLOAT) {
+		public double sample(Simulation sim) { return sim.getThrottle(); }
+	};
+	public static final TelemetryColumn BRAKE = new TelemetryColumn("Brake", Type.FLOAT) {
+		public double sample(Simulation sim) { return sim.getBrakes(); }
+	};
+	public static final TelemetryColumn STEERING = new TelemetryColumn("Steering", Type.FLOAT) {
+		public double sample(Simulation sim) { return sim.getSteering(); }
+	};
+	public static final TelemetryColumn SPEED_MPH = new TelemetryColumn("Speed (mph)", Type.DOUBLE) {
+		public double sample(Simulation sim) { return sim.getDriverVehicle().getSpeedometer() * 2.2369; }
+	};
+	public static final TelemetryColumn TARGET_X = new TelemetryColumn("TargetX", Type.FLOAT) {
+		public double sample(Simulation sim) { return sim.getTarget() != null ? sim.getTarget().x : Double.NaN; }
+	};
+	public static final TelemetryColumn TARGET_Y = new TelemetryColumn("TargetY", Type.FLOAT) {
+		public double sample(Simulation sim) { return sim.getTarget() != null ? sim.getTarget().y : Double.NaN; }
+	};
+
+	public static final TelemetryColumn CROSS_TRACK = new TelemetryColumn("Cross-track (m)", Type.FLOAT) {
+		public double sample(Simulation sim) { return sim.getTracker().getCrossTrack(); }
+	};
+	public static final TelemetryColumn PATH_DISTANCE = new TelemetryColumn("Path distance (m)", Type.DOUBLE) {
+		public double sample(Simulation sim) { return sim.getTracker().getDistance(); }
+	};
+	public static final TelemetryColumn PROGRESS = new TelemetryColumn("Progress (%)", Type.FLOAT) {
+		public double sample(Simulation sim) { return sim.getTracker().getProgress(); }
+	};
+
+	/*
+	 * The columns GMDrive has always recorded, in the original order, followed
+	 * by the position relative to the route's path
+	 */
+	public static TelemetryColumn[] defaults() {
+		return new TelemetryColumn[] {
+				TIME, OWN_X, OWN_Y, ACCELERATOR, BRAKE, STEERING, SPEED_MPH, TARGET_X, TARGET_Y,
+				CROSS_TRACK, PATH_DISTANCE, PROGRESS
+		};
+	}
+}
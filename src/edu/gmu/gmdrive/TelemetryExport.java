@@ -0,0 +1,138 @@
+package edu.gmu.gmdrive;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.Buffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/*
+ * Converts a binary (.gmt) or compressed (.gmz) telemetry file to the CSV
+ * layout GMDrive has always written.
+ *
+ * usage: TelemetryExport session.gmt|session.gmz [session.csv]
+ */
+public class TelemetryExport {
+
+	public static void main(String[] args) {
+		if(args.length < 1) {
+			System.err.println("usage: TelemetryExport session.gmt|session.gmz [session.csv]");
+			System.exit(-1);
+		}
+		String in = args[0];
+		String out = args.length > 1 ? args[1] : in.replaceAll("\\.gm[tz]$", "") + ".csv";
+
+		try {
+			Writer output = new BufferedWriter(new FileWriter(out), 1 << 16);
+			long rows;
+			if(in.endsWith(".gmz")) {
+				CompressedTelemetryFile file = new CompressedTelemetryFile(in);
+				try {
+					rows = export(file, output);
+				} finally {
+					file.close();
+				}
+			} else {
+				rows = export(new TelemetryFile(in), output);
+			}
+			System.out.println("Wrote " + rows + " rows to " + out);
+		} catch(IOException e) {
+			e.printStackTrace();
+			System.exit(-1);
+		}
+	}
+
+	/*
+	 * Writes file as CSV to output and closes output.  Returns the row count.
+	 */
+	public static long export(TelemetryFile file, Writer output) throws IOException {
+		int columns = file.getColumnCount();
+		StringBuilder sb = new StringBuilder(1 << 16);
+		try {
+			for(int i = 0; i < columns; i++) {
+				if(i > 0) sb.append(',');
+				sb.append(file.getColumnName(i));
+			}
+			sb.append('\n');
+
+			Buffer[] views = new Buffer[columns];
+			for(int block = 0; block < file.getBlockCount(); block++) {
+				for(int i = 0; i < columns; i++) {
+					switch(file.getColumnType(i)) {
+					case TelemetryFile.TYPE_INT32: views[i] = file.intColumn(i, block); break;
+					case TelemetryFile.TYPE_FLOAT32: views[i] = file.floatColumn(i, block); break;
+					default: views[i] = file.doubleColumn(i, block); break;
+					}
+				}
+
+				int rows = file.getRowsInBlock(block);
+				for(int row = 0; row < rows; row++) {
+					for(int i = 0; i < columns; i++) {
+						if(i > 0) sb.append(',');
+						switch(file.getColumnType(i)) {
+						case TelemetryFile.TYPE_INT32:
+							TelemetryRecorder.appendValue(sb, ((IntBuffer)views[i]).get(row), true);
+							break;
+						case TelemetryFile.TYPE_FLOAT32:
+							TelemetryRecorder.appendValue(sb, ((FloatBuffer)views[i]).get(row), false);
+							break;
+						default:
+							TelemetryRecorder.appendValue(sb, ((DoubleBuffer)views[i]).get(row), false);
+							break;
+						}
+					}
+					sb.append('\n');
+					if(sb.length() > (1 << 15)) {
+						output.append(sb);
+						sb.setLength(0);
+					}
+				}
+			}
+			output.append(sb);
+		} finally {
+			output.close();
+		}
+		return file.getRowCount();
+	}
+
+	/*
+	 * Writes a compressed file as CSV to output and closes output.  Returns the
+	 * row count.
+	 */
+	public static long export(CompressedTelemetryFile file, Writer output) throws IOException {
+		int columns = file.getColumnCount();
+		StringBuilder sb = new StringBuilder(1 << 16);
+		try {
+			boolean[] integral = new boolean[columns];
+			for(int i = 0; i < columns; i++) {
+				if(i > 0) sb.append(',');
+				sb.append(file.getColumnName(i));
+				integral[i] = file.getColumnType(i) == TelemetryFile.TYPE_INT32;
+			}
+			sb.append('\n');
+
+			double[][] values = new double[columns][file.getBlockRows()];
+			for(int block = 0; block < file.getBlockCount(); block++) {
+				int rows = file.readBlock(block, values);
+				for(int row = 0; row < rows; row++) {
+					for(int i = 0; i < columns; i++) {
+						if(i > 0) sb.append(',');
+						TelemetryRecorder.appendValue(sb, values[i][row], integral[i]);
+					}
+					sb.append('\n');
+					if(sb.length() > (1 << 15)) {
+						output.append(sb);
+						sb.setLength(0);
+					}
+				}
+			}
+			output.append(sb);
+		} finally {
+			output.close();
+		}
+		return file.getRowCount();
+	}
+}
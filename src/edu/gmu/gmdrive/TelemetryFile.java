@@ -0,0 +1,215 @@
+package edu.gmu.gmdrive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/*
+ * Reader for the binary columnar telemetry format written by ColumnarRecorder.
+ *
+ * Layout, little endian:
+ *
+ *   0  int   magic "GMDT"
+ *   4  int   version
+ *   8  int   column count
+ *  12  int   rows per block
+ *  16  long  row count (updated by the writer as blocks complete)
+ *  24  int   header size, multiple of 8
+ *  28  int   reserved
+ *  32  per column: byte type, short name length, UTF-8 name; padded to 8
+ *
+ * followed by fixed size blocks.  Each block holds rows-per-block values of
+ * column 0, then of column 1 and so on, so one column of one block is a
+ * contiguous array.  The last block may be partially filled (see row count).
+ *
+ * The file is memory mapped and column accessors return read-only buffer
+ * views into the mapping, so scanning a column copies nothing.
+ */
+public class TelemetryFile {
+	public static final int MAGIC = 0x54444d47; // "GMDT" read little endian
+	public static final int VERSION = 1;
+	public static final int HEADER_FIXED = 32;
+	public static final int ROW_COUNT_OFFSET = 16;
+
+	public static final byte TYPE_INT32 = 0;
+	public static final byte TYPE_FLOAT32 = 1;
+	public static final byte TYPE_FLOAT64 = 2;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final long MAX_SEGMENT = 1L << 30;
+
+	private String[] mNames;
+	private byte[] mTypes;
+	private int[] mColumnOffsets;
+	private int mBlockRows, mBlockBytes, mHeaderSize;
+	private long mRowCount;
+
+	private MappedByteBuffer[] mSegments;
+	private int mBlocksPerSegment;
+
+	public TelemetryFile(String filename) throws IOException {
+		this(new File(filename));
+	}
+
+	public TelemetryFile(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			if(size < HEADER_FIXED)
+				throw new IOException("Not a telemetry file (too short): " + file);
+
+			ByteBuffer fixed = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_FIXED).order(ByteOrder.LITTLE_ENDIAN);
+			if(fixed.getInt(0) != MAGIC)
+				throw new IOException("Not a telemetry file (bad magic): " + file);
+			if(fixed.getInt(4) != VERSION)
+				throw new IOException("Unsupported telemetry version " + fixed.getInt(4) + ": " + file);
+
+			int columns = fixed.getInt(8);
+			mBlockRows = fixed.getInt(12);
+			mRowCount = fixed.getLong(ROW_COUNT_OFFSET);
+			mHeaderSize = fixed.getInt(24);
+			if(columns <= 0 || mBlockRows <= 0 || mHeaderSize < HEADER_FIXED || mHeaderSize > size)
+				throw new IOException("Corrupt telemetry header: " + file);
+
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, mHeaderSize).order(ByteOrder.LITTLE_ENDIAN);
+			header.position(HEADER_FIXED);
+			mNames = new String[columns];
+			mTypes = new byte[columns];
+			mColumnOffsets = new int[columns];
+			int offset = 0;
+			for(int i = 0; i < columns; i++) {
+				mTypes[i] = header.get();
+				byte[] name = new byte[header.getShort() & 0xffff];
+				header.get(name);
+				mNames[i] = new String(name, UTF8);
+				mColumnOffsets[i] = offset;
+				offset += width(mTypes[i]) * mBlockRows;
+			}
+			mBlockBytes = offset;
+
+			/*
+			 * Map the blocks in segments of whole blocks below 1 GiB each.  Every
+			 * block takes its full size on disk, so a partial one at the end of
+			 * a cut-short file is dropped.
+			 */
+			long blocks = (size - mHeaderSize) / mBlockBytes;
+			mBlocksPerSegment = (int)Math.max(1, MAX_SEGMENT / mBlockBytes);
+			int segments = (int)((blocks + mBlocksPerSegment - 1) / mBlocksPerSegment);
+			mSegments = new MappedByteBuffer[segments];
+			for(int s = 0; s < segments; s++) {
+				long start = mHeaderSize + (long)s * mBlocksPerSegment * mBlockBytes;
+				long length = Math.min(mBlocksPerSegment, blocks - (long)s * mBlocksPerSegment) * mBlockBytes;
+				mSegments[s] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+				mSegments[s].order(ByteOrder.LITTLE_ENDIAN);
+			}
+
+			/* Never claim rows that are not on disk */
+			mRowCount = Math.min(mRowCount, blocks * mBlockRows);
+		} finally {
+			raf.close(); // mappings stay valid after the channel is closed
+		}
+	}
+
+	static int width(byte type) {
+		switch(type) {
+		case TYPE_INT32: return 4;
+		case TYPE_FLOAT32: return 4;
+		case TYPE_FLOAT64: return 8;
+		default: throw new IllegalArgumentException("Unknown column type " + type);
+		}
+	}
+
+	static byte typeOf(TelemetryColumn column) {
+		switch(column.getType()) {
+		case INT: return TYPE_INT32;
+		case FLOAT: return TYPE_FLOAT32;
+		default: return TYPE_FLOAT64;
+		}
+	}
+
+	public int getColumnCount() { return mNames.length; }
+	public String getColumnName(int column) { return mNames[column]; }
+	public byte getColumnType(int column) { return mTypes[column]; }
+	public long getRowCount() { return mRowCount; }
+	public int getBlockRows() { return mBlockRows; }
+
+	public int getBlockCount() {
+		return (int)((mRowCount + mBlockRows - 1) / mBlockRows);
+	}
+
+	/*
+	 * Rows stored in block; only the last block can be short
+	 */
+	public int getRowsInBlock(int block) {
+		return (int)Math.min(mBlockRows, mRowCount - (long)block * mBlockRows);
+	}
+
+	/*
+	 * Index of the column with this name, -1 if absent
+	 */
+	public int findColumn(String name) {
+		for(int i = 0; i < mNames.length; i++)
+			if(mNames[i].equals(name)) return i;
+		return -1;
+	}
+
+	/*
+	 * View of one column within one block, positioned at 0 with limit equal to
+	 * the number of rows in the block
+	 */
+	private ByteBuffer slice(int column, int block) {
+		if(block < 0 || block >= getBlockCount())
+			throw new IndexOutOfBoundsException("Block " + block + " of " + getBlockCount());
+		ByteBuffer segment = mSegments[block / mBlocksPerSegment].duplicate();
+		int start = (block % mBlocksPerSegment) * mBlockBytes + mColumnOffsets[column];
+		segment.position(start);
+		segment.limit(start + getRowsInBlock(block) * width(mTypes[column]));
+		return segment.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	public IntBuffer intColumn(int column, int block) {
+		checkType(column, TYPE_INT32);
+		return slice(column, block).asIntBuffer();
+	}
+
+	public FloatBuffer floatColumn(int column, int block) {
+		checkType(column, TYPE_FLOAT32);
+		return slice(column, block).asFloatBuffer();
+	}
+
+	public DoubleBuffer doubleColumn(int column, int block) {
+		checkType(column, TYPE_FLOAT64);
+		return slice(column, block).asDoubleBuffer();
+	}
+
+	private void checkType(int column, byte type) {
+		if(mTypes[column] != type)
+			throw new IllegalArgumentException("Column " + mNames[column] + " has type " + mTypes[column]);
+	}
+
+	/*
+	 * Random access to a single value, widened to double
+	 */
+	public double get(int column, long row) {
+		if(row < 0 || row >= mRowCount)
+			throw new IndexOutOfBoundsException("Row " + row + " of " + mRowCount);
+		int block = (int)(row / mBlockRows);
+		int inBlock = (int)(row % mBlockRows);
+		ByteBuffer segment = mSegments[block / mBlocksPerSegment];
+		int index = (block % mBlocksPerSegment) * mBlockBytes + mColumnOffsets[column] + inBlock * width(mTypes[column]);
+		switch(mTypes[column]) {
+		case TYPE_INT32: return segment.getInt(index);
+		case TYPE_FLOAT32: return segment.getFloat(index);
+		default: return segment.getDouble(index);
+		}
+	}
+}
@@ -0,0 +1,240 @@
+package edu.gmu.gmdrive;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * CSV recorder that keeps file I/O off the simulation thread.
+ *
+ * record() copies one sample per column into a preallocated ring of doubles
+ * and returns; a background writer drains the ring in batches, formats the rows
+ * and writes them through a large buffer.  Single producer (the simulation
+ * thread), single consumer (the writer thread).
+ *
+ * When the ring is full the OverflowPolicy decides whether the simulation
+ * waits for the writer (BLOCK) or the sample is discarded and counted (DROP).
+ * Once the writer has failed every sample is dropped, so BLOCK never waits
+ * on a dead writer.
+ */
+public class TelemetryRecorder implements Recorder {
+	public enum OverflowPolicy { BLOCK, DROP }
+
+	public static final int DEFAULT_CAPACITY = 16384; // samples, rounded up to a power of two
+	public static final int DEFAULT_BATCH = 1024; // samples per write
+	private static final long IDLE_WAIT = 5000000; // ns the writer sleeps when the ring is empty
+	private static final long BLOCK_WAIT = 50000; // ns the producer sleeps when the ring is full
+	private static final int WRITE_BUFFER = 1 << 16;
+
+	private TelemetryColumn[] mColumns;
+	private OverflowPolicy mPolicy;
+	private int mBatch;
+
+	private double[] mRing;
+	private int mMask;
+	private AtomicLong mHead; // samples published by the producer
+	private AtomicLong mTail; // samples consumed by the writer
+	private AtomicLong mDropped;
+
+	private Writer mOutput;
+	private Thread mWriterThread;
+	private volatile boolean mRunning;
+	private volatile IOException mFailure;
+
+	public TelemetryRecorder(String filename) throws IOException {
+		this(filename, TelemetryColumn.defaults(), DEFAULT_CAPACITY, DEFAULT_BATCH, OverflowPolicy.BLOCK);
+	}
+
+	public TelemetryRecorder(String filename, TelemetryColumn[] columns, int capacity, int batch,
+			OverflowPolicy policy) throws IOException {
+		this(new BufferedWriter(new FileWriter(filename), WRITE_BUFFER), columns, capacity, batch, policy);
+	}
+
+	public TelemetryRecorder(Writer output, TelemetryColumn[] columns, int capacity, int batch,
+			OverflowPolicy policy) throws IOException {
+		if(columns.length == 0)
+			throw new IllegalArgumentException("No telemetry columns");
+		if(capacity <= 0 || batch <= 0)
+			throw new IllegalArgumentException("Capacity and batch must be positive");
+
+		mColumns = columns.clone();
+		mPolicy = policy;
+		mBatch = batch;
+
+		int slots = Integer.highestOneBit(capacity);
+		if(slots < capacity) slots <<= 1;
+		mRing = new double[slots * mColumns.length];
+		mMask = slots - 1;
+		mHead = new AtomicLong();
+		mTail = new AtomicLong();
+		mDropped = new AtomicLong();
+
+		mOutput = output;
+		mOutput.write(header());
+
+		mRunning = true;
+		mWriterThread = new Thread(new Runnable() {
+			public void run() {
+				drain();
+			}
+		}, "TelemetryRecorder");
+		mWriterThread.setDaemon(true);
+		mWriterThread.start();
+	}
+
+	private String header() {
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < mColumns.length; i++) {
+			if(i > 0) sb.append(',');
+			sb.append(mColumns[i].getName());
+		}
+		return sb.append('\n').toString();
+	}
+
+	@Override
+	public void record(Simulation sim) {
+		if(!mRunning || mFailure != null) {
+			mDropped.incrementAndGet();
+			return;
+		}
+
+		long head = mHead.get();
+		while(head - mTail.get() > mMask) {
+			/* A writer that failed or was stopped will never make room */
+			if(mPolicy == OverflowPolicy.DROP || mFailure != null || !mRunning) {
+				mDropped.incrementAndGet();
+				return;
+			}
+			LockSupport.parkNanos(BLOCK_WAIT);
+		}
+
+		int base = (int)(head & mMask) * mColumns.length;
+		for(int i = 0; i < mColumns.length; i++) {
+			mRing[base + i] = mColumns[i].sample(sim);
+		}
+		mHead.lazySet(head + 1);
+	}
+
+	/*
+	 * Writer thread body
+	 */
+	private void drain() {
+		StringBuilder sb = new StringBuilder(mBatch * mColumns.length * 16);
+		boolean dirty = false;
+		try {
+			while(true) {
+				long tail = mTail.get();
+				long head = mHead.get();
+				if(head == tail) {
+					if(!mRunning) break;
+					if(dirty) {
+						mOutput.flush();
+						dirty = false;
+					}
+					LockSupport.parkNanos(IDLE_WAIT);
+					continue;
+				}
+
+				long end = Math.min(head, tail + mBatch);
+				for(long s = tail; s < end; s++) {
+					int base = (int)(s & mMask) * mColumns.length;
+					for(int i = 0; i < mColumns.length; i++) {
+						if(i > 0) sb.append(',');
+						appendValue(sb, mRing[base + i], mColumns[i].isIntegral());
+					}
+					sb.append('\n');
+				}
+				mTail.lazySet(end);
+
+				mOutput.append(sb);
+				sb.setLength(0);
+				dirty = true;
+			}
+			mOutput.flush();
+		} catch(IOException e) {
+			e.printStackTrace();
+			System.err.println("Telemetry writer failed, further samples are dropped!");
+			mFailure = e;
+		}
+	}
+
+	/*
+	 * Same text as %d / %f (six decimals), without going through Formatter for
+	 * every field.  Formatter rounds the decimal form of the value half up;
+	 * the scaled double can land on the other side of a tie, so values within
+	 * its rounding error of one are left to Formatter.  Like %f, anything
+	 * negative keeps its sign, even when it rounds to zero.
+	 */
+	static void appendValue(StringBuilder sb, double value, boolean integral) {
+		if(integral) {
+			sb.append((long)value);
+			return;
+		}
+		double scaledValue = Math.abs(value) * 1000000;
+		double fraction = scaledValue - Math.floor(scaledValue);
+		if(Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= 1e12
+				|| Math.abs(fraction - 0.5) <= 2 * Math.ulp(scaledValue)) {
+			sb.append(String.format("%f", value));
+			return;
+		}
+
+		long scaled = Math.round(scaledValue);
+		if(Double.doubleToRawLongBits(value) < 0) sb.append('-'); // also -0.0
+		sb.append(scaled / 1000000).append('.');
+		long frac = scaled % 1000000;
+		for(long digit = 100000; digit > 1 && frac < digit; digit /= 10)
+			sb.append('0');
+		sb.append(frac);
+	}
+
+	/*
+	 * Stops accepting samples, waits for everything already recorded to reach
+	 * the file and closes it
+	 */
+	@Override
+	public void close() {
+		if(!mRunning) return;
+		mRunning = false;
+		LockSupport.unpark(mWriterThread);
+		try {
+			mWriterThread.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		try {
+			mOutput.close();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+
+		if(mDropped.get() > 0)
+			System.err.println("Telemetry: " + mDropped.get() + " samples dropped");
+	}
+
+	public long getRecorded() {
+		return mHead.get();
+	}
+
+	public long getWritten() {
+		return mTail.get();
+	}
+
+	public long getDropped() {
+		return mDropped.get();
+	}
+
+	public OverflowPolicy getPolicy() {
+		return mPolicy;
+	}
+
+	/*
+	 * Non-null if the writer thread stopped because of an I/O error
+	 */
+	public IOException getFailure() {
+		return mFailure;
+	}
+}
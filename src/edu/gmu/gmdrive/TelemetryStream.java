@@ -0,0 +1,472 @@
+package edu.gmu.gmdrive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Serves live telemetry to any number of subscribers on a loopback TCP port,
+ * for dashboards watching a session as it runs (see TelemetrySubscriber).
+ *
+ * Stream layout, big endian as DataInputStream reads it:
+ *
+ *   int    magic "GMDS"
+ *   short  version
+ *   int    column count
+ *   int    rows per batch
+ *   per column: byte type (see TelemetryFile), UTF name
+ *
+ * then batches of samples as they are recorded:
+ *
+ *   int    bytes that follow
+ *   long   number of the first row, counted from the start of the session
+ *   int    rows
+ *   rows of values in the column types, row major
+ *
+ * A subscriber that joins late starts with the next batch; one that sees the
+ * row numbers jump has had batches dropped.
+ *
+ * record() fills the current batch and, when it is full, hands it to a
+ * selector thread that copies it into every subscriber's buffer and writes
+ * as much as each socket accepts without blocking.  Each buffer holds at
+ * most bufferBytes; when a batch does not fit, the subscriber's DropPolicy
+ * decides what gives.  The simulation thread never waits: if the selector
+ * thread has fallen BUFFERS batches behind, samples are dropped instead.
+ */
+public class TelemetryStream implements Recorder {
+	public static final int MAGIC = 0x474d4453; // "GMDS"
+	public static final short VERSION = 1;
+	public static final int FRAME_HEADER = 16; // length, first row, rows
+	public static final int DEFAULT_BATCH_ROWS = 10; // 100 ms at the default step
+	public static final int DEFAULT_BUFFER_BYTES = 1 << 16; // per subscriber
+	public static final int BUFFERS = 32; // batches in flight between the simulation and the selector thread
+	public static final int MAX_SUBSCRIBERS = 64;
+
+	/*
+	 * What to do with a batch that does not fit in a lagging subscriber's
+	 * buffer
+	 */
+	public enum DropPolicy {
+		OLDEST,     // discard the oldest unsent batches, so the subscriber stays current
+		NEWEST,     // discard the new batch, so the subscriber sees an unbroken start
+		DISCONNECT  // close the connection
+	}
+
+	/*
+	 * One batch of samples, laid out as it is sent
+	 */
+	private static class Batch {
+		ByteBuffer mData;
+		int mRows;
+
+		Batch(int size) {
+			mData = size > 0 ? ByteBuffer.allocate(size) : null;
+		}
+	}
+	private static final Batch END = new Batch(0);
+
+	/*
+	 * A connected subscriber; selector thread only
+	 */
+	private static class Subscriber {
+		SocketChannel mChannel;
+		ByteBuffer mOut; // unsent bytes, in write mode
+		int mHeadRemaining; // unsent bytes of the frame (or stream header) at the start of mOut
+		boolean mBlocked; // waiting for the socket to accept more
+		long mDropped;
+	}
+
+	private TelemetryColumn[] mColumns;
+	private byte[] mTypes;
+	private int mBatchRows, mRowBytes, mBufferBytes;
+	private DropPolicy mPolicy;
+	private byte[] mHeader;
+
+	/* Simulation thread */
+	private Batch mCurrent;
+	private long mRows;
+	private boolean mClosed;
+
+	private ArrayBlockingQueue<Batch> mFree, mFull;
+	private AtomicLong mDroppedRows, mDroppedBatches;
+	private volatile int mSubscriberCount;
+	private volatile boolean mFailed;
+
+	/* Selector thread */
+	private ServerSocketChannel mServer;
+	private Selector mSelector;
+	private Thread mThread;
+	private ArrayList<Subscriber> mSubscribers = new ArrayList<Subscriber>();
+	private ByteBuffer mScratch = ByteBuffer.allocate(256);
+
+	public TelemetryStream(int port) throws IOException {
+		this(port, TelemetryColumn.defaults(), DEFAULT_BATCH_ROWS, DEFAULT_BUFFER_BYTES, DropPolicy.OLDEST);
+	}
+
+	/*
+	 * Port 0 picks a free one; see getPort
+	 */
+	public TelemetryStream(int port, TelemetryColumn[] columns, int batchRows, int bufferBytes, DropPolicy policy) throws IOException {
+		if(columns.length == 0)
+			throw new IllegalArgumentException("No telemetry columns");
+		if(batchRows <= 0)
+			throw new IllegalArgumentException("Batch rows must be positive");
+
+		mColumns = columns.clone();
+		mBatchRows = batchRows;
+		mPolicy = policy;
+		mTypes = new byte[mColumns.length];
+		for(int i = 0; i < mColumns.length; i++) {
+			mTypes[i] = TelemetryFile.typeOf(mColumns[i]);
+			mRowBytes += mTypes[i] == TelemetryFile.TYPE_FLOAT64 ? 8 : 4;
+		}
+
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(header);
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeInt(mColumns.length);
+		out.writeInt(mBatchRows);
+		for(int i = 0; i < mColumns.length; i++) {
+			out.writeByte(mTypes[i]);
+			out.writeUTF(mColumns[i].getName());
+		}
+		out.close();
+		mHeader = header.toByteArray();
+
+		/* Room for the stream header and at least two whole batches */
+		int frameBytes = FRAME_HEADER + mBatchRows * mRowBytes;
+		mBufferBytes = Math.max(bufferBytes, mHeader.length + 2 * frameBytes);
+
+		mFree = new ArrayBlockingQueue<Batch>(BUFFERS);
+		mFull = new ArrayBlockingQueue<Batch>(BUFFERS + 1);
+		for(int b = 1; b < BUFFERS; b++)
+			mFree.add(new Batch(frameBytes));
+		mCurrent = new Batch(frameBytes);
+		mCurrent.mData.position(FRAME_HEADER);
+		mDroppedRows = new AtomicLong();
+		mDroppedBatches = new AtomicLong();
+
+		mSelector = Selector.open();
+		try {
+			mServer = ServerSocketChannel.open();
+			mServer.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+			mServer.configureBlocking(false);
+			mServer.register(mSelector, SelectionKey.OP_ACCEPT);
+		} catch(IOException e) {
+			if(mServer != null) mServer.close();
+			mSelector.close();
+			throw e;
+		}
+
+		mThread = new Thread(new Runnable() {
+			public void run() {
+				serve();
+			}
+		}, "TelemetryStream");
+		mThread.setDaemon(true);
+		mThread.start();
+	}
+
+	@Override
+	public void record(Simulation sim) {
+		if(mClosed) return;
+		if(mFailed) {
+			mDroppedRows.incrementAndGet();
+			mRows++;
+			return;
+		}
+		if(mCurrent == null) {
+			mCurrent = mFree.poll();
+			if(mCurrent == null) {
+				mDroppedRows.incrementAndGet();
+				mRows++;
+				return;
+			}
+			mCurrent.mData.clear();
+			mCurrent.mData.position(FRAME_HEADER);
+		}
+
+		ByteBuffer data = mCurrent.mData;
+		for(int i = 0; i < mColumns.length; i++) {
+			double value = mColumns[i].sample(sim);
+			switch(mTypes[i]) {
+			case TelemetryFile.TYPE_INT32: data.putInt((int)value); break;
+			case TelemetryFile.TYPE_FLOAT32: data.putFloat((float)value); break;
+			default: data.putDouble(value); break;
+			}
+		}
+		mCurrent.mRows++;
+		mRows++;
+
+		if(mCurrent.mRows == mBatchRows)
+			send();
+	}
+
+	/*
+	 * Completes the current batch and wakes the selector thread
+	 */
+	private void send() {
+		ByteBuffer data = mCurrent.mData;
+		data.putInt(0, data.position() - 4);
+		data.putLong(4, mRows - mCurrent.mRows);
+		data.putInt(12, mCurrent.mRows);
+		data.flip();
+		mFull.add(mCurrent); // never full: there are only BUFFERS batches
+		mCurrent = null;
+		mSelector.wakeup();
+	}
+
+	/*
+	 * Selector thread body
+	 */
+	private void serve() {
+		try {
+			boolean running = true;
+			while(running) {
+				mSelector.select();
+
+				Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+				while(keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if(!key.isValid()) continue;
+					if(key.isAcceptable()) {
+						accept();
+					} else {
+						Subscriber s = (Subscriber)key.attachment();
+						if(key.isReadable()) read(s);
+						if(key.isValid() && key.isWritable()) write(s);
+					}
+				}
+
+				Batch batch;
+				while((batch = mFull.poll()) != null) {
+					if(batch == END) {
+						running = false;
+						break;
+					}
+					for(int i = 0; i < mSubscribers.size(); i++)
+						enqueue(mSubscribers.get(i), batch.mData);
+					batch.mRows = 0;
+					mFree.add(batch);
+				}
+
+				for(int i = 0; i < mSubscribers.size(); i++) {
+					Subscriber s = mSubscribers.get(i);
+					if(!s.mBlocked && s.mOut.position() > 0) write(s);
+				}
+				removeClosed();
+			}
+		} catch(IOException e) {
+			e.printStackTrace();
+			System.err.println("Telemetry stream failed, live telemetry is no longer served!");
+		} finally {
+			mFailed = true; // record() drops samples from here on
+			for(int i = 0; i < mSubscribers.size(); i++)
+				closeQuietly(mSubscribers.get(i));
+			mSubscribers.clear();
+			mSubscriberCount = 0;
+			try {
+				mServer.close();
+				mSelector.close();
+			} catch(IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = mServer.accept();
+		if(channel == null) return;
+		if(mSubscribers.size() >= MAX_SUBSCRIBERS) {
+			System.err.println("Telemetry stream: " + MAX_SUBSCRIBERS + " subscribers already, refusing another");
+			channel.close();
+			return;
+		}
+		try {
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			Subscriber s = new Subscriber();
+			s.mChannel = channel;
+			s.mOut = ByteBuffer.allocate(mBufferBytes);
+			s.mOut.put(mHeader);
+			s.mHeadRemaining = mHeader.length;
+			channel.register(mSelector, SelectionKey.OP_READ, s);
+			mSubscribers.add(s);
+			mSubscriberCount = mSubscribers.size();
+			write(s);
+		} catch(IOException e) {
+			channel.close();
+		}
+	}
+
+	/*
+	 * Subscribers send nothing; reading only notices them hanging up
+	 */
+	private void read(Subscriber s) {
+		try {
+			mScratch.clear();
+			if(s.mChannel.read(mScratch) < 0)
+				closeQuietly(s);
+		} catch(IOException e) {
+			closeQuietly(s);
+		}
+	}
+
+	/*
+	 * Copies a batch into a subscriber's buffer, applying the drop policy if
+	 * it does not fit even after writing what the socket takes
+	 */
+	private void enqueue(Subscriber s, ByteBuffer frame) {
+		ByteBuffer out = s.mOut;
+		int need = frame.remaining();
+		if(out.remaining() < need && !s.mBlocked)
+			write(s);
+		if(!s.mChannel.isOpen()) return;
+		if(out.remaining() < need) {
+			if(mPolicy == DropPolicy.DISCONNECT) {
+				System.err.println("Telemetry stream: disconnecting a subscriber that fell " + out.position() + " bytes behind");
+				closeQuietly(s);
+				return;
+			}
+			int start = s.mHeadRemaining, end = start;
+			if(mPolicy == DropPolicy.OLDEST) {
+				/* Whole unsent frames after the one being written */
+				int dropped = 0;
+				while(end < out.position() && out.remaining() + (end - start) < need) {
+					end += 4 + out.getInt(end);
+					dropped++;
+				}
+				if(out.remaining() + (end - start) >= need) {
+					System.arraycopy(out.array(), end, out.array(), start, out.position() - end);
+					out.position(out.position() - (end - start));
+					s.mDropped += dropped;
+					mDroppedBatches.addAndGet(dropped);
+				}
+			}
+			if(out.remaining() < need) {
+				s.mDropped++;
+				mDroppedBatches.incrementAndGet();
+				return;
+			}
+		}
+		out.put(frame.array(), frame.position(), need);
+	}
+
+	/*
+	 * Writes what the socket takes without blocking, and asks the selector to
+	 * say when it takes more
+	 */
+	private void write(Subscriber s) {
+		ByteBuffer out = s.mOut;
+		try {
+			out.flip();
+			int sent = s.mChannel.write(out);
+			if(sent >= s.mHeadRemaining) {
+				/* Find the frame the write stopped in */
+				int offset = s.mHeadRemaining, length = 0;
+				while(offset < sent) {
+					length = 4 + out.getInt(offset);
+					if(offset + length > sent) break;
+					offset += length;
+				}
+				s.mHeadRemaining = offset >= sent ? 0 : offset + length - sent;
+			} else {
+				s.mHeadRemaining -= sent;
+			}
+			out.compact();
+
+			boolean blocked = out.position() > 0;
+			if(blocked != s.mBlocked) {
+				s.mBlocked = blocked;
+				s.mChannel.keyFor(mSelector).interestOps(blocked ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+			}
+		} catch(IOException e) {
+			closeQuietly(s);
+		}
+	}
+
+	private void removeClosed() {
+		for(int i = mSubscribers.size() - 1; i >= 0; i--) {
+			if(!mSubscribers.get(i).mChannel.isOpen())
+				mSubscribers.remove(i);
+		}
+		mSubscriberCount = mSubscribers.size();
+	}
+
+	private void closeQuietly(Subscriber s) {
+		try {
+			s.mChannel.close();
+		} catch(IOException e) {
+		}
+	}
+
+	/*
+	 * Sends the partial batch and stops serving.  Subscribers get what their
+	 * sockets accept straight away; the rest is dropped rather than waited for.
+	 */
+	@Override
+	public void close() {
+		if(mClosed) return;
+		mClosed = true;
+		if(mCurrent != null && mCurrent.mRows > 0 && !mFailed)
+			send();
+		mFull.add(END);
+		mSelector.wakeup();
+		try {
+			mThread.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if(mDroppedRows.get() > 0)
+			System.err.println("Telemetry stream: " + mDroppedRows.get() + " samples dropped before sending");
+	}
+
+	/*
+	 * The port subscribers connect to on the loopback address
+	 */
+	public int getPort() {
+		return mServer.socket().getLocalPort();
+	}
+
+	public int getSubscriberCount() {
+		return mSubscriberCount;
+	}
+
+	public long getRows() {
+		return mRows;
+	}
+
+	/*
+	 * Samples never sent to anyone, because the selector thread fell behind
+	 * or failed
+	 */
+	public long getDroppedRows() {
+		return mDroppedRows.get();
+	}
+
+	/*
+	 * Batches some subscriber missed, counted once per subscriber
+	 */
+	public long getDroppedBatches() {
+		return mDroppedBatches.get();
+	}
+
+	public DropPolicy getDropPolicy() {
+		return mPolicy;
+	}
+}
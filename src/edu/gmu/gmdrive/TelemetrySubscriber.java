@@ -0,0 +1,147 @@
+package edu.gmu.gmdrive;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/*
+ * Reads the live telemetry served by TelemetryStream, one batch at a time,
+ * blocking until each arrives.
+ *
+ * usage: TelemetrySubscriber port
+ *
+ * prints the stream as CSV, noting any rows the subscriber missed.
+ */
+public class TelemetrySubscriber {
+	private Socket mSocket;
+	private DataInputStream mIn;
+	private String[] mNames;
+	private byte[] mTypes;
+	private int mBatchRows;
+
+	private double[] mValues; // row major, the last batch
+	private int mRows;
+	private long mFirstRow, mNextRow;
+	private long mMissed;
+
+	public TelemetrySubscriber(int port) throws IOException {
+		mSocket = new Socket(InetAddress.getLoopbackAddress(), port);
+		try {
+			mIn = new DataInputStream(new BufferedInputStream(mSocket.getInputStream()));
+			if(mIn.readInt() != TelemetryStream.MAGIC)
+				throw new IOException("Not a telemetry stream on port " + port);
+			int version = mIn.readShort();
+			if(version != TelemetryStream.VERSION)
+				throw new IOException("Unsupported telemetry stream version " + version);
+			int columns = mIn.readInt();
+			mBatchRows = mIn.readInt();
+			mNames = new String[columns];
+			mTypes = new byte[columns];
+			for(int i = 0; i < columns; i++) {
+				mTypes[i] = mIn.readByte();
+				mNames[i] = mIn.readUTF();
+			}
+			mValues = new double[columns * mBatchRows];
+			mNextRow = -1;
+		} catch(IOException e) {
+			mSocket.close();
+			throw e;
+		}
+	}
+
+	/*
+	 * Waits for the next batch.  Returns false when the stream has ended; a
+	 * batch cut short by the publisher closing is discarded.
+	 */
+	public boolean next() throws IOException {
+		try {
+			int length = mIn.readInt();
+			mFirstRow = mIn.readLong();
+			mRows = mIn.readInt();
+			if(mRows < 0 || mRows > mBatchRows || length != TelemetryStream.FRAME_HEADER - 4 + mRows * rowBytes())
+				throw new IOException("Corrupt telemetry batch");
+			for(int i = 0; i < mRows * mTypes.length; i++) {
+				switch(mTypes[i % mTypes.length]) {
+				case TelemetryFile.TYPE_INT32: mValues[i] = mIn.readInt(); break;
+				case TelemetryFile.TYPE_FLOAT32: mValues[i] = mIn.readFloat(); break;
+				default: mValues[i] = mIn.readDouble(); break;
+				}
+			}
+		} catch(EOFException e) {
+			mRows = 0;
+			return false;
+		}
+		if(mNextRow >= 0 && mFirstRow > mNextRow)
+			mMissed += mFirstRow - mNextRow;
+		mNextRow = mFirstRow + mRows;
+		return true;
+	}
+
+	private int rowBytes() {
+		int bytes = 0;
+		for(int i = 0; i < mTypes.length; i++)
+			bytes += mTypes[i] == TelemetryFile.TYPE_FLOAT64 ? 8 : 4;
+		return bytes;
+	}
+
+	public int getColumnCount() { return mNames.length; }
+	public String getColumnName(int column) { return mNames[column]; }
+	public byte getColumnType(int column) { return mTypes[column]; }
+
+	/*
+	 * The batch read by the last next()
+	 */
+	public int getRows() { return mRows; }
+	public long getFirstRow() { return mFirstRow; }
+	public double getValue(int row, int column) { return mValues[row * mNames.length + column]; }
+
+	/*
+	 * Rows dropped between batches since connecting
+	 */
+	public long getMissed() { return mMissed; }
+
+	public void close() throws IOException {
+		mSocket.close();
+	}
+
+	public static void main(String[] args) {
+		if(args.length < 1) {
+			System.err.println("usage: TelemetrySubscriber port");
+			System.exit(-1);
+		}
+
+		try {
+			TelemetrySubscriber in = new TelemetrySubscriber(Integer.parseInt(args[0]));
+			StringBuilder line = new StringBuilder();
+			for(int i = 0; i < in.getColumnCount(); i++)
+				line.append(i > 0 ? "," : "").append(in.getColumnName(i));
+			System.out.println(line);
+
+			long missed = 0;
+			while(in.next()) {
+				if(in.getMissed() > missed) {
+					System.err.println("Missed " + (in.getMissed() - missed) + " rows");
+					missed = in.getMissed();
+				}
+				for(int row = 0; row < in.getRows(); row++) {
+					line.setLength(0);
+					for(int i = 0; i < in.getColumnCount(); i++) {
+						if(i > 0) line.append(',');
+						if(in.getColumnType(i) == TelemetryFile.TYPE_INT32)
+							line.append((long)in.getValue(row, i));
+						else
+							line.append(in.getValue(row, i));
+					}
+					System.out.println(line);
+				}
+			}
+			in.close();
+		} catch(IOException e) {
+			e.printStackTrace();
+			System.exit(-1);
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package edu.gmu.gmdrive;
+
+/*
+ * Tire force curve in the form of Pacejka's magic formula,
+ *
+ *   F / Fz = D sin(C atan(B s - E (B s - atan(B s))))
+ *
+ * sampled once into a table, so the physics interpolates instead of calling
+ * sin and atan for every wheel on every step.
+ *
+ * s is the sliding velocity of the contact patch along one axis in m/s, the
+ * quantity the original linear model responds to, rather than a slip angle
+ * or ratio: both of those are undefined at standstill, where the simulation
+ * spends the start of every drive.  B is per m/s; D is the peak friction
+ * coefficient.  The curve is odd, so only s >= 0 is stored, out to
+ * RANGE / B, far past the peak; beyond that the force stays at the last
+ * sample.  Within the table, interpolation is good to about 0.1% of Fz for
+ * typical coefficients.
+ */
+public class TireCurve {
+	public static final int TABLE_SIZE = 512; // intervals
+	public static final float RANGE = 30; // table end, in units of 1 / B
+
+	private float mB, mC, mD, mE;
+	private float[] mTable;
+	private float mInvStep, mPeak;
+
+	public TireCurve(float b, float c, float d, float e) {
+		if(!(b > 0) || !(c > 0) || !(d > 0))
+			throw new IllegalArgumentException("B, C and D must be positive");
+		mB = b;
+		mC = c;
+		mD = d;
+		mE = e;
+
+		float end = RANGE / b;
+		mTable = new float[TABLE_SIZE + 2]; // one past the end, so force() never checks i + 1
+		for(int i = 0; i <= TABLE_SIZE; i++) {
+			mTable[i] = (float)magicFormula(i * (double)end / TABLE_SIZE);
+			mPeak = Math.max(mPeak, Math.abs(mTable[i]));
+		}
+		mTable[TABLE_SIZE + 1] = mTable[TABLE_SIZE];
+		mInvStep = TABLE_SIZE / end;
+	}
+
+	/*
+	 * The formula itself, F / Fz at slip
+	 */
+	public double magicFormula(double slip) {
+		double bs = mB * slip;
+		return mD * Math.sin(mC * Math.atan(bs - mE * (bs - Math.atan(bs))));
+	}
+
+	/*
+	 * F / Fz at slip, interpolated
+	 */
+	public float force(float slip) {
+		float x = Math.min(Math.abs(slip) * mInvStep, TABLE_SIZE);
+		int i = (int)x;
+		float value = mTable[i] + (mTable[i + 1] - mTable[i]) * (x - i);
+		return slip < 0 ? -value : value;
+	}
+
+	/*
+	 * d(F / Fz) / d slip at slip, from the table; negative past the peak
+	 */
+	public float slope(float slip) {
+		float x = Math.abs(slip) * mInvStep;
+		if(x >= TABLE_SIZE) return 0.0f;
+		int i = (int)x;
+		return (mTable[i + 1] - mTable[i]) * mInvStep;
+	}
+
+	/*
+	 * Largest |F / Fz| the curve reaches
+	 */
+	public float getPeak() { return mPeak; }
+
+	public float getB() { return mB; }
+	public float getC() { return mC; }
+	public float getD() { return mD; }
+	public float getE() { return mE; }
+
+	/*
+	 * "B, C, D, E"
+	 */
+	public static TireCurve parse(String value) {
+		String[] parts = value.split(",");
+		if(parts.length != 4)
+			throw new IllegalArgumentException("Expected B, C, D, E: " + value);
+		return new TireCurve(Float.parseFloat(parts[0].trim()), Float.parseFloat(parts[1].trim()),
+				Float.parseFloat(parts[2].trim()), Float.parseFloat(parts[3].trim()));
+	}
+
+	@Override
+	public String toString() {
+		return mB + ", " + mC + ", " + mD + ", " + mE;
+	}
+}
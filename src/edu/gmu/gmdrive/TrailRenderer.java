@@ -0,0 +1,33 @@
+package edu.gmu.gmdrive;
+
+import org.newdawn.slick.Color;
+import org.newdawn.slick.Graphics;
+
+/*
+ * Slick rendering for a PathTrail.  Draws the single level of detail whose
+ * error is below a pixel at the current scale, so the number of segments is
+ * bounded by the trail capacity.
+ */
+public class TrailRenderer {
+	public static final float PIXEL_TOLERANCE = 1.0f; // px
+
+	/*
+	 * Draws in world coordinates; worldPerPixel is the size of one screen pixel in m
+	 */
+	public void render(Graphics g, PathTrail trail, float worldPerPixel) {
+		if(trail.isEmpty()) return;
+
+		int level = trail.levelFor(worldPerPixel * PIXEL_TOLERANCE);
+		int count = trail.size(level);
+
+		g.setColor(Color.blue);
+		for(int i = 1; i < count; i++)
+			g.drawLine(trail.getX(level, i - 1), trail.getY(level, i - 1), trail.getX(level, i), trail.getY(level, i));
+		if(count > 0)
+			g.drawLine(trail.getX(level, count - 1), trail.getY(level, count - 1), trail.getLastX(), trail.getLastY());
+
+		g.setColor(Color.cyan);
+		for(int i = 0; i < count; i++)
+			g.fillRect(trail.getX(level, i) - 0.5f, trail.getY(level, i) - 0.5f, 1.0f, 1.0f);
+	}
+}
@@ -0,0 +1,93 @@
+package edu.gmu.gmdrive;
+
+/*
+ * Minimal 2D vector used by the simulation core so that it does not depend on
+ * Slick's geom package.  Semantics follow org.newdawn.slick.geom.Vector2f:
+ * add/sub/scale modify this vector in place and return it, negate() and
+ * rotate() return new vectors.
+ */
+public class Vec2 {
+	public float x, y;
+
+	public Vec2() {
+		this(0.0f, 0.0f);
+	}
+
+	public Vec2(float x, float y) {
+		this.x = x;
+		this.y = y;
+	}
+
+	public Vec2 set(float x, float y) {
+		this.x = x;
+		this.y = y;
+		return this;
+	}
+
+	public Vec2 copy() {
+		return(new Vec2(x, y));
+	}
+
+	public Vec2 add(Vec2 other) {
+		x += other.x;
+		y += other.y;
+		return this;
+	}
+
+	public Vec2 sub(Vec2 other) {
+		x -= other.x;
+		y -= other.y;
+		return this;
+	}
+
+	public Vec2 scale(float factor) {
+		x *= factor;
+		y *= factor;
+		return this;
+	}
+
+	public Vec2 negate() {
+		return(new Vec2(-x, -y));
+	}
+
+	/*
+	 * Returns a copy of this vector rotated by angle radians (same convention as
+	 * Transform.createRotateTransform)
+	 */
+	public Vec2 rotate(float angle) {
+		float cos = (float)Math.cos(angle);
+		float sin = (float)Math.sin(angle);
+		return(new Vec2(x * cos - y * sin, x * sin + y * cos));
+	}
+
+	public float dot(Vec2 other) {
+		return(x * other.x + y * other.y);
+	}
+
+	public float length() {
+		return (float)Math.sqrt(x * x + y * y);
+	}
+
+	public float distance(Vec2 other) {
+		float dx = other.x - x;
+		float dy = other.y - y;
+		return (float)Math.sqrt(dx * dx + dy * dy);
+	}
+
+	/*
+	 * Projects this vector onto the unit vector b, storing the result in result
+	 */
+	public void projectOntoUnit(Vec2 b, Vec2 result) {
+		float dp = dot(b);
+		result.x = dp * b.x;
+		result.y = dp * b.y;
+	}
+
+	public float getX() { return x; }
+	public float getY() { return y; }
+
+	@Override
+	public String toString() {
+		return "[Vec2 " + x + "," + y + "]";
+	}
+}
@@ -1,186 +1,136 @@
 package edu.gmu.gmdrive;
 
-import org.newdawn.slick.Color;
-import org.newdawn.slick.GameContainer;
-import org.newdawn.slick.Graphics;
-import org.newdawn.slick.geom.Transform;
-import org.newdawn.slick.geom.Vector2f;
-
+/*
+ * View onto a four-wheeled body in a PhysicsWorld.  Wheel order is FL, FR, RL, RR.
+ */
 public class Vehicle extends RigidBody {
-	//private static final float C_DRAG = 0.4257f; 
-	private static final float C_DRAG = 0.09f;
-	private static final float C_ROLLING_RESISTANCE = 6.8f;
-	
-	private Wheel[] mWheels;
+	//private static final float C_DRAG = 0.4257f;
+	public static final float C_DRAG = 0.09f;
+	public static final float C_ROLLING_RESISTANCE = 6.8f;
+	public static final float STEERING_LOCK = 0.349f; // rad
+	//public static final float MAX_TORQUE_FT_LB = 240.0f;
+	public static final float MAX_TORQUE_FT_LB = 90.0f;
+	public static final float MAX_BRAKE_TORQUE = 50.0f; // N m
+	private static final float FT_LB_TO_NM = 1.3558f;
+
+	private static final int WHEELS = 4;
+	private static final int FL = 0, FR = 1, RL = 2, RR = 3;
+
+	private VehicleProfile mProfile;
+	private int mFirstWheel;
+	private float mSteeringLock, mMaxTorqueNM, mMaxBrakeTorque;
+	private float mMaxPower; // W at the driven wheels; 0 for no limit
+
+	/*
+	 * Standalone vehicle in a world of its own
+	 */
+	public Vehicle() {
+		this(new PhysicsWorld(1));
+	}
 
 	/*
 	 * These values are based on a 2010 Ford Mustang
 	 * Length in meters, weight in kg
 	 */
-	public Vehicle() { 
-		super(new Vector2f(0.935f, 2.385f), 542.6f);
-		
-		mWheels = new Wheel[4];
-		mWheels[0] = new Wheel("FL",new Vector2f(-0.791f, 1.36f), 0.4826f); // FL
-		mWheels[1] = new Wheel("FR",new Vector2f(0.791f, 1.36f),0.4826f); // FR
-		mWheels[2] = new Wheel("RL",new Vector2f(-0.798f,-1.36f),0.4826f); // RL
-		mWheels[3] = new Wheel("RR",new Vector2f(0.798f,-1.36f),0.4826f); // RR
+	public Vehicle(PhysicsWorld world) {
+		this(world, VehicleProfile.DEFAULT);
 	}
-	
-	public void setSteering(float steering) {
-		float steeringLock = 0.349f;
-		
-		mWheels[0].setSteeringAngle(steering * steeringLock);
-		mWheels[1].setSteeringAngle(steering * steeringLock);
+
+	public Vehicle(PhysicsWorld world, VehicleProfile profile) {
+		super(world, new Vec2(profile.getHalfWidth(), profile.getHalfLength()), profile.getMass(), WHEELS);
+		mProfile = profile;
+
+		mFirstWheel = world.mWheelStart[mIndex];
+		world.setDrag(mIndex, profile.getDrag(), profile.getRollingResistance());
+		float front = profile.getFrontAxle(), rear = -profile.getRearAxle();
+		float frontX = profile.getFrontTrack() / 2, rearX = profile.getRearTrack() / 2;
+		float radius = profile.getWheelRadius();
+		world.setWheel(mFirstWheel + FL, -frontX, front, radius);
+		world.setWheel(mFirstWheel + FR, frontX, front, radius);
+		world.setWheel(mFirstWheel + RL, -rearX, rear, radius);
+		world.setWheel(mFirstWheel + RR, rearX, rear, radius);
+		for(int i = 0; i < WHEELS; i++) {
+			float load = i < RL ? profile.getFrontWheelLoad() : profile.getRearWheelLoad();
+			world.setTire(mFirstWheel + i, load, profile.getSideFactor(), profile.getLateral(), profile.getLongitudinal());
+		}
+
+		mSteeringLock = profile.getSteeringLock();
+		setMaxTorque(profile.getMaxTorque());
+		mMaxBrakeTorque = profile.getMaxBrakeTorque();
+		setMaxPower(profile.getMaxPower());
 	}
-	
-	public void setThrottle(float throttle) {
-		//float maxTorque = 325.4f; // 240 ft-lbs
-		float maxTorqueFtLb = 90.0f;
-		float maxTorqueNM = maxTorqueFtLb * 1.3558f;
-		
-		mWheels[2].addTransmissionTorque(throttle * maxTorqueNM / 2);
-		mWheels[3].addTransmissionTorque(throttle * maxTorqueNM / 2);
+
+	/*
+	 * TUNING, for experiments; the constructor sets the profile's values
+	 */
+	public void setDrag(float drag, float rollingResistance) {
+		mWorld.setDrag(mIndex, drag, rollingResistance);
 	}
-	
-	public void setBrakes(float brakes) {
-		float maxBrakeTorque = 50.0f;
-		
-		for(Wheel wheel : mWheels) {
-			float speed = wheel.getWheelSpeed();
-			float sign = Math.signum(speed);
-			float brakeTorque = -sign * maxBrakeTorque * brakes * brakes;
-			wheel.addTransmissionTorque(brakeTorque);
-		}
+
+	public void setSteeringLock(float steeringLock) {
+		mSteeringLock = steeringLock;
 	}
-	
-	public void update(int delta) {
-		float timeStep = delta / 1000.0f;
-		
-		/* per-wheel forces */
-		for(Wheel wheel : mWheels) {
-			Vector2f worldWheelOffset = relToWorld(wheel.getAttachPoint());
-			Vector2f worldGroundVel = pointVel(worldWheelOffset);
-			Vector2f relGroundVel = worldToRel(worldGroundVel);
-			Vector2f relRespForce = wheel.calculateForce(relGroundVel, timeStep);
-			Vector2f worldRespForce = relToWorld(relRespForce);
-			
-			this.addForce(worldRespForce,worldWheelOffset);
-		}
-		
-		super.update(delta);
-		/* Rolling resistance */
-		this.addForce(mVelocity.copy().scale(-C_ROLLING_RESISTANCE), new Vector2f(0,0));
 
-		/* Linear Drag */
-		this.addForce(mVelocity.copy().scale(-C_DRAG * mVelocity.length() * getMass()), new Vector2f(0,0));
+	/*
+	 * Peak engine torque in ft-lb, split over the rear wheels
+	 */
+	public void setMaxTorque(float maxTorqueFtLb) {
+		mMaxTorqueNM = maxTorqueFtLb * FT_LB_TO_NM;
 	}
-	
-	public void render(GameContainer gc, Graphics g) {
-		super.render(gc, g);
-		g.pushTransform();
-			g.translate(mPosition.x, mPosition.y);
-			g.rotate(0, 0, mAngle * 180 / (float)Math.PI);
-			for(Wheel wheel : mWheels) {
-				g.setColor(Color.gray);
-				float radius = wheel.getRadius();
-				Vector2f wheelPos = wheel.getAttachPoint();
-				g.pushTransform();
-					g.translate(wheelPos.x, wheelPos.y);
-					g.pushTransform();
-						g.translate(wheelPos.x * 10, wheelPos.y * 10);
-						g.scale(.5f, 0.5f);
-					g.popTransform();
-					//g.drawLine(0, 0, wheel.mForwardAxis.x*5, wheel.mForwardAxis.y*5);
-					g.pushTransform();
-						g.rotate(0.0f, 0.0f, wheel.mSteeringAngle * 180 / (float)Math.PI);
-						g.fillRect(radius / 4f, -radius, radius / 2f, radius * 2f);
-					g.popTransform();
-					
-//					g.setColor(Color.red);
-//					g.drawLine(0.0f, 0.0f, wheel.mResponseForce.x / 10, wheel.mResponseForce.y / 10);
-				g.popTransform();
-			}
-			g.setColor(Color.white);
-		g.popTransform();
+
+	/*
+	 * Peak power in kW at the driven wheels, 0 for none; above the speed where
+	 * it is reached the drive torque falls off as power / wheel speed
+	 */
+	public void setMaxPower(float maxPowerKW) {
+		mMaxPower = maxPowerKW * 1000;
 	}
-	
-	private class Wheel {
-		private Vector2f mForwardAxis, mSideAxis;
-		private Vector2f mPosition;
-		
-		private float mWheelTorque, mWheelSpeed, mWheelInertia, mWheelRadius;
-		private float mSteeringAngle;
-		private String mID;
-		
-		public Wheel(String id, Vector2f position, float radius) {
-			mID = id;
-			mPosition = position;
-			
-			mWheelRadius = radius;
-			
-			setSteeringAngle(0.0f);
-			
-			mWheelSpeed = 0.0f;
-			mWheelInertia = (1.0f / 2.0f) * 1.5f * radius * radius;
-		}
-		
-		public String getID() {
-			return mID;
-		}
 
-		public float getTorque() {
-			return mWheelTorque;
-		}
+	public void setMaxBrakeTorque(float maxBrakeTorque) {
+		mMaxBrakeTorque = maxBrakeTorque;
+	}
 
-		public void setSteeringAngle(float newAngle) {
-			Transform mat = Transform.createRotateTransform(newAngle);
-			mForwardAxis = mat.transform(new Vector2f(0.0f, 1.0f));
-			mSideAxis = mat.transform(new Vector2f(-1.0f, 0.0f));
-			mSteeringAngle = newAngle;
-		}
-		
-		public void addTransmissionTorque(float torque) {
-			mWheelTorque += torque;
-		}
-		
-		public Vector2f calculateForce(Vector2f relGroundSpeed, float timeStep) {
-			Vector2f patchSpeed = mForwardAxis.negate().scale(mWheelSpeed * mWheelRadius);
-			Vector2f velDiff = patchSpeed.add(relGroundSpeed);
-			
-			Vector2f responseForce = new Vector2f();
-			
-			Vector2f sideVel = new Vector2f();
-			Vector2f forwardVel = new Vector2f();
-
-			velDiff.projectOntoUnit(mSideAxis, sideVel);
-			velDiff.projectOntoUnit(mForwardAxis, forwardVel);
-			
-			float forwardMag = velDiff.dot(mForwardAxis);
-			
-			sideVel.scale(1.5f); // Arbitrary
-			
-			responseForce.sub(sideVel).sub(forwardVel).scale(542.6f / 4.0f);
-			
-			mWheelTorque += forwardMag * mWheelRadius;
-			
-			float preSign = Math.signum(mWheelSpeed);
-			mWheelSpeed += mWheelTorque * mWheelRadius / mWheelInertia * timeStep; // Bad integrator
-			if(preSign != 0.0f && Math.signum(mWheelSpeed) != preSign)
-				mWheelSpeed = 0.0f;
-			
-			mWheelTorque = 0;
-			return(responseForce);
+	public void setSteering(float steering) {
+		mWorld.setSteeringAngle(mFirstWheel + FL, steering * mSteeringLock);
+		mWorld.setSteeringAngle(mFirstWheel + FR, steering * mSteeringLock);
+	}
+
+	public void setThrottle(float throttle) {
+		float torque = throttle * mMaxTorqueNM / 2;
+		for(int w = mFirstWheel + RL; w <= mFirstWheel + RR; w++) {
+			if(mMaxPower > 0.0f)
+				mWorld.mWheelTorque[w] += throttle * Math.min(mMaxTorqueNM / 2, mMaxPower / 2 / Math.abs(mWorld.mWheelSpeed[w]));
+			else
+				mWorld.mWheelTorque[w] += torque;
 		}
-		
-		public float getWheelSpeed() { return mWheelSpeed; }
-		public float getRadius() { return mWheelRadius; }
-		public Vector2f getAttachPoint() { return mPosition; }
 	}
 
+	public void setBrakes(float brakes) {
+		/* The world applies it against the wheel's spin as it integrates */
+		for(int w = mFirstWheel; w < mFirstWheel + WHEELS; w++)
+			mWorld.mBrakeTorque[w] = mMaxBrakeTorque * brakes * brakes;
+	}
+
+	public VehicleProfile getProfile() { return mProfile; }
+	public float getSteeringLock() { return mSteeringLock; }
+
+	/*
+	 * Distance between the front and rear axles
+	 */
+	public float getWheelbase() {
+		return mWorld.mAttachY[mFirstWheel + FL] - mWorld.mAttachY[mFirstWheel + RL];
+	}
+
+	public int getWheelCount() { return WHEELS; }
+	public Vec2 getWheelAttachPoint(int index) { return new Vec2(mWorld.mAttachX[mFirstWheel + index], mWorld.mAttachY[mFirstWheel + index]); }
+	public float getWheelAttachX(int index) { return mWorld.mAttachX[mFirstWheel + index]; }
+	public float getWheelAttachY(int index) { return mWorld.mAttachY[mFirstWheel + index]; }
+	public float getWheelRadius(int index) { return mWorld.mRadius[mFirstWheel + index]; }
+	public float getWheelSteeringAngle(int index) { return mWorld.mSteeringAngle[mFirstWheel + index]; }
+	public float getWheelSpeed(int index) { return mWorld.mWheelSpeed[mFirstWheel + index]; }
+
 	public float getSpeedometer() {
-		Vector2f vehForwardAxis = new Vector2f(1.0f,0.0f);
-		vehForwardAxis.setTheta((mAngle * 180f / (float)Math.PI) + 90);
-		return(Math.abs(mVelocity.dot(vehForwardAxis)));
-	}	
+		/* velocity along the body's forward axis, (0,1) rotated by the body angle */
+		return(Math.abs(mWorld.mVelX[mIndex] * -mWorld.mSin[mIndex] + mWorld.mVelY[mIndex] * mWorld.mCos[mIndex]));
+	}
 }
@@ -0,0 +1,168 @@
+package edu.gmu.gmdrive;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Properties;
+
+/*
+ * Everything that makes one Vehicle different from another, read from a
+ * properties file (see vehicles/):
+ *
+ *   name = 2010 Ford Mustang
+ *   mass = 542.6                  kg
+ *   halfWidth = 0.935             m, body half size
+ *   halfLength = 2.385
+ *   frontAxle = 1.36              m ahead of the centre of mass
+ *   rearAxle = 1.36               m behind it
+ *   frontTrack = 1.582            m between the front wheels
+ *   rearTrack = 1.596
+ *   wheelRadius = 0.4826          m
+ *   drag = 0.09                   see PhysicsWorld
+ *   rolling = 6.8
+ *   steeringLock = 0.349          rad
+ *   torque = 90                   ft-lb, peak, split over the rear wheels
+ *   power = 0                     kW at the rear wheels, 0 for no limit
+ *   brakeTorque = 50              N m per wheel
+ *   tire = linear | pacejka
+ *   sideFactor = 1.5              linear only: side / forward stiffness
+ *   tireLateral = B, C, D, E      pacejka only: TireCurve coefficients
+ *   tireLongitudinal = B, C, D, E
+ *
+ * Missing keys keep the values of DEFAULT, the car the simulation has always
+ * driven; unknown keys are an error, so a typo does not silently give the
+ * default.
+ */
+public class VehicleProfile {
+	public static final String LINEAR = "linear", PACEJKA = "pacejka";
+
+	private static final String[] KEYS = { "name", "mass", "halfWidth", "halfLength", "frontAxle", "rearAxle",
+			"frontTrack", "rearTrack", "wheelRadius", "drag", "rolling", "steeringLock", "torque", "power", "brakeTorque",
+			"tire", "sideFactor", "tireLateral", "tireLongitudinal" };
+
+	/* Based on a 2010 Ford Mustang; these are the original Vehicle constants */
+	public static final VehicleProfile DEFAULT = new VehicleProfile();
+
+	private String mName, mFilename;
+	private float mMass, mHalfWidth, mHalfLength;
+	private float mFrontAxle, mRearAxle, mFrontTrack, mRearTrack, mWheelRadius;
+	private float mDrag, mRollingResistance, mSteeringLock, mMaxTorque, mMaxPower, mMaxBrakeTorque;
+	private float mSideFactor;
+	private TireCurve mLateral, mLongitudinal; // null for the linear tire
+
+	private VehicleProfile() {
+		mName = "2010 Ford Mustang";
+		mMass = 542.6f;
+		mHalfWidth = 0.935f;
+		mHalfLength = 2.385f;
+		mFrontAxle = 1.36f;
+		mRearAxle = 1.36f;
+		mFrontTrack = 2 * 0.791f;
+		mRearTrack = 2 * 0.798f;
+		mWheelRadius = 0.4826f;
+		mDrag = Vehicle.C_DRAG;
+		mRollingResistance = Vehicle.C_ROLLING_RESISTANCE;
+		mSteeringLock = Vehicle.STEERING_LOCK;
+		mMaxTorque = Vehicle.MAX_TORQUE_FT_LB;
+		mMaxBrakeTorque = Vehicle.MAX_BRAKE_TORQUE;
+		mSideFactor = 1.5f; // Arbitrary
+	}
+
+	/*
+	 * Reads a profile file; a null or empty filename, or "default", is DEFAULT
+	 */
+	public static VehicleProfile load(String filename) throws IOException {
+		if(filename == null || filename.length() == 0 || filename.equals("default"))
+			return DEFAULT;
+
+		Properties props = new Properties();
+		InputStream in = new FileInputStream(filename);
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+
+		for(String key : props.stringPropertyNames()) {
+			if(!Arrays.asList(KEYS).contains(key))
+				throw new IOException("Unknown vehicle parameter '" + key + "' in " + filename);
+		}
+
+		VehicleProfile p = new VehicleProfile();
+		p.mFilename = filename;
+		try {
+			p.mName = props.getProperty("name", filename).trim();
+			p.mMass = get(props, "mass", p.mMass);
+			p.mHalfWidth = get(props, "halfWidth", p.mHalfWidth);
+			p.mHalfLength = get(props, "halfLength", p.mHalfLength);
+			p.mFrontAxle = get(props, "frontAxle", p.mFrontAxle);
+			p.mRearAxle = get(props, "rearAxle", p.mRearAxle);
+			p.mFrontTrack = get(props, "frontTrack", p.mFrontTrack);
+			p.mRearTrack = get(props, "rearTrack", p.mRearTrack);
+			p.mWheelRadius = get(props, "wheelRadius", p.mWheelRadius);
+			p.mDrag = get(props, "drag", p.mDrag);
+			p.mRollingResistance = get(props, "rolling", p.mRollingResistance);
+			p.mSteeringLock = get(props, "steeringLock", p.mSteeringLock);
+			p.mMaxTorque = get(props, "torque", p.mMaxTorque);
+			p.mMaxPower = get(props, "power", p.mMaxPower);
+			p.mMaxBrakeTorque = get(props, "brakeTorque", p.mMaxBrakeTorque);
+			p.mSideFactor = get(props, "sideFactor", p.mSideFactor);
+
+			String tire = props.getProperty("tire", LINEAR).trim();
+			if(tire.equals(PACEJKA)) {
+				String lateral = props.getProperty("tireLateral");
+				String longitudinal = props.getProperty("tireLongitudinal");
+				if(lateral == null || longitudinal == null)
+					throw new IOException("Pacejka tire needs tireLateral and tireLongitudinal in " + filename);
+				p.mLateral = TireCurve.parse(lateral);
+				p.mLongitudinal = TireCurve.parse(longitudinal);
+			} else if(!tire.equals(LINEAR)) {
+				throw new IOException("Unknown tire '" + tire + "' in " + filename + ", expected linear or pacejka");
+			}
+		} catch(IllegalArgumentException e) {
+			throw new IOException("Bad vehicle profile " + filename + ": " + e.getMessage());
+		}
+
+		if(!(p.mMass > 0) || !(p.mWheelRadius > 0) || !(p.mFrontAxle + p.mRearAxle > 0))
+			throw new IOException("Mass, wheel radius and wheelbase must be positive in " + filename);
+		return p;
+	}
+
+	private static float get(Properties props, String key, float value) {
+		String s = props.getProperty(key);
+		return s != null ? Float.parseFloat(s.trim()) : value;
+	}
+
+	/*
+	 * Static normal load on one front or rear wheel in kg, from where the
+	 * centre of mass sits between the axles
+	 */
+	public float getFrontWheelLoad() { return mMass * (mRearAxle / (mFrontAxle + mRearAxle)) / 2; }
+	public float getRearWheelLoad() { return mMass * (mFrontAxle / (mFrontAxle + mRearAxle)) / 2; }
+
+	public String getName() { return mName; }
+	public String getFilename() { return mFilename; } // null for DEFAULT
+	public float getMass() { return mMass; }
+	public float getHalfWidth() { return mHalfWidth; }
+	public float getHalfLength() { return mHalfLength; }
+	public float getFrontAxle() { return mFrontAxle; }
+	public float getRearAxle() { return mRearAxle; }
+	public float getFrontTrack() { return mFrontTrack; }
+	public float getRearTrack() { return mRearTrack; }
+	public float getWheelRadius() { return mWheelRadius; }
+	public float getDrag() { return mDrag; }
+	public float getRollingResistance() { return mRollingResistance; }
+	public float getSteeringLock() { return mSteeringLock; }
+	public float getMaxTorque() { return mMaxTorque; }
+	public float getMaxPower() { return mMaxPower; }
+	public float getMaxBrakeTorque() { return mMaxBrakeTorque; }
+	public float getSideFactor() { return mSideFactor; }
+	public TireCurve getLateral() { return mLateral; }
+	public TireCurve getLongitudinal() { return mLongitudinal; }
+
+	@Override
+	public String toString() {
+		return mName + (mLateral != null ? " (pacejka tires)" : " (linear tires)");
+	}
+}
@@ -12,8 +12,8 @@ public class Waypoint extends PointSound {
 	
 	//private FloatBuffer mSourcePos, mSourceVel;
 	
-	public Waypoint() throws SlickException {
-		super("waypoint.wav");
+	public Waypoint(AudioThread audio) throws SlickException {
+		super("waypoint.wav", audio);
 		
 		mPingInterval = 0;
 		mPingAccumulator = 0;